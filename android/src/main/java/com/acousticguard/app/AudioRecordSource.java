@@ -0,0 +1,81 @@
+package com.acousticguard.app;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+import com.acousticguard.dsp.BlockSource;
+
+import java.io.IOException;
+
+// The microphone as a BlockSource: 16-bit mono AudioRecord with blocks of the minimum buffer
+// size. Everything downstream of read() is plain Java in the dsp module.
+//
+// Each read is timed into Diagnostics: how long it blocked, and the gap since the previous
+// read returned. AudioRecord's buffer is blockSize bytes, i.e. half a block of samples, and a
+// read leaves it nearly empty, so a gap longer than the buffer's duration means the capture
+// thread was too slow and audio was most likely overwritten.
+public class AudioRecordSource implements BlockSource {
+
+    private final AudioRecord record;
+    private final int blockSize;
+    private final long bufferNanos;
+    private long lastReturnNanos; // 0 right after start()
+
+    public AudioRecordSource(int sampleRate) {
+        blockSize = AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        record = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, blockSize);
+        bufferNanos = blockSize / 2 * 1_000_000_000L / sampleRate;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    // Fails if the microphone did not start, e.g. because another app holds it.
+    public void start() throws IOException {
+        lastReturnNanos = 0;
+        record.startRecording();
+        if (record.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+            throw new IOException("Microphone is unavailable");
+        }
+    }
+
+    // Any thread; a blocked read() returns.
+    public void stop() {
+        record.stop();
+    }
+
+    public void release() {
+        record.release();
+    }
+
+    // What a negative read() result means, for logs and the user.
+    public static String describeError(int read) {
+        switch (read) {
+            case AudioRecord.ERROR_INVALID_OPERATION:
+                return "microphone is not recording";
+            case AudioRecord.ERROR_BAD_VALUE:
+                return "invalid read";
+            case AudioRecord.ERROR_DEAD_OBJECT:
+                return "microphone was disconnected";
+            default:
+                return "microphone error " + read;
+        }
+    }
+
+    // Negative on failure, see describeError(); a failed AudioRecord keeps failing.
+    @Override
+    public int read(short[] buffer, int offset, int length) {
+        long start = System.nanoTime();
+        if (lastReturnNanos != 0) {
+            long gap = start - lastReturnNanos;
+            Diagnostics.GAP_US.record(gap / 1000);
+            if (gap > bufferNanos) Diagnostics.LATE_READS.incrementAndGet();
+        }
+        int read = record.read(buffer, offset, length);
+        lastReturnNanos = System.nanoTime();
+        Diagnostics.READ_US.record((lastReturnNanos - start) / 1000);
+        return read;
+    }
+}
@@ -0,0 +1,566 @@
+package com.acousticguard.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.acousticguard.dsp.AcousticEvent;
+import com.acousticguard.dsp.AudioBlock;
+import com.acousticguard.dsp.CpuClock;
+import com.acousticguard.dsp.EventDetector;
+import com.acousticguard.dsp.LevelChannel;
+import com.acousticguard.dsp.LevelMeter;
+import com.acousticguard.dsp.LevelStatistics;
+import com.acousticguard.dsp.LosslessFile;
+import com.acousticguard.dsp.LosslessWriter;
+import com.acousticguard.dsp.PcmBlockWriter;
+import com.acousticguard.dsp.Pipeline;
+import com.acousticguard.dsp.PreTriggerBuffer;
+import com.acousticguard.dsp.SampleSink;
+import com.acousticguard.dsp.SpectralAnalyzer;
+import com.acousticguard.dsp.Stage;
+import com.acousticguard.dsp.WavFile;
+import com.acousticguard.dsp.WavFileWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Captures the microphone on a dedicated thread and turns it into sessions. AudioRecordSource
+// feeds a dsp Pipeline (LevelMeter, SpectralAnalyzer, EventDetector, then the current
+// segment's PcmBlockWriter, statistics and peak pyramid, and the UI's LevelChannel); this class
+// only adds the Android side and the session bookkeeping around it. With a segment length set
+// the output rolls over into a new, self-contained session (<prefix><ts>.wav or .agl, + .agm)
+// every segmentMs; finishing a segment (closing the audio, writing the sidecar) runs on a
+// separate thread so capture never waits. Lossless encoding happens on the PcmBlockWriter's
+// thread, never on the capture thread.
+//
+// In triggered mode nothing reaches storage until a buffer is loud enough to open an event:
+// the last few seconds are kept in a PreTriggerBuffer and only computed on by a cheap RMS gate,
+// and each trigger becomes a clip session with the pre-trigger audio, the event and a post-roll.
+// Between checks the microphone can optionally be released (duty cycling).
+//
+// Used by MainActivity for manual recordings and by MonitorService for unattended monitoring.
+public class CaptureEngine {
+
+    private static final String TAG = "CaptureEngine";
+    private static final CpuClock THREAD_CPU = Debug::threadCpuTimeNanos;
+    public static final String DETECTOR_PREFS = "detector";
+    public static final String STATS_PREFS = "statistics";
+    public static final String STORAGE_PREFS = "storage";
+
+    public static class Config {
+        public int sampleRate = 44100;
+        public EventDetector.Config detector = new EventDetector.Config();
+        public boolean aWeighted;
+        // 0 records a single session until stop().
+        public long segmentMs;
+        public int writerRingBlocks = 32;
+        // Store sessions as LosslessFile (.agl) instead of WAV; the writer thread encodes.
+        public boolean lossless;
+
+        // Triggered mode: the gate is detector.openDb; a clip ends once the level has stayed
+        // below detector.closeDb for postRollMs (at least mergeGapMs), and segmentMs caps the
+        // length of a single clip. Clips in which the detector confirmed no event are dropped.
+        public boolean triggered;
+        public long preTriggerMs = 3000;
+        public long postRollMs = 3000;
+        // Duty cycling while waiting for a trigger: listen for dutyListenMs, then release the
+        // microphone for dutySleepMs. 0 listens all the time.
+        public long dutyListenMs;
+        public long dutySleepMs;
+        // Interval of the DiagnosticsLog next to the recordings; 0 writes none.
+        public long diagnosticsLogMs = 60_000;
+        // Sessions are named <namePrefix><creation ms>, see SessionAudio.
+        public String namePrefix = SessionAudio.RECORDING_PREFIX;
+
+        // Detector thresholds and statistics options as saved in the app's preferences.
+        public static Config fromPreferences(Context context, int sampleRate) {
+            Config config = new Config();
+            config.sampleRate = sampleRate;
+            SharedPreferences prefs = context.getSharedPreferences(DETECTOR_PREFS, Context.MODE_PRIVATE);
+            EventDetector.Config detector = config.detector;
+            detector.openDb = prefs.getFloat("open_db", detector.openDb);
+            detector.closeDb = prefs.getFloat("close_db", detector.closeDb);
+            detector.attackMs = prefs.getLong("attack_ms", detector.attackMs);
+            detector.minDurationMs = prefs.getLong("min_duration_ms", detector.minDurationMs);
+            detector.mergeGapMs = prefs.getLong("merge_gap_ms", detector.mergeGapMs);
+            config.aWeighted = context.getSharedPreferences(STATS_PREFS, Context.MODE_PRIVATE).getBoolean("a_weighting", false);
+            config.lossless = context.getSharedPreferences(STORAGE_PREFS, Context.MODE_PRIVATE).getBoolean("lossless", false);
+            return config;
+        }
+    }
+
+    public interface Listener {
+        // Capture thread. Events belong to the segment that was current when they opened.
+        void onEventOpened(AcousticEvent event);
+        void onEventClosed(AcousticEvent event);
+        // Finisher thread, once the segment's audio and sidecar are complete.
+        void onSegmentFinished(String basePath, SessionMetadata meta);
+        // Capture thread, as it ends on its own because the microphone failed. The current
+        // segment is finished as usual; the owner must still call stop().
+        void onCaptureFailed(String message);
+    }
+
+    // Everything that makes up one output session.
+    private static final class Segment {
+        final String basePath;
+        final File audio;
+        final PcmBlockWriter writer;
+        final SessionMetadata meta = new SessionMetadata();
+        final LevelStatistics stats;
+        long samples;
+        boolean clip;
+        // Writer totals already added to Diagnostics.
+        long reportedBytes;
+        long reportedOverruns;
+
+        Segment(String basePath, File audio, PcmBlockWriter writer, Config config, int blockSize) {
+            this.basePath = basePath;
+            this.audio = audio;
+            this.writer = writer;
+            this.stats = new LevelStatistics(config.sampleRate);
+            meta.sampleRate = config.sampleRate;
+            meta.samplesPerAmplitude = blockSize;
+            meta.aWeighted = config.aWeighted;
+        }
+    }
+
+    private final File dir;
+    private final Config config;
+    private final LevelChannel levels;
+    private final Listener listener;
+    private final ExecutorService finisher = Executors.newSingleThreadExecutor(r -> new Thread(r, "segment-finisher"));
+    private final Object dutyLock = new Object();
+    private final DiagnosticsLog diagnosticsLog;
+
+    private AudioRecordSource source;
+    private Thread captureThread;
+    private int blockSize;
+    private int ringBlocks;
+    private volatile boolean running;
+    private volatile String failure; // why capture ended before stop(), if it did
+    private volatile Segment current; // null while triggered capture waits
+
+    // Capture thread only.
+    private Pipeline pipeline;
+    private EventDetector detector;
+    private long reportedLevelDrops;
+
+    // Resource usage, to compare continuous and triggered capture.
+    private long startedMs;
+    private volatile long stoppedMs;
+    private volatile long captureCpuNanos;
+    private volatile long writerCpuNanos;   // finished segments only
+    private volatile long bytesWritten;     // audio and sidecar bytes, including dropped clips
+    private volatile int clipsDropped;
+
+    // levels may be null when nobody displays the live meter.
+    public CaptureEngine(File dir, Config config, LevelChannel levels, Listener listener) {
+        this.dir = dir;
+        this.config = config;
+        this.levels = levels;
+        this.listener = listener;
+        this.diagnosticsLog = config.diagnosticsLogMs > 0 ? new DiagnosticsLog(dir, config.diagnosticsLogMs) : null;
+    }
+
+    public void start() throws IOException {
+        source = new AudioRecordSource(config.sampleRate);
+        blockSize = source.getBlockSize();
+        ringBlocks = config.writerRingBlocks;
+        try {
+            // before any file exists, so a busy microphone leaves nothing behind
+            source.start();
+            if (config.triggered) {
+                // the whole pre-trigger is handed to the writer at once
+                ringBlocks = Integer.highestOneBit(preTriggerBlocks() + ringBlocks - 1) << 1;
+            } else {
+                current = openSegment(System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            source.release();
+            source = null;
+            throw e;
+        }
+        startedMs = SystemClock.elapsedRealtime();
+        running = true;
+        if (diagnosticsLog != null) diagnosticsLog.start(describe());
+        captureThread = new Thread(this::capture, "capture");
+        captureThread.start();
+    }
+
+    // Stops capturing; the last segment is finished asynchronously like the others.
+    public void stop() {
+        if (!running) return;
+        synchronized (dutyLock) {
+            running = false;
+            dutyLock.notifyAll();
+        }
+        source.stop();
+        boolean interrupted = false;
+        while (captureThread.isAlive()) {
+            try {
+                captureThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        source.release();
+        source = null;
+        current = null;
+        // after the last segment, so the usage is final
+        if (diagnosticsLog != null) finisher.execute(() -> diagnosticsLog.stop(formatUsage()));
+        finisher.shutdown();
+    }
+
+    // False once stopped, and also once capture failed on its own.
+    public boolean isRunning() {
+        return running && failure == null;
+    }
+
+    // Base path (without extension) of the segment being written, or null once stopped.
+    public String getCurrentBasePath() {
+        Segment segment = current;
+        return segment != null ? segment.basePath : null;
+    }
+
+    public LevelStatistics getCurrentStatistics() {
+        Segment segment = current;
+        return segment != null ? segment.stats : null;
+    }
+
+    public boolean isAWeighted() {
+        return config.aWeighted;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    // Capture thread plus the writer threads of finished segments.
+    public long getCpuNanos() {
+        return captureCpuNanos + writerCpuNanos;
+    }
+
+    // Storage and CPU per hour of capture so far, e.g. "312.4 MB/h, CPU 1.85%".
+    public String formatUsage() {
+        long end = stoppedMs > 0 ? stoppedMs : SystemClock.elapsedRealtime();
+        double hours = Math.max(1, end - startedMs) / 3_600_000.0;
+        double cpuPercent = getCpuNanos() / 1e6 / (hours * 3_600_000.0) * 100;
+        String usage = String.format(Locale.US, "%.1f MB/h, CPU %.2f%%", bytesWritten / 1048576.0 / hours, cpuPercent);
+        if (config.triggered) usage += ", " + clipsDropped + " clips dropped";
+        return usage;
+    }
+
+    // e.g. "continuous, block 3584, A-weighted"
+    private String describe() {
+        return (config.triggered ? "triggered" : "continuous") + ", block " + blockSize + (config.aWeighted ? ", A-weighted" : "")
+                + (config.lossless ? ", lossless" : "");
+    }
+
+    private int preTriggerBlocks() {
+        return (int) ((config.preTriggerMs * config.sampleRate / 1000 + blockSize - 1) / blockSize);
+    }
+
+    private Segment openSegment(long createdMs) throws IOException {
+        String extension = config.lossless ? LosslessFile.EXTENSION : SessionAudio.WAV_EXTENSION;
+        String prefix = config.namePrefix;
+        File audio = new File(dir, prefix + createdMs + extension);
+        // 片段的起点可能早于上一个片段结束的毫秒数，避免重名
+        while (audio.exists()) audio = new File(dir, prefix + ++createdMs + extension);
+        String basePath = new File(dir, prefix + createdMs).getPath();
+        // 录音直接流式写入最终文件，结束时只需回填头部（无损格式另写跳转表）；
+        // 无损编码在写线程上进行，录音线程只复制数据块
+        SampleSink sink = config.lossless
+                ? new LosslessWriter(audio, config.sampleRate)
+                : new WavFileWriter(audio, config.sampleRate, 1, 16);
+        return new Segment(basePath, audio, new PcmBlockWriter(sink, blockSize, ringBlocks, THREAD_CPU), config, blockSize);
+    }
+
+    private void capture() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        detector = new EventDetector(config.detector, new EventDetector.Listener() {
+            @Override
+            public void onEventOpened(AcousticEvent event) {
+                listener.onEventOpened(event);
+            }
+
+            @Override
+            public void onEventClosed(AcousticEvent event) {
+                current.meta.addEvent(event);
+                listener.onEventClosed(event);
+            }
+        });
+        // 统计可选 A 计权；检测和波形仍使用未计权的电平
+        pipeline = new Pipeline(config.sampleRate, blockSize)
+                .add(new LevelMeter(config.sampleRate, config.aWeighted))
+                .add(new SpectralAnalyzer(config.sampleRate))
+                .add(detector)
+                .add(new SegmentStage());
+
+        if (config.triggered) {
+            captureTriggered();
+        } else {
+            captureContinuous();
+        }
+        sampleCounters();
+        stoppedMs = SystemClock.elapsedRealtime();
+        if (failure != null) {
+            Log.e(TAG, "Capture failed: " + failure);
+            listener.onCaptureFailed(failure);
+        }
+        // runs after the last segment has been finished
+        finisher.execute(() -> Log.i(TAG, (config.triggered ? "Triggered" : "Continuous") + " capture: " + formatUsage()));
+    }
+
+    // Capture thread, every few dozen blocks: counters that need not be exact per block.
+    private void sampleCounters() {
+        captureCpuNanos = Debug.threadCpuTimeNanos();
+        if (levels != null) {
+            long dropped = levels.getDropped();
+            Diagnostics.LEVELS_DROPPED.addAndGet(dropped - reportedLevelDrops);
+            reportedLevelDrops = dropped;
+        }
+    }
+
+    // Last analysis stage: the block goes to the current segment's WAV (through the writer
+    // thread), statistics and peak pyramid.
+    private final class SegmentStage implements Stage {
+        @Override
+        public void process(AudioBlock block) {
+            Segment segment = current;
+            // 写线程跟不上时本块只丢弃音频，电平、事件和统计照常计算
+            PcmBlockWriter writer = segment.writer;
+            writer.process(block);
+            segment.stats.process(block);
+            segment.meta.amplitudes.append(block.amplitude);
+            segment.samples += block.length;
+
+            Diagnostics.WRITER_BACKLOG.record(writer.getQueueDepth());
+            long bytes = writer.getBytesWritten();
+            Diagnostics.PCM_BYTES.addAndGet(bytes - segment.reportedBytes);
+            segment.reportedBytes = bytes;
+            long overruns = writer.getOverruns();
+            if (overruns != segment.reportedOverruns) {
+                Diagnostics.WRITER_OVERRUNS.addAndGet(overruns - segment.reportedOverruns);
+                segment.reportedOverruns = overruns;
+            }
+        }
+
+        @Override
+        public void finish() {
+        }
+    }
+
+    private void captureContinuous() {
+        final long segmentSamples = config.segmentMs * config.sampleRate / 1000;
+        int blocks = 0;
+
+        while (running && failure == null) {
+            // 录音线程只负责读取和计算，写盘交给 PcmBlockWriter 的写线程
+            int read = pipeline.pump(source);
+            if (read <= 0) {
+                checkRead(read);
+                continue;
+            }
+            if (levels != null) levels.process(pipeline.getBlock());
+            if ((++blocks & 63) == 0) sampleCounters();
+
+            if (segmentSamples > 0 && current.samples >= segmentSamples) rollOver();
+        }
+        detector.flush();
+        finishAsync(current);
+    }
+
+    private void captureTriggered() {
+        final int sampleRate = config.sampleRate;
+        final long segmentSamples = config.segmentMs * sampleRate / 1000;
+        final long postRollSamples = Math.max(config.postRollMs, config.detector.mergeGapMs) * sampleRate / 1000;
+        final float closeDb = Math.min(config.detector.closeDb, config.detector.openDb);
+        PreTriggerBuffer preTrigger = new PreTriggerBuffer(preTriggerBlocks(), blockSize);
+        long lastLoudSamples = 0;
+        long listenStartMs = SystemClock.elapsedRealtime();
+        int blocks = 0;
+
+        while (running && failure == null) {
+            if ((++blocks & 63) == 0) sampleCounters();
+            Segment segment = current;
+            if (segment == null) {
+                // 等待触发：只算 RMS，音频留在内存环形缓冲里，不写盘
+                short[] buffer = preTrigger.next();
+                int read = source.read(buffer, 0, blockSize);
+                if (read <= 0) {
+                    checkRead(read);
+                    continue;
+                }
+                preTrigger.commit(read);
+                double rms = Math.sqrt(LevelMeter.sumOfSquares(buffer, read) / read);
+                float level = (float) LevelMeter.toDb(rms);
+                if (levels != null) levels.offer((float) rms / 32768f, (int) level);
+
+                if (level >= config.detector.openDb) {
+                    if (openClip(preTrigger)) lastLoudSamples = current.samples;
+                    listenStartMs = SystemClock.elapsedRealtime();
+                } else if (config.dutyListenMs > 0
+                        && SystemClock.elapsedRealtime() - listenStartMs >= config.dutyListenMs) {
+                    sleepMicrophone();
+                    // 麦克风中断过，旧的预触发音频与之后的声音不连续
+                    preTrigger.clear();
+                    listenStartMs = SystemClock.elapsedRealtime();
+                }
+                continue;
+            }
+
+            int read = pipeline.pump(source);
+            if (read <= 0) {
+                checkRead(read);
+                continue;
+            }
+            // 实时电平只来自现场读取的块，不包括回放的预触发音频
+            if (levels != null) levels.process(pipeline.getBlock());
+            if (pipeline.getBlock().level >= closeDb) lastLoudSamples = segment.samples;
+
+            if (segment.samples - lastLoudSamples >= postRollSamples) {
+                // 事件和后置录音都已写入，回到等待状态
+                detector.flush();
+                finishAsync(segment);
+                current = null;
+                listenStartMs = SystemClock.elapsedRealtime();
+            } else if (segmentSamples > 0 && segment.samples >= segmentSamples) {
+                if (rollOver()) lastLoudSamples = 0;
+            }
+        }
+        if (current != null) {
+            detector.flush();
+            finishAsync(current);
+        }
+    }
+
+    // The gate tripped: start a clip whose first blocks are the buffered pre-trigger audio, run
+    // through the pipeline like live blocks so its levels, events and statistics line up.
+    private boolean openClip(PreTriggerBuffer preTrigger) {
+        int count = preTrigger.size();
+        long createdMs = System.currentTimeMillis() - preTrigger.getSampleCount() * 1000 / config.sampleRate;
+        Segment clip;
+        try {
+            clip = openSegment(createdMs);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not start a clip", e);
+            preTrigger.clear();
+            return false;
+        }
+        clip.clip = true;
+        current = clip;
+        // the clip does not continue the last one: the microphone may have slept in between,
+        // and the A-weighting and FFT history still hold audio from before
+        pipeline.reset();
+        // the writer's ring was sized to take the whole pre-trigger at once
+        for (int i = 0; i < count; i++) pipeline.process(preTrigger.get(i), 0, preTrigger.length(i));
+        preTrigger.clear();
+        return true;
+    }
+
+    // 占空比：在两次监听之间释放麦克风以省电，stop() 会立即唤醒
+    private void sleepMicrophone() {
+        source.stop();
+        long until = SystemClock.elapsedRealtime() + config.dutySleepMs;
+        synchronized (dutyLock) {
+            long left;
+            while (running && (left = until - SystemClock.elapsedRealtime()) > 0) {
+                try {
+                    dutyLock.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (!running) return;
+            try {
+                source.start();
+            } catch (IOException e) {
+                // 例如睡眠期间麦克风被其他应用占用
+                failure = e.getMessage();
+            }
+        }
+    }
+
+    // A negative read while running means the AudioRecord is broken (e.g. the microphone was
+    // disconnected) and every further read fails at once: end capture instead of spinning.
+    // After stop() reads may fail too, which is expected.
+    private void checkRead(int read) {
+        if (read < 0 && running) failure = AudioRecordSource.describeError(read);
+    }
+
+    // Rolls over into a new segment; returns false, and keeps appending to the current one, if
+    // the next cannot be created.
+    private boolean rollOver() {
+        // 分段：当前事件在本段结束，下一段重新开始计时
+        detector.flush();
+        try {
+            Segment next = openSegment(System.currentTimeMillis());
+            finishAsync(current);
+            current = next;
+            pipeline.resetPosition();
+            return true;
+        } catch (IOException e) {
+            // e.g. the disk is full
+            Log.e(TAG, "Could not start a new segment", e);
+            return false;
+        }
+    }
+
+    private void finishAsync(Segment segment) {
+        finisher.execute(() -> finish(segment));
+    }
+
+    private void finish(Segment segment) {
+        PcmBlockWriter writer = segment.writer;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not finalize " + segment.audio, e);
+        }
+        Log.i(TAG, "PCM writer: blocks=" + writer.getBlocksWritten()
+                + " bytes=" + writer.getBytesWritten()
+                + " overruns=" + writer.getOverruns()
+                + " maxQueueDepth=" + writer.getMaxQueueDepth() + "/" + ringBlocks);
+        writerCpuNanos += Math.max(0, writer.getCpuNanos());
+        // what the writer flushed after the capture thread last looked
+        Diagnostics.PCM_BYTES.addAndGet(writer.getBytesWritten() - segment.reportedBytes);
+        long fileBytes = segment.audio.length();
+        bytesWritten += fileBytes;
+        if (config.lossless && writer.getBytesWritten() > 0) {
+            // 压缩率和每秒音频的编码 CPU 时间，用于评估无损存储的代价
+            double audioSeconds = writer.getBytesWritten() / 2.0 / config.sampleRate;
+            Log.i(TAG, String.format(Locale.US, "Lossless: %.1f%% of PCM, encode %.2f ms CPU per s of audio",
+                    fileBytes * 100.0 / (WavFile.HEADER_SIZE + writer.getBytesWritten()),
+                    Math.max(0, writer.getCpuNanos()) / 1e6 / audioSeconds));
+        }
+        boolean empty = segment.samples == 0 && config.segmentMs > 0; // stopped right after a rollover
+        boolean noEvent = segment.clip && segment.meta.markerCount == 0; // the gate tripped on a click
+        if (empty || noEvent) {
+            segment.audio.delete();
+            if (noEvent) clipsDropped++;
+            return;
+        }
+
+        SessionMetadata meta = segment.meta;
+        segment.stats.finish();
+        meta.stats = segment.stats.summarize();
+        meta.minuteStats = segment.stats.getMinutes();
+        File sidecar = new File(segment.basePath + SessionFile.EXTENSION);
+        try {
+            SessionFile.write(sidecar, meta);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write metadata for " + segment.basePath, e);
+        }
+        bytesWritten += sidecar.length();
+        listener.onSegmentFinished(segment.basePath, meta);
+    }
+}
@@ -0,0 +1,125 @@
+package com.acousticguard.app;
+
+import com.acousticguard.dsp.PeakPyramid;
+import com.acousticguard.dsp.SoundType;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+// Precomputed summary of one session as stored in the SessionCatalog, enough to list, sort and
+// filter sessions without opening their audio or sidecar files.
+public class CatalogEntry {
+
+    // Event counts are kept per SoundType and per band of peak level: below 60 dB, then one
+    // band per 10 dB from 60 up to 100 and above.
+    public static final int DB_BANDS = 6;
+    public static final int FIRST_BAND_DB = 60;
+    public static final int BAND_DB = 10;
+
+    public String name;            // base name without extension, e.g. REC_1700000000000
+    public long createdMs;
+    public long durationMs;
+    public long sizeBytes;         // audio plus sidecar
+    public float maxDb;
+    public float avgDb;
+    public float leq = Float.NaN;  // NaN for sessions recorded before level statistics
+    public int eventCount;
+    public final int[] typeBandCounts = new int[SoundType.values().length * DB_BANDS];
+
+    public static int bandOf(float db) {
+        if (db < FIRST_BAND_DB) return 0;
+        return Math.min(DB_BANDS - 1, 1 + (int) ((db - FIRST_BAND_DB) / BAND_DB));
+    }
+
+    // Events of the given type whose peak lies in a band starting at or above minDb; a minDb
+    // that is not a band boundary rounds up to the next band.
+    public int countEvents(SoundType type, int minDb) {
+        int count = 0;
+        int base = type.ordinal() * DB_BANDS;
+        for (int band = 0; band < DB_BANDS; band++) {
+            int bandLow = band == 0 ? Integer.MIN_VALUE : FIRST_BAND_DB + (band - 1) * BAND_DB;
+            if (bandLow >= minDb) count += typeBandCounts[base + band];
+        }
+        return count;
+    }
+
+    public int countEvents(SoundType type) {
+        return countEvents(type, Integer.MIN_VALUE);
+    }
+
+    public String getTitle() {
+        if (createdMs <= 0) return name;
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date(createdMs));
+    }
+
+    public String getSubtitle() {
+        long seconds = durationMs / 1000;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%d:%02d  %.1f MB", seconds / 60, seconds % 60, sizeBytes / 1048576f));
+        if (!Float.isNaN(leq)) sb.append(String.format(Locale.US, "  Leq %.1f", leq));
+        sb.append(String.format(Locale.US, "  max %.0f dB  %d events", maxDb, eventCount));
+        if (eventCount > 0) {
+            sb.append(" (");
+            boolean first = true;
+            for (SoundType type : SoundType.values()) {
+                int n = countEvents(type);
+                if (n == 0) continue;
+                if (!first) sb.append(", ");
+                sb.append(n).append(' ').append(type.label);
+                first = false;
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+    // Builds the entry for a recording from its audio (WAV or lossless) and, if present, its
+    // metadata.
+    public static CatalogEntry fromSession(String name, File audio, File sidecar, SessionMetadata meta) throws IOException {
+        CatalogEntry e = new CatalogEntry();
+        e.name = name;
+        e.createdMs = parseCreated(name, audio);
+        e.sizeBytes = audio.length() + (sidecar != null ? sidecar.length() : 0);
+        e.durationMs = SessionAudio.readDurationMs(audio);
+        if (meta == null) return e;
+
+        // Amplitudes are RMS / 32768; the app's dB scale is 20 log10(RMS / 0.1).
+        PeakPyramid amps = meta.amplitudes;
+        int n = amps.size();
+        double sum = 0;
+        float max = 0;
+        for (int i = 0; i < n; i++) {
+            float db = toDb(amps.get(i));
+            sum += db;
+            if (db > max) max = db;
+        }
+        e.maxDb = max;
+        e.avgDb = n > 0 ? (float) (sum / n) : 0f;
+        if (meta.stats != null) e.leq = meta.stats.leq;
+        e.eventCount = meta.markerCount;
+        for (int i = 0; i < meta.markerCount; i++) {
+            int type = SoundType.fromOrdinal(meta.markerType[i]).ordinal();
+            e.typeBandCounts[type * DB_BANDS + bandOf(meta.markerDb[i])]++;
+        }
+        return e;
+    }
+
+    private static float toDb(float amplitude) {
+        if (amplitude <= 0) return 0f;
+        return (float) Math.max(0, 20 * Math.log10(amplitude * 32768f / 0.1));
+    }
+
+    private static long parseCreated(String name, File audio) {
+        int underscore = name.lastIndexOf('_');
+        if (underscore >= 0) {
+            try {
+                return Long.parseLong(name.substring(underscore + 1));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return audio.lastModified();
+    }
+}
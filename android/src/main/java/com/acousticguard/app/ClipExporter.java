@@ -0,0 +1,140 @@
+package com.acousticguard.app;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.acousticguard.dsp.AcousticEvent;
+import com.acousticguard.dsp.LosslessFile;
+import com.acousticguard.dsp.LosslessReader;
+import com.acousticguard.dsp.WavFile;
+import com.acousticguard.dsp.WavFileWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Cuts the seconds around events out of a session WAV into standalone clips. Nothing is
+// decoded: the event times are turned into a frame-aligned byte range of the data chunk, a
+// fresh header is written and the range is copied with FileChannel.transferTo, so the PCM
+// never passes through the Java heap and the cost depends on the clip length only. Lossless
+// sessions are decoded from the frame the clip starts in (found in the seek table) to its
+// end, so their cost also depends on the clip length only.
+public class ClipExporter {
+
+    private static final String TAG = "ClipExporter";
+    public static final long DEFAULT_PADDING_MS = 2000;
+
+    public interface Listener {
+        // Main thread. clips holds everything written before an error, if any.
+        void onClipsExported(List<File> clips, IOException error);
+    }
+
+    private final File outDir;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "clip-export"));
+
+    public ClipExporter(File outDir) {
+        this.outDir = outDir;
+    }
+
+    // One clip per event, each padded by paddingMs on both sides, on the export thread.
+    public void exportAsync(File wav, List<AcousticEvent> events, long paddingMs, Listener listener) {
+        final List<AcousticEvent> snapshot = new ArrayList<>(events);
+        executor.execute(() -> {
+            List<File> clips = new ArrayList<>(snapshot.size());
+            IOException error = null;
+            try {
+                exportEvents(wav, snapshot, paddingMs, outDir, clips);
+            } catch (IOException e) {
+                Log.e(TAG, "Export from " + wav.getName() + " failed", e);
+                error = e;
+            }
+            final IOException failure = error;
+            mainHandler.post(() -> listener.onClipsExported(clips, failure));
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    // Writes <session>_<startMs>ms.wav into outDir for every event and adds it to clips.
+    public static void exportEvents(File wav, List<AcousticEvent> events, long paddingMs, File outDir, List<File> clips) throws IOException {
+        if (!outDir.isDirectory() && !outDir.mkdirs()) throw new IOException("Cannot create " + outDir);
+        String name = wav.getName();
+        String base = name.substring(0, name.lastIndexOf('.'));
+        try (RandomAccessFile in = new RandomAccessFile(wav, "r")) {
+            FileChannel channel = in.getChannel();
+            if (SessionAudio.isLossless(wav)) {
+                LosslessFile.Info info = LosslessFile.readInfo(channel);
+                if (info == null) throw new IOException(name + " is not a lossless recording");
+                LosslessReader reader = new LosslessReader(channel, info);
+                for (AcousticEvent e : events) {
+                    File out = new File(outDir, base + "_" + e.startMs + "ms.wav");
+                    extract(reader, e.startMs - paddingMs, e.endMs + paddingMs, out);
+                    clips.add(out);
+                }
+                return;
+            }
+            WavFile.Info info = WavFile.readInfo(channel);
+            if (info == null) throw new IOException(name + " is not a PCM WAV file");
+            for (AcousticEvent e : events) {
+                File out = new File(outDir, base + "_" + e.startMs + "ms.wav");
+                extract(channel, info, e.startMs - paddingMs, e.endMs + paddingMs, out);
+                clips.add(out);
+            }
+        }
+    }
+
+    // Copies [startMs, endMs) of the session, clamped to the audio present, into out.
+    public static long extract(FileChannel in, WavFile.Info info, long startMs, long endMs, File out) throws IOException {
+        int blockAlign = Math.max(1, info.getBlockAlign());
+        long frames = info.getFrameCount();
+        long firstFrame = Math.max(0, Math.min(frames, startMs * info.sampleRate / 1000));
+        long endFrame = Math.max(firstFrame, Math.min(frames, endMs * info.sampleRate / 1000));
+        long length = (endFrame - firstFrame) * blockAlign;
+
+        try (RandomAccessFile raf = new RandomAccessFile(out, "rw")) {
+            FileChannel target = raf.getChannel();
+            target.truncate(0);
+            WavFile.writeHeader(target, info.sampleRate, info.channels, info.bitsPerSample, length);
+            target.position(WavFile.HEADER_SIZE);
+            long position = info.dataOffset + firstFrame * blockAlign;
+            long remaining = length;
+            while (remaining > 0) {
+                // may move less than asked, e.g. when the kernel copies in chunks
+                long n = in.transferTo(position, remaining, target);
+                if (n <= 0) throw new IOException("Short copy into " + out.getName());
+                position += n;
+                remaining -= n;
+            }
+        }
+        return length;
+    }
+
+    // Decodes [startMs, endMs) of a lossless session, clamped to the audio present, into a
+    // WAV clip.
+    public static long extract(LosslessReader in, long startMs, long endMs, File out) throws IOException {
+        LosslessFile.Info info = in.getInfo();
+        long samples = info.sampleCount;
+        long first = Math.max(0, Math.min(samples, startMs * info.sampleRate / 1000));
+        long remaining = Math.max(first, Math.min(samples, endMs * info.sampleRate / 1000)) - first;
+        in.seek(first);
+        short[] buffer = new short[info.frameSamples];
+        try (WavFileWriter target = new WavFileWriter(out, info.sampleRate, 1, 16)) {
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n <= 0) throw new IOException("Short read for " + out.getName());
+                target.write(buffer, 0, n);
+                remaining -= n;
+            }
+            return target.getDataLength();
+        }
+    }
+}
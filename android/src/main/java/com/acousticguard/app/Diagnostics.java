@@ -0,0 +1,95 @@
+package com.acousticguard.app;
+
+import com.acousticguard.dsp.Histogram;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Process-wide counters and latency histograms for the capture path and the UI, so that a
+// marker lost in the field can be traced to AudioRecord, the WAV writer or a busy main thread.
+// Each metric is recorded by the one thread named below, and recording never allocates. A
+// Report turns them into text for the debug overlay and the periodic DiagnosticsLog.
+public final class Diagnostics {
+
+    // Capture thread.
+    public static final Histogram READ_US = new Histogram();             // blocked in AudioRecord.read
+    public static final Histogram GAP_US = new Histogram();              // from one read returning to the next
+    public static final AtomicLong LATE_READS = new AtomicLong();        // gaps longer than a block: audio lost
+    public static final Histogram WRITER_BACKLOG = new Histogram();      // blocks queued for the writer
+    public static final AtomicLong WRITER_OVERRUNS = new AtomicLong();   // blocks the writer had no room for
+    public static final AtomicLong LEVELS_DROPPED = new AtomicLong();    // levels the UI fell behind on
+    // Capture and segment-finisher threads.
+    public static final AtomicLong PCM_BYTES = new AtomicLong();         // PCM handed to the audio writers
+    // Main thread.
+    public static final Histogram UI_POST_US = new Histogram();          // from when a message was due to when it ran
+    public static final Histogram DRAW_US = new Histogram();             // WaveformView.onDraw
+    public static final AtomicLong FRAMES_DROPPED = new AtomicLong();
+
+    private Diagnostics() {}
+
+    // Everything since the previous format() call of the same instance (since creation for the
+    // first): quantiles and rates cover that interval, counters are totals.
+    public static final class Report {
+
+        private static final Histogram[] HISTOGRAMS = {READ_US, GAP_US, WRITER_BACKLOG, UI_POST_US, DRAW_US};
+        private static final int READ = 0, GAP = 1, BACKLOG = 2, UI_POST = 3, DRAW = 4;
+
+        private final long[][] previous = new long[HISTOGRAMS.length][Histogram.BUCKETS];
+        private final long[] counts = new long[Histogram.BUCKETS];
+        private long previousNanos = System.nanoTime();
+        private long previousBytes = PCM_BYTES.get();
+
+        public Report() {
+            for (int i = 0; i < HISTOGRAMS.length; i++) HISTOGRAMS[i].copyCounts(previous[i]);
+        }
+
+        // One line per area, joined by separator.
+        public String format(String separator) {
+            long now = System.nanoTime();
+            double seconds = Math.max(1, now - previousNanos) / 1e9;
+            long bytes = PCM_BYTES.get();
+            double kbPerSecond = (bytes - previousBytes) / 1024.0 / seconds;
+            previousNanos = now;
+            previousBytes = bytes;
+
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("read ");
+            appendQuantiles(sb, READ, true);
+            sb.append(", gap ");
+            appendQuantiles(sb, GAP, true);
+            sb.append(", late ").append(LATE_READS.get()).append(separator);
+            sb.append(String.format(Locale.US, "writer %.1f KB/s, backlog ", kbPerSecond));
+            appendQuantiles(sb, BACKLOG, false);
+            sb.append(", overruns ").append(WRITER_OVERRUNS.get()).append(separator);
+            sb.append("ui post ");
+            appendQuantiles(sb, UI_POST, true);
+            sb.append(", draw ");
+            appendQuantiles(sb, DRAW, true);
+            sb.append(", frames dropped ").append(FRAMES_DROPPED.get())
+                    .append(", levels dropped ").append(LEVELS_DROPPED.get());
+            return sb.toString();
+        }
+
+        // "p50<x p99<y" over the interval, in ms for latencies; "-" if nothing was recorded.
+        private void appendQuantiles(StringBuilder sb, int index, boolean micros) {
+            long[] before = previous[index];
+            HISTOGRAMS[index].copyCounts(counts);
+            for (int i = 0; i < Histogram.BUCKETS; i++) {
+                long c = counts[i];
+                counts[i] = c - before[i];
+                before[i] = c;
+            }
+            long p50 = Histogram.quantile(counts, 0.5);
+            if (p50 == 0) {
+                sb.append('-');
+                return;
+            }
+            long p99 = Histogram.quantile(counts, 0.99);
+            if (micros) {
+                sb.append(String.format(Locale.US, "p50<%.1f p99<%.1f ms", p50 / 1000.0, p99 / 1000.0));
+            } else {
+                sb.append("p50<").append(p50).append(" p99<").append(p99);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.acousticguard.app;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Appends a Diagnostics report to diagnostics.log next to the recordings at a fixed interval
+// while capture runs, so field sessions can be checked afterwards. The file is rotated to
+// diagnostics.log.1 once it exceeds MAX_BYTES, keeping at most two.
+public class DiagnosticsLog {
+
+    private static final String TAG = "DiagnosticsLog";
+    public static final String FILE_NAME = "diagnostics.log";
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    private final File file;
+    private final long intervalMs;
+    private final Diagnostics.Report report = new Diagnostics.Report();
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+    private ScheduledExecutorService executor;
+
+    public DiagnosticsLog(File dir, long intervalMs) {
+        this.file = new File(dir, FILE_NAME);
+        this.intervalMs = intervalMs;
+    }
+
+    public void start(String label) {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "diagnostics-log");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.execute(() -> append("start " + label));
+        executor.scheduleAtFixedRate(() -> append(report.format(" | ")), intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Writes a last report covering the time since the previous one.
+    public void stop(String label) {
+        if (executor == null) return;
+        executor.execute(() -> append(report.format(" | ") + " | stop " + label));
+        executor.shutdown();
+        executor = null;
+    }
+
+    private void append(String line) {
+        if (file.length() > MAX_BYTES) {
+            File old = new File(file.getPath() + ".1");
+            old.delete();
+            file.renameTo(old);
+        }
+        try (Writer out = new FileWriter(file, true)) {
+            out.write(timeFormat.format(new Date()) + "  " + line + "\n");
+        } catch (IOException e) {
+            Log.w(TAG, "Could not append to " + file, e);
+        }
+    }
+}
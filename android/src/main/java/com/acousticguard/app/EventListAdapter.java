@@ -0,0 +1,88 @@
+package com.acousticguard.app;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import com.acousticguard.dsp.AcousticEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Node list backed by an append-only event list shown newest first, so adding an event is an
+// O(1) append instead of a front insert, and rows are only rebound when an event opens or closes.
+public class EventListAdapter extends BaseAdapter {
+
+    private final LayoutInflater inflater;
+    private final List<AcousticEvent> events = new ArrayList<>();
+
+    public EventListAdapter(Context context) {
+        this.inflater = LayoutInflater.from(context);
+    }
+
+    public void setEvents(List<AcousticEvent> items) {
+        events.clear();
+        events.addAll(items);
+        notifyDataSetChanged();
+    }
+
+    public List<AcousticEvent> getEvents() {
+        return events;
+    }
+
+    public void clear() {
+        events.clear();
+        notifyDataSetChanged();
+    }
+
+    public void add(AcousticEvent event) {
+        events.add(event);
+        notifyDataSetChanged();
+    }
+
+    // Replaces the still-open event that started at the same index with its final version.
+    public void update(AcousticEvent event) {
+        for (int i = events.size() - 1; i >= 0; i--) {
+            if (events.get(i).startIndex == event.startIndex) {
+                events.set(i, event);
+                notifyDataSetChanged();
+                return;
+            }
+        }
+        add(event);
+    }
+
+    @Override
+    public int getCount() {
+        return events.size();
+    }
+
+    @Override
+    public AcousticEvent getItem(int position) {
+        return events.get(events.size() - 1 - position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).startIndex;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView != null ? convertView
+                : inflater.inflate(android.R.layout.simple_list_item_1, parent, false);
+        AcousticEvent e = getItem(position);
+        String text = e.type.label + ": " + Math.round(e.peakDb) + "dB at " + (e.startMs / 1000) + "s";
+        text += e.open ? " …" : " (" + (e.getDurationMs() / 100) / 10f + "s)";
+        ((TextView) view.findViewById(android.R.id.text1)).setText(text);
+        return view;
+    }
+}
@@ -0,0 +1,117 @@
+package com.acousticguard.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+// History drawer rows for a SessionCatalog query result. Only the record numbers of all
+// matches are held; entries are read from the catalog a page at a time as the list scrolls,
+// on the catalog's executor, never on the main thread. Each row shows the session's mini
+// waveform from SessionThumbnails. Record numbers change when a session is removed
+// (retention, reconciliation); a page read after that is refused, and the adapter asks for a
+// new query through the stale listener instead of showing the wrong records.
+public class HistoryAdapter extends BaseAdapter {
+
+    public static final int PAGE_SIZE = 50;
+
+    private final LayoutInflater inflater;
+    private final SessionThumbnails thumbnails;
+    private final Executor catalogExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private SessionCatalog catalog;
+    private int[] records = new int[0];
+    private int modCount;
+    private boolean loading;
+    private Runnable onStale;
+    private final List<CatalogEntry> entries = new ArrayList<>();
+
+    // catalogExecutor is the one thread that queries and updates the catalog.
+    public HistoryAdapter(Context context, SessionThumbnails thumbnails, Executor catalogExecutor) {
+        this.inflater = LayoutInflater.from(context);
+        this.thumbnails = thumbnails;
+        this.catalogExecutor = catalogExecutor;
+    }
+
+    // Called on the main thread when the results went stale; it should query again.
+    public void setOnStaleListener(Runnable onStale) {
+        this.onStale = onStale;
+    }
+
+    // modCount is the catalog's, taken before the query; first holds the entries already read
+    // for the first positions of records with that modCount.
+    public void setResults(SessionCatalog catalog, int[] records, int modCount, List<CatalogEntry> first) {
+        this.catalog = catalog;
+        this.records = records;
+        this.modCount = modCount;
+        loading = false;
+        entries.clear();
+        entries.addAll(first);
+        notifyDataSetChanged();
+    }
+
+    public int getMatchCount() {
+        return records.length;
+    }
+
+    // Reads the next page in the background unless one is on its way or every match is loaded.
+    public void loadMore() {
+        if (catalog == null || loading || entries.size() >= records.length) return;
+        loading = true;
+        final SessionCatalog c = catalog;
+        final int[] r = records;
+        final int mod = modCount;
+        final int from = entries.size();
+        catalogExecutor.execute(() -> {
+            List<CatalogEntry> page = new ArrayList<>(PAGE_SIZE);
+            boolean fresh = c.read(r, from, PAGE_SIZE, mod, page);
+            mainHandler.post(() -> {
+                if (r != records) return; // replaced by setResults() meanwhile
+                loading = false;
+                if (!fresh) {
+                    // ask once; setResults() brings fresh results
+                    catalog = null;
+                    if (onStale != null) onStale.run();
+                    return;
+                }
+                entries.addAll(page);
+                notifyDataSetChanged();
+            });
+        });
+    }
+
+    @Override
+    public int getCount() {
+        return entries.size();
+    }
+
+    @Override
+    public CatalogEntry getItem(int position) {
+        return entries.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView != null ? convertView
+                : inflater.inflate(R.layout.item_history, parent, false);
+        CatalogEntry e = getItem(position);
+        ((TextView) view.findViewById(R.id.history_title)).setText(e.getTitle());
+        ((TextView) view.findViewById(R.id.history_subtitle)).setText(e.getSubtitle());
+        thumbnails.bind((ImageView) view.findViewById(R.id.history_thumb), e.name);
+        return view;
+    }
+}
@@ -3,66 +3,166 @@ package com.acousticguard.app;
 import android.Manifest;
 import android.app.Activity;
 import android.content.pm.PackageManager;
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaPlayer;
-import android.media.MediaRecorder;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.ImageButton;
 import android.widget.ListView;
 import android.widget.SeekBar;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.drawerlayout.widget.DrawerLayout;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import com.acousticguard.dsp.AcousticEvent;
+import com.acousticguard.dsp.LevelChannel;
+import com.acousticguard.dsp.LevelStatistics;
+import com.acousticguard.dsp.SoundType;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends Activity {
 
+    private static final String TAG = "AcousticGuard";
     private static final int SAMPLE_RATE = 44100;
-    private static final int DB_THRESHOLD = 65;
+    private static final long STATS_REFRESH_NANOS = 1_000_000_000L;
+    private static final long DIAGNOSTICS_REFRESH_MS = 1000;
+    // 点击倍速标签依次切换
+    private static final float[] SPEEDS = {0.5f, 1f, 1.5f, 2f};
+    private static final String[] SPEED_LABELS = {"½×", "1×", "1½×", "2×"};
+
+    // 历史记录抽屉的排序与筛选预设，与 SessionCatalog.Sort 的顺序一致
+    private static final String[] SORT_LABELS = {"Newest", "Oldest", "Longest", "Loudest", "Most events"};
+    private static final String[] FILTER_LABELS = {"All sessions", "With events", "> 10 Structure events ≥ 80 dB", "Voice events", "Leq ≥ 70 dB"};
+    private static final SessionCatalog.Filter[] FILTERS = new SessionCatalog.Filter[FILTER_LABELS.length];
+    static {
+        FILTERS[1] = new SessionCatalog.Filter();
+        FILTERS[1].minEvents = 1;
+        FILTERS[2] = new SessionCatalog.Filter();
+        FILTERS[2].type = SoundType.STRUCTURE;
+        FILTERS[2].minTypeEvents = 11;
+        FILTERS[2].minTypeDb = 80;
+        FILTERS[3] = new SessionCatalog.Filter();
+        FILTERS[3].type = SoundType.VOICE;
+        FILTERS[3].minTypeEvents = 1;
+        FILTERS[4] = new SessionCatalog.Filter();
+        FILTERS[4].minLeq = 70f;
+    }
+    // WAV files modified more recently than this may still be written to.
+    private static final long RECENT_WRITE_MS = 60_000;
+    // About 40 s of levels at the minimum buffer size before the UI starts dropping them.
+    private static final int LEVEL_CHANNEL_SLOTS = 1024;
     
-    private AudioRecord audioRecord;
-    private boolean isRecording = false;
-    private Thread recordingThread;
+    private volatile boolean isRecording = false;
+    private CaptureEngine captureEngine;
     
     private WaveformView waveformView;
     private TextView txtDb;
     private TextView txtStatus;
+    private TextView txtStats;
+    private TextView txtDiagnostics;
     private ImageButton btnRecord;
     private ImageButton btnHistory;
+    private ImageButton btnMonitor;
+    private ImageButton btnExport;
+    private View playbackBar;
+    private ImageButton btnPlay;
     private SeekBar playbackSeekBar;
+    private TextView txtSpeed;
     private ListView nodeList;
     private ListView historyList;
+    private Spinner historySort;
+    private Spinner historyFilter;
     private DrawerLayout drawerLayout;
 
-    private List<String> nodeItems = new ArrayList<>();
-    private List<WaveformView.Marker> currentMarkers = new ArrayList<>();
-    private List<Float> currentAmplitudes = new ArrayList<>();
-    private ArrayAdapter<String> nodeAdapter;
-
-    private List<String> historyFiles = new ArrayList<>();
-    private ArrayAdapter<String> historyAdapter;
-
-    private MediaPlayer mediaPlayer;
-    private String tempPcmPath;
+    private EventListAdapter eventAdapter;
+
+    private HistoryAdapter historyAdapter;
+    private SessionThumbnails thumbnails;
+    // 会话目录只在 catalogExecutor 上打开、查询和更新
+    private volatile SessionCatalog catalog;
+    private final ExecutorService catalogExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "session-catalog"));
+
+    private PlaybackEngine player;
+    private AcousticEvent selectedEvent; // 最近点击的节点，再次点击切换 A/B 循环
+    private int speedIndex = 1;
+    private boolean seekBarTracking;
+    private SessionLoader sessionLoader;
+    private ClipExporter clipExporter;
+    private String currentWavPath; // 正在查看的已完成会话
+    private SessionMetadata currentMeta; // 其元数据，导出时按筛选条件判断整个会话
+    private SessionReanalyzer reanalyzer; // 正在进行的批量重新分析
+    private volatile String recordingBasePath;
     private Handler mainHandler = new Handler(Looper.getMainLooper());
 
+    // 录音线程 -> UI 的电平通道，每帧（vsync）统一取出一次
+    private LevelChannel levelChannel;
+    private long lastStatsFrameNanos;
+    private long lastFrameNanos;
+    private long frameIntervalNanos;
+    private int latestDb;
+    private final LevelChannel.Sink levelSink = (amplitude, db) -> {
+        waveformView.addAmplitude(amplitude);
+        latestDb = db;
+    };
+    // 播放时每帧按音频时钟更新光标，暂停或播放结束后不再回调
+    private final Choreographer.FrameCallback playbackFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (player == null) return;
+            updatePlaybackCursor(frameTimeNanos);
+            if (player.isPlaying()) Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+    private final Choreographer.FrameCallback levelFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            // 录音时每帧都有回调，两帧间隔超过一个刷新周期就是掉帧
+            if (lastFrameNanos != 0) {
+                long missed = (frameTimeNanos - lastFrameNanos + frameIntervalNanos / 2) / frameIntervalNanos - 1;
+                if (missed > 0) Diagnostics.FRAMES_DROPPED.addAndGet(missed);
+            }
+            lastFrameNanos = frameTimeNanos;
+            drainLevels();
+            // 统计值每秒刷新一次即可
+            CaptureEngine engine = captureEngine;
+            LevelStatistics stats = engine != null ? engine.getCurrentStatistics() : null;
+            if (frameTimeNanos - lastStatsFrameNanos >= STATS_REFRESH_NANOS && stats != null) {
+                lastStatsFrameNanos = frameTimeNanos;
+                txtStats.setText(stats.summarize().format(engine.isAWeighted()));
+            }
+            if (isRecording) Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    // 调试浮层每秒刷新；这条定时消息本身也用来测量主线程消息的延迟
+    private Diagnostics.Report diagnosticsReport;
+    private long diagnosticsDueMs;
+    private final Runnable diagnosticsTicker = new Runnable() {
+        @Override
+        public void run() {
+            Diagnostics.UI_POST_US.record((SystemClock.uptimeMillis() - diagnosticsDueMs) * 1000);
+            txtDiagnostics.setText(diagnosticsReport.format("\n"));
+            diagnosticsDueMs = SystemClock.uptimeMillis() + DIAGNOSTICS_REFRESH_MS;
+            mainHandler.postAtTime(this, diagnosticsDueMs);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -71,61 +171,237 @@ public class MainActivity extends Activity {
         waveformView = findViewById(R.id.waveform_view);
         txtDb = findViewById(R.id.txt_db);
         txtStatus = findViewById(R.id.txt_status);
+        txtStats = findViewById(R.id.txt_stats);
+        txtDiagnostics = findViewById(R.id.txt_diagnostics);
         btnRecord = findViewById(R.id.btn_record);
         btnHistory = findViewById(R.id.btn_history);
+        btnMonitor = findViewById(R.id.btn_monitor);
+        btnExport = findViewById(R.id.btn_export);
+        playbackBar = findViewById(R.id.playback_bar);
+        btnPlay = findViewById(R.id.btn_play);
         playbackSeekBar = findViewById(R.id.playback_seekbar);
+        txtSpeed = findViewById(R.id.txt_speed);
         nodeList = findViewById(R.id.node_list);
         historyList = findViewById(R.id.history_list);
+        historySort = findViewById(R.id.history_sort);
+        historyFilter = findViewById(R.id.history_filter);
         drawerLayout = findViewById(R.id.drawer_layout);
 
-        nodeAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, nodeItems);
-        nodeList.setAdapter(nodeAdapter);
+        eventAdapter = new EventListAdapter(this);
+        nodeList.setAdapter(eventAdapter);
 
-        historyAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, historyFiles);
+        // 历史列表的迷你波形：从 .agm 中已存的峰值层生成，缓存在内存和 cache/thumbs
+        thumbnails = new SessionThumbnails(getExternalFilesDir(null), getCacheDir());
+        historyAdapter = new HistoryAdapter(this, thumbnails, catalogExecutor);
         historyList.setAdapter(historyAdapter);
+        // 有会话被删除（清理或对账）后记录号会变，重新查询并保留已加载的行数
+        historyAdapter.setOnStaleListener(() -> queryHistory(false));
+        // 分页：滚动到末尾附近时再从目录读取下一页
+        historyList.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisible, int visibleCount, int totalCount) {
+                if (totalCount > 0 && firstVisible + visibleCount >= totalCount - 5) historyAdapter.loadMore();
+            }
+        });
+        setupHistoryControls();
+
+        sessionLoader = new SessionLoader(getExternalFilesDir(null), SAMPLE_RATE);
+        // 片段放在子目录里，不会被当成会话
+        clipExporter = new ClipExporter(new File(getExternalFilesDir(null), "clips"));
 
         btnRecord.setOnClickListener(v -> toggleRecording());
-        btnHistory.setOnClickListener(v -> drawerLayout.openDrawer(View.FOCUS_RIGHT));
+        btnHistory.setOnClickListener(v -> {
+            // 后台监测会不断产生新分段，打开抽屉时重新查询
+            refreshHistoryList();
+            drawerLayout.openDrawer(View.FOCUS_RIGHT);
+        });
+        // 长按历史按钮：用当前的检测参数重新分析全部录音；分析中再次长按取消
+        btnHistory.setOnLongClickListener(v -> {
+            toggleReanalysis();
+            return true;
+        });
+        btnMonitor.setOnClickListener(v -> toggleMonitoring());
+        // 长按分贝读数显示/隐藏调试浮层
+        frameIntervalNanos = (long) (1_000_000_000L / getWindowManager().getDefaultDisplay().getRefreshRate());
+        txtDb.setOnLongClickListener(v -> {
+            toggleDiagnostics();
+            return true;
+        });
+        txtDiagnostics.setOnClickListener(v -> toggleDiagnostics());
+        // 导出当前会话中符合历史筛选条件的全部事件；会话本身不符合条件（如事件数或 Leq 不够）时不导出
+        btnExport.setOnClickListener(v -> {
+            int selected = historyFilter.getSelectedItemPosition();
+            SessionCatalog.Filter filter = FILTERS[selected];
+            List<AcousticEvent> events = new ArrayList<>();
+            for (AcousticEvent e : eventAdapter.getEvents()) {
+                if (filter == null || filter.matches(e)) events.add(e);
+            }
+            if (filter == null) {
+                exportClips(events);
+                return;
+            }
+            String wavPath = currentWavPath;
+            SessionMetadata meta = currentMeta;
+            String notInFilter = "This session is not in \"" + FILTER_LABELS[selected] + "\"";
+            if (wavPath == null || meta == null) {
+                Toast.makeText(this, notInFilter, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            // 会话级条件在 catalogExecutor 上判断，结果回到主线程时会话未切换才导出
+            catalogExecutor.execute(() -> {
+                boolean matches = sessionMatches(filter, new File(wavPath), meta);
+                mainHandler.post(() -> {
+                    if (!wavPath.equals(currentWavPath)) return;
+                    if (matches) exportClips(events);
+                    else Toast.makeText(this, notInFilter, Toast.LENGTH_SHORT).show();
+                });
+            });
+        });
 
         // 自由拖动波形图来跳转进度
         waveformView.setOnSeekListener(percentage -> {
-            if (mediaPlayer != null) {
-                int msec = (int) (percentage * mediaPlayer.getDuration());
-                mediaPlayer.seekTo(msec);
+            if (player == null) return;
+            player.seekTo((long) (percentage * player.getLength()));
+            updatePlaybackCursor(System.nanoTime());
+        });
+
+        btnPlay.setOnClickListener(v -> {
+            if (player != null) player.toggle();
+        });
+        playbackSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (fromUser && player != null) {
+                    player.seekToMs(progress);
+                    waveformView.setProgress((float) progress / Math.max(1, player.getDurationMs()));
+                }
             }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                seekBarTracking = true;
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                seekBarTracking = false;
+            }
+        });
+        txtSpeed.setOnClickListener(v -> {
+            speedIndex = (speedIndex + 1) % SPEEDS.length;
+            txtSpeed.setText(SPEED_LABELS[speedIndex]);
+            if (player != null) player.setSpeed(SPEEDS[speedIndex]);
         });
 
-        // 点击具体的节点列表跳转播放
+        // 点击节点跳到事件开始处播放；再次点击同一节点循环播放该事件，第三次取消循环
         nodeList.setOnItemClickListener((parent, view, position, id) -> {
-            if (mediaPlayer != null) {
-                // 列表显示是倒序的（最新在前），获取对应标记的时间戳
-                int markerIdx = currentMarkers.size() - 1 - position;
-                if (markerIdx >= 0 && markerIdx < currentMarkers.size()) {
-                    long timeMs = currentMarkers.get(markerIdx).timestamp;
-                    mediaPlayer.seekTo((int)timeMs);
-                    if (!mediaPlayer.isPlaying()) mediaPlayer.start();
-                }
+            if (player == null) return;
+            // 列表显示是倒序的（最新在前），适配器已按显示位置返回对应事件
+            AcousticEvent event = eventAdapter.getItem(position);
+            if (event != selectedEvent) {
+                selectedEvent = event;
+                player.clearLoop();
+                player.seekToMs(event.startMs);
+            } else if (player.isLooping()) {
+                player.clearLoop();
+                Toast.makeText(this, "Loop off", Toast.LENGTH_SHORT).show();
+            } else {
+                player.setLoopMs(event.startMs, event.endMs);
+                Toast.makeText(this, "Looping event", Toast.LENGTH_SHORT).show();
             }
+            updatePlaybackCursor(System.nanoTime());
+            player.play();
+        });
+
+        // 长按节点只导出这一个事件前后的片段
+        nodeList.setOnItemLongClickListener((parent, view, position, id) -> {
+            exportClips(Collections.singletonList(eventAdapter.getItem(position)));
+            return true;
         });
 
         // 历史记录加载
         historyList.setOnItemClickListener((parent, view, position, id) -> {
-            String wavName = historyFiles.get(position);
-            loadFullSession(wavName);
+            String basePath = getExternalFilesDir(null) + "/" + historyAdapter.getItem(position).name;
+            loadFullSession(SessionAudio.find(basePath));
             drawerLayout.closeDrawers();
         });
 
-        refreshHistoryList();
+        catalogExecutor.execute(this::openCatalog);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        updateMonitorState();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        sessionLoader.shutdown();
+        thumbnails.shutdown();
+        clipExporter.shutdown();
+        if (reanalyzer != null) reanalyzer.cancel();
+        catalogExecutor.shutdown();
+        mainHandler.removeCallbacks(diagnosticsTicker);
+        releasePlayer();
+    }
+
+    private void toggleDiagnostics() {
+        if (txtDiagnostics.getVisibility() == View.VISIBLE) {
+            mainHandler.removeCallbacks(diagnosticsTicker);
+            txtDiagnostics.setVisibility(View.GONE);
+            return;
+        }
+        // 浮层显示的是打开之后每一秒的情况
+        diagnosticsReport = new Diagnostics.Report();
+        txtDiagnostics.setText("");
+        txtDiagnostics.setVisibility(View.VISIBLE);
+        diagnosticsDueMs = SystemClock.uptimeMillis() + DIAGNOSTICS_REFRESH_MS;
+        mainHandler.postAtTime(diagnosticsTicker, diagnosticsDueMs);
+    }
+
+    private void toggleMonitoring() {
+        if (MonitorService.isRunning()) {
+            MonitorService.stop(this);
+        } else {
+            if (isRecording) return;
+            if (checkSelfPermission(Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
+                requestPermissions(new String[]{Manifest.permission.RECORD_AUDIO}, 100);
+                return;
+            }
+            sessionLoader.cancel();
+            releasePlayer();
+            MonitorService.start(this);
+        }
+        // stopService/startService 异步生效，稍后再刷新按钮状态
+        mainHandler.postDelayed(this::updateMonitorState, 500);
+    }
+
+    // 后台监测占用麦克风时禁用手动录音
+    private void updateMonitorState() {
+        boolean monitoring = MonitorService.isRunning();
+        btnRecord.setEnabled(!monitoring);
+        btnRecord.setAlpha(monitoring ? 0.4f : 1f);
+        btnMonitor.setImageResource(monitoring ? android.R.drawable.ic_media_pause : android.R.drawable.ic_lock_idle_alarm);
+        if (monitoring) txtStatus.setText("MONITORING");
+        else if (!isRecording && "MONITORING".contentEquals(txtStatus.getText())) txtStatus.setText("READY");
+        btnMonitor.setEnabled(!isRecording);
     }
 
     private void toggleRecording() {
         if (isRecording) {
             stopRecording();
-            btnRecord.setImageResource(android.R.drawable.ic_btn_speak_now);
         } else {
             startRecording();
-            btnRecord.setImageResource(android.R.drawable.ic_media_pause);
         }
+        // 麦克风不可用时录音不会开始
+        btnRecord.setImageResource(isRecording ? android.R.drawable.ic_media_pause : android.R.drawable.ic_btn_speak_now);
+        btnMonitor.setEnabled(!isRecording);
     }
 
     private void startRecording() {
@@ -134,214 +410,397 @@ public class MainActivity extends Activity {
             return;
         }
 
-        if (mediaPlayer != null) { mediaPlayer.release(); mediaPlayer = null; }
+        sessionLoader.cancel();
+        releasePlayer();
+        currentWavPath = null; // 录音中的音频文件尚未完成，不能导出
         
         txtStatus.setText("RECORDING...");
-        playbackSeekBar.setVisibility(View.GONE);
+        playbackBar.setVisibility(View.GONE);
         waveformView.clear();
-        nodeItems.clear();
-        currentMarkers.clear();
-        currentAmplitudes.clear();
-        nodeAdapter.notifyDataSetChanged();
+        eventAdapter.clear();
+        currentMeta = null;
+        levelChannel = new LevelChannel(LEVEL_CHANNEL_SLOTS);
+        lastStatsFrameNanos = 0;
+        lastFrameNanos = 0;
+        txtStats.setText("");
+
+        // 录音、写盘、检测和统计都在 CaptureEngine 中完成，这里只接收事件和结束通知
+        CaptureEngine engine = new CaptureEngine(getExternalFilesDir(null),
+                CaptureEngine.Config.fromPreferences(this, SAMPLE_RATE), levelChannel, new CaptureEngine.Listener() {
+            @Override
+            public void onEventOpened(AcousticEvent event) {
+                long posted = System.nanoTime();
+                mainHandler.post(() -> {
+                    Diagnostics.UI_POST_US.record((System.nanoTime() - posted) / 1000);
+                    eventAdapter.add(event);
+                    waveformView.addMarker(event.startIndex, Math.round(event.peakDb), event.startMs);
+                });
+            }
 
-        int bufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
-        audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, bufferSize);
-        
-        isRecording = true;
-        audioRecord.startRecording();
-        
-        recordingThread = new Thread(() -> {
-            short[] buffer = new short[bufferSize];
-            tempPcmPath = getExternalFilesDir(null) + "/temp.pcm";
-            long startTime = System.currentTimeMillis();
-
-            try (FileOutputStream os = new FileOutputStream(tempPcmPath)) {
-                while (isRecording) {
-                    int read = audioRecord.read(buffer, 0, bufferSize);
-                    double sum = 0;
-                    for (int i = 0; i < read; i++) {
-                        sum += buffer[i] * buffer[i];
-                        os.write((byte) (buffer[i] & 0xff));
-                        os.write((byte) ((buffer[i] >> 8) & 0xff));
-                    }
-                    
-                    double amplitude = Math.sqrt(sum / read);
-                    final int db = (int) (20 * Math.log10(amplitude / 0.1));
-                    final long currentRelTime = System.currentTimeMillis() - startTime;
-                    
-                    mainHandler.post(() -> {
-                        txtDb.setText(String.valueOf(Math.max(30, db)));
-                        float ampNorm = (float)amplitude / 32768f;
-                        currentAmplitudes.add(ampNorm);
-                        waveformView.addAmplitude(ampNorm);
-                        
-                        if (db > DB_THRESHOLD) {
-                            waveformView.addMarker(db, currentRelTime);
-                            currentMarkers.add(new WaveformView.Marker(currentAmplitudes.size()-1, db, currentRelTime));
-                            nodeItems.add(0, "Anomaly: " + db + "dB at " + (currentRelTime/1000) + "s");
-                            nodeAdapter.notifyDataSetChanged();
-                        }
-                    });
-                }
-            } catch (IOException e) { e.printStackTrace(); }
+            @Override
+            public void onEventClosed(AcousticEvent event) {
+                long posted = System.nanoTime();
+                mainHandler.post(() -> {
+                    Diagnostics.UI_POST_US.record((System.nanoTime() - posted) / 1000);
+                    eventAdapter.update(event);
+                });
+            }
+
+            @Override
+            public void onSegmentFinished(String basePath, SessionMetadata meta) {
+                // 录音线程投递的最后几条事件更新排在它之前
+                mainHandler.post(() -> finishRecording(basePath, meta));
+            }
+
+            @Override
+            public void onCaptureFailed(String message) {
+                // 麦克风失效（断开或被占用）：像手动停止一样结束录音，已录部分照常保存
+                mainHandler.post(() -> {
+                    if (captureEngine == null || captureEngine.isRunning()) return;
+                    toggleRecording();
+                    Toast.makeText(MainActivity.this, "Recording stopped: " + message, Toast.LENGTH_LONG).show();
+                });
+            }
         });
-        recordingThread.start();
+        try {
+            engine.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+            levelChannel = null;
+            txtStatus.setText("READY");
+            Toast.makeText(this, "Cannot record: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+        captureEngine = engine;
+        recordingBasePath = engine.getCurrentBasePath();
+        isRecording = true;
+        Choreographer.getInstance().postFrameCallback(levelFrameCallback);
+    }
+
+    // UI thread: applies every level published since the last frame; the dB text is only set
+    // once, to the newest value.
+    private void drainLevels() {
+        if (levelChannel == null) return;
+        latestDb = Integer.MIN_VALUE;
+        levelChannel.drain(levelSink);
+        if (latestDb != Integer.MIN_VALUE) txtDb.setText(String.valueOf(Math.max(30, latestDb)));
     }
 
     private void stopRecording() {
         isRecording = false;
-        if (audioRecord != null) {
-            audioRecord.stop();
-            audioRecord.release();
-            audioRecord = null;
+        if (captureEngine != null) {
+            captureEngine.stop();
+            captureEngine = null;
         }
-        
-        long ts = System.currentTimeMillis();
-        String wavPath = getExternalFilesDir(null) + "/REC_" + ts + ".wav";
-        String metaPath = getExternalFilesDir(null) + "/REC_" + ts + ".json";
-        
-        // 1. 自动保存音频
-        copyPcmToWav(tempPcmPath, wavPath);
-        
-        // 2. 自动保存元数据 (波形、分贝、标记点)
-        saveMetadata(metaPath);
-        
-        refreshHistoryList();
+        Choreographer.getInstance().removeFrameCallback(levelFrameCallback);
+        if (levelChannel != null) {
+            drainLevels();
+            if (levelChannel.getDropped() > 0) Log.w(TAG, "UI dropped " + levelChannel.getDropped() + " levels");
+            levelChannel = null;
+        }
+        // 音频已在录制中写入；文件头和元数据由 CaptureEngine 在后台完成，完成后回调 finishRecording
+        txtStatus.setText("SAVING...");
+        recordingBasePath = null;
+    }
+
+    private void finishRecording(String basePath, SessionMetadata meta) {
+        String wavPath = SessionAudio.find(basePath).getPath();
+        String metaPath = basePath + SessionFile.EXTENSION;
+        String baseName = new File(basePath).getName();
+        sessionLoader.put(baseName, meta);
+
+        // 更新会话目录中这一条记录
+        catalogExecutor.execute(() -> {
+            SessionCatalog c = catalog;
+            if (c == null) return;
+            try {
+                c.put(CatalogEntry.fromSession(baseName, new File(wavPath), new File(metaPath), meta));
+            } catch (IOException e) { e.printStackTrace(); }
+            mainHandler.post(this::refreshHistoryList);
+        });
+        if (isRecording) return; // 已经开始了新的录音
         txtStatus.setText("SAVED & READY");
+        showSession(meta);
         preparePlayback(wavPath);
     }
 
-    private void saveMetadata(String path) {
-        try {
-            JSONObject root = new JSONObject();
-            JSONArray amps = new JSONArray();
-            for (Float f : currentAmplitudes) amps.put(f.doubleValue());
-            root.put("amplitudes", amps);
-
-            JSONArray marks = new JSONArray();
-            for (WaveformView.Marker m : currentMarkers) {
-                JSONObject obj = new JSONObject();
-                obj.put("index", m.index);
-                obj.put("db", m.db);
-                obj.put("ts", m.timestamp);
-                marks.put(obj);
-            }
-            root.put("markers", marks);
-
-            FileWriter writer = new FileWriter(path);
-            writer.write(root.toString());
-            writer.close();
-        } catch (Exception e) { e.printStackTrace(); }
+    private static List<WaveformView.Marker> toMarkers(List<AcousticEvent> events) {
+        List<WaveformView.Marker> markers = new ArrayList<>(events.size());
+        for (AcousticEvent e : events) markers.add(new WaveformView.Marker(e.startIndex, Math.round(e.peakDb), e.startMs));
+        return markers;
     }
 
-    private void loadFullSession(String wavName) {
-        String baseName = wavName.substring(0, wavName.lastIndexOf("."));
-        String wavPath = getExternalFilesDir(null) + "/" + wavName;
-        String jsonPath = getExternalFilesDir(null) + "/" + baseName + ".json";
+    private void loadFullSession(File audio) {
+        String baseName = SessionAudio.baseName(audio);
+        String wavPath = audio.getPath();
 
         // 清空 UI
         waveformView.clear();
-        nodeItems.clear();
-        currentMarkers.clear();
-        currentAmplitudes.clear();
+        eventAdapter.clear();
+        currentMeta = null;
+        txtStats.setText("");
 
-        // 加载元数据 JSON
-        File jsonFile = new File(jsonPath);
-        if (jsonFile.exists()) {
-            try {
-                StringBuilder sb = new StringBuilder();
-                BufferedReader br = new BufferedReader(new FileReader(jsonFile));
-                String line;
-                while ((line = br.readLine()) != null) sb.append(line);
-                br.close();
-
-                JSONObject root = new JSONObject(sb.toString());
-                JSONArray amps = root.getJSONArray("amplitudes");
-                for (int i = 0; i < amps.length(); i++) {
-                    currentAmplitudes.add((float) amps.getDouble(i));
-                }
+        // 元数据在后台加载：先显示粗略概览，再替换为完整波形；再次点击其他会话会取消本次加载
+        sessionLoader.load(baseName, (name, meta, complete) -> showSession(meta));
+        preparePlayback(wavPath);
+    }
 
-                JSONArray marks = root.getJSONArray("markers");
-                for (int i = 0; i < marks.length(); i++) {
-                    JSONObject obj = marks.getJSONObject(i);
-                    WaveformView.Marker m = new WaveformView.Marker(obj.getInt("index"), obj.getInt("db"), obj.getLong("ts"));
-                    currentMarkers.add(m);
-                    nodeItems.add(0, "Anomaly: " + m.db + "dB at " + (m.timestamp/1000) + "s");
-                }
-                
-                waveformView.setSessionData(currentAmplitudes, currentMarkers);
-                nodeAdapter.notifyDataSetChanged();
-            } catch (Exception e) { e.printStackTrace(); }
+    private void showSession(SessionMetadata meta) {
+        currentMeta = meta;
+        List<AcousticEvent> events = new ArrayList<>(meta.markerCount);
+        for (int i = 0; i < meta.markerCount; i++) events.add(meta.getEvent(i));
+        eventAdapter.setEvents(events);
+        waveformView.setSessionData(meta.amplitudes, toMarkers(events));
+        txtStats.setText(meta.stats != null ? meta.stats.format(meta.aWeighted) : "");
+    }
+
+    private void preparePlayback(String path) {
+        releasePlayer();
+        currentWavPath = path;
+        playbackBar.setVisibility(View.VISIBLE);
+        try {
+            // AudioTrack 直接从映射的 WAV 或无损解码器取数据，跳转、循环和倍速都在 PlaybackEngine 里完成
+            player = PlaybackEngine.open(new File(path), this::onPlaybackStateChanged);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open " + path + " for playback", e);
+            Toast.makeText(this, "Cannot play this recording", Toast.LENGTH_SHORT).show();
+            return;
         }
+        playbackSeekBar.setMax((int) player.getDurationMs());
+        playbackSeekBar.setProgress(0);
+        player.setSpeed(SPEEDS[speedIndex]);
+        player.play();
+    }
 
-        preparePlayback(wavPath);
+    private void onPlaybackStateChanged(boolean playing) {
+        btnPlay.setImageResource(playing ? android.R.drawable.ic_media_pause : android.R.drawable.ic_media_play);
+        Choreographer.getInstance().removeFrameCallback(playbackFrameCallback);
+        if (playing) Choreographer.getInstance().postFrameCallback(playbackFrameCallback);
+        else updatePlaybackCursor(System.nanoTime());
     }
 
-    private void preparePlayback(String path) {
-        if (mediaPlayer != null) mediaPlayer.release();
-        playbackSeekBar.setVisibility(View.VISIBLE);
+    private void updatePlaybackCursor(long nowNanos) {
+        long position = player.getPosition(nowNanos);
+        waveformView.setProgress((float) position / Math.max(1, player.getLength()));
+        if (!seekBarTracking) playbackSeekBar.setProgress((int) (position * 1000 / player.getSampleRate()));
+    }
+
+    // catalogExecutor：与历史列表相同的会话级条件，优先使用目录中的记录；
+    // 尚未收录时才读取文件并遍历波形计算
+    private boolean sessionMatches(SessionCatalog.Filter filter, File audio, SessionMetadata meta) {
+        String name = SessionAudio.baseName(audio);
+        SessionCatalog c = catalog;
+        CatalogEntry entry = c != null ? c.get(name) : null;
         try {
-            mediaPlayer = new MediaPlayer();
-            mediaPlayer.setDataSource(path);
-            mediaPlayer.prepare();
-            playbackSeekBar.setMax(mediaPlayer.getDuration());
-            
-            mainHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    if (mediaPlayer != null) {
-                        if (mediaPlayer.isPlaying()) {
-                            float p = (float)mediaPlayer.getCurrentPosition() / mediaPlayer.getDuration();
-                            waveformView.setProgress(p);
-                            playbackSeekBar.setProgress(mediaPlayer.getCurrentPosition());
-                        }
-                        mainHandler.postDelayed(this, 100);
-                    }
-                }
+            if (entry == null) entry = CatalogEntry.fromSession(name, audio, null, meta);
+        } catch (IOException e) {
+            return false;
+        }
+        return filter.matches(entry);
+    }
+
+    // 按事件时间直接从录音中截取片段，不需要打开播放器逐个跳转收听
+    private void exportClips(List<AcousticEvent> events) {
+        if (currentWavPath == null || events.isEmpty()) {
+            Toast.makeText(this, "No events to export", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        clipExporter.exportAsync(new File(currentWavPath), events, ClipExporter.DEFAULT_PADDING_MS, (clips, error) -> {
+            String message = "Exported " + clips.size() + " clip" + (clips.size() == 1 ? "" : "s");
+            if (error != null) message += ", failed: " + error.getMessage();
+            Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+        });
+    }
+
+    // 阈值或分类器改变后，对已有录音重新计算事件和统计并原子替换元数据文件
+    private void toggleReanalysis() {
+        if (reanalyzer != null) {
+            reanalyzer.cancel();
+            return;
+        }
+        if (isRecording) return;
+        File[] files = getExternalFilesDir(null).listFiles((d, name) -> SessionAudio.isAudio(name));
+        if (files == null) return;
+        List<File> wavs = new ArrayList<>();
+        for (File f : files) {
+            if (!isBeingWritten(f)) wavs.add(f);
+        }
+
+        CaptureEngine.Config current = CaptureEngine.Config.fromPreferences(this, SAMPLE_RATE);
+        SessionReanalyzer.Config config = new SessionReanalyzer.Config();
+        config.detector = current.detector;
+        config.aWeighted = current.aWeighted;
+        config.defaultSampleRate = SAMPLE_RATE;
+        // 留一个核给界面和后台监测
+        config.parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        final SessionReanalyzer r = new SessionReanalyzer(config, new SessionReanalyzer.Listener() {
+            private int lastPercent = -1;
+
+            @Override
+            public void onFileAnalyzed(File wav, SessionMetadata meta) {
+                String base = wav.getPath().substring(0, wav.getPath().lastIndexOf("."));
+                String name = new File(base).getName();
+                catalogExecutor.execute(() -> {
+                    SessionCatalog c = catalog;
+                    if (c == null) return;
+                    try {
+                        c.put(CatalogEntry.fromSession(name, wav, new File(base + SessionFile.EXTENSION), meta));
+                    } catch (IOException e) { e.printStackTrace(); }
+                });
+                mainHandler.post(() -> {
+                    sessionLoader.invalidate(name);
+                    thumbnails.invalidate(name);
+                });
+            }
+
+            @Override
+            public void onFileFailed(File wav, Exception error) {
+                Log.w(TAG, "Could not reanalyze " + wav.getName(), error);
+            }
+
+            @Override
+            public synchronized void onProgress(int filesDone, int fileCount, long bytesDone, long totalBytes) {
+                final int percent = totalBytes > 0 ? (int) (bytesDone * 100 / totalBytes) : 100;
+                if (percent == lastPercent) return;
+                lastPercent = percent;
+                mainHandler.post(() -> {
+                    if (reanalyzer != null && !isRecording) txtStatus.setText("REANALYZING " + percent + "%");
+                });
+            }
+        });
+        reanalyzer = r;
+        txtStatus.setText("REANALYZING 0%");
+        new Thread(() -> {
+            SessionReanalyzer.Result result = r.run(wavs);
+            Log.i(TAG, "Reanalysis: " + result.analyzed + " analyzed, " + result.failed + " failed in " + result.elapsedMs + " ms");
+            mainHandler.post(() -> {
+                reanalyzer = null;
+                if (!isRecording) txtStatus.setText("READY");
+                updateMonitorState();
+                String message = "Reanalyzed " + result.analyzed + " sessions"
+                        + (result.failed > 0 ? ", " + result.failed + " failed" : "")
+                        + (result.cancelled ? " (cancelled)" : "");
+                Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+                refreshHistoryList();
             });
-            mediaPlayer.start();
-        } catch (IOException e) { e.printStackTrace(); }
+        }, "reanalysis").start();
+    }
+
+    private void releasePlayer() {
+        Choreographer.getInstance().removeFrameCallback(playbackFrameCallback);
+        selectedEvent = null;
+        if (player != null) {
+            player.release();
+            player = null;
+        }
+        btnPlay.setImageResource(android.R.drawable.ic_media_play);
+    }
+
+    private void setupHistoryControls() {
+        ArrayAdapter<String> sortAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, SORT_LABELS);
+        sortAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        historySort.setAdapter(sortAdapter);
+        ArrayAdapter<String> filterAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, FILTER_LABELS);
+        filterAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        historyFilter.setAdapter(filterAdapter);
+
+        AdapterView.OnItemSelectedListener requery = new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                refreshHistoryList();
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        };
+        historySort.setOnItemSelectedListener(requery);
+        historyFilter.setOnItemSelectedListener(requery);
     }
 
+    // 历史列表只查询会话目录，不再扫描目录或打开音频文件
     private void refreshHistoryList() {
+        queryHistory(true);
+    }
+
+    // toTop 为 false 时保持列表位置（结果过期后的重新查询）
+    private void queryHistory(boolean toTop) {
+        final SessionCatalog.Sort sort = SessionCatalog.Sort.values()[historySort.getSelectedItemPosition()];
+        final SessionCatalog.Filter filter = FILTERS[historyFilter.getSelectedItemPosition()];
+        final int keep = toTop ? 0 : historyAdapter.getCount();
+        catalogExecutor.execute(() -> {
+            final SessionCatalog c = catalog;
+            if (c == null) return;
+            // 查询和首批条目都在这里读取；先取修改计数，其间若有删除就重新查询
+            int modCount;
+            int[] records;
+            final List<CatalogEntry> first = new ArrayList<>();
+            do {
+                first.clear();
+                modCount = c.getModCount();
+                records = c.query(sort, filter);
+            } while (!c.read(records, 0, Math.max(HistoryAdapter.PAGE_SIZE, keep), modCount, first));
+            final int mod = modCount;
+            final int[] result = records;
+            mainHandler.post(() -> {
+                historyAdapter.setResults(c, result, mod, first);
+                if (toTop) historyList.setSelection(0);
+            });
+        });
+    }
+
+    // catalogExecutor：打开会话目录（缺失或损坏时从文件重建），再与目录中的录音对账
+    private void openCatalog() {
+        SessionCatalog c;
+        try {
+            // 与 MonitorService 共用同一个实例
+            c = SessionCatalog.shared(getExternalFilesDir(null), SAMPLE_RATE);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not build session catalog", e);
+            return;
+        }
+        catalog = c;
+        mainHandler.post(this::refreshHistoryList);
+        if (reconcileCatalog(c) > 0) mainHandler.post(this::refreshHistoryList);
+    }
+
+    // 启动时只列一次文件名：没有元数据的录音说明上次录音未正常结束（崩溃或被系统杀死），
+    // 修复其头部长度（无损格式重建跳转表）；目录里没有的会话补录，文件已删除的会话移除。
+    // 正在写入的文件（本界面录音、后台监测的当前分段、刚结束还在收尾的分段）不动
+    private int reconcileCatalog(SessionCatalog c) {
         File dir = getExternalFilesDir(null);
-        File[] files = dir.listFiles((d, name) -> name.endsWith(".wav"));
-        historyFiles.clear();
-        if (files != null) {
-            for (File f : files) historyFiles.add(0, f.getName());
+        File[] files = dir.listFiles((d, name) -> SessionAudio.isAudio(name));
+        if (files == null) return 0;
+        int changed = 0;
+        Set<String> names = new HashSet<>();
+        for (File f : files) {
+            String base = f.getPath().substring(0, f.getPath().lastIndexOf("."));
+            String name = f.getName().substring(0, f.getName().lastIndexOf("."));
+            names.add(name);
+            if (isBeingWritten(f)) continue;
+            try {
+                // 先修复再看目录：重建目录时未修复的录音也会被收录（时长为 0），修复后要更新记录
+                boolean repaired = !new File(base + SessionFile.EXTENSION).exists()
+                        && !new File(base + SessionJson.EXTENSION).exists()
+                        && SessionAudio.repair(f);
+                if (repaired) Log.i(TAG, "Repaired unfinalized recording " + f.getName());
+                else if (c.contains(name)) continue;
+                CatalogEntry entry = SessionCatalog.readEntry(f, SAMPLE_RATE);
+                if (entry != null) {
+                    c.put(entry);
+                    changed++;
+                }
+            } catch (IOException e) { e.printStackTrace(); }
         }
-        historyAdapter.notifyDataSetChanged();
+        changed += c.retainAll(names);
+        return changed;
     }
 
-    private void copyPcmToWav(String pcmPath, String wavPath) {
-        // ... (同之前的 WAV 转换逻辑，确保导出标准音频文件)
-        long sampleRate = SAMPLE_RATE;
-        int channels = 1;
-        long byteRate = 16 * SAMPLE_RATE * channels / 8;
-        byte[] buffer = new byte[2048];
-        try (FileInputStream in = new FileInputStream(pcmPath);
-             FileOutputStream out = new FileOutputStream(wavPath)) {
-            long totalAudioLen = in.getChannel().size();
-            long totalDataLen = totalAudioLen + 36;
-            byte[] header = new byte[44];
-            header[0] = 'R'; header[1] = 'I'; header[2] = 'F'; header[3] = 'F';
-            header[4] = (byte) (totalDataLen & 0xff); header[5] = (byte) ((totalDataLen >> 8) & 0xff);
-            header[6] = (byte) ((totalDataLen >> 16) & 0xff); header[7] = (byte) ((totalDataLen >> 24) & 0xff);
-            header[8] = 'W'; header[9] = 'A'; header[10] = 'V'; header[11] = 'E';
-            header[12] = 'f'; header[13] = 'm'; header[14] = 't'; header[15] = ' ';
-            header[16] = 16; header[17] = 0; header[18] = 0; header[19] = 0;
-            header[20] = 1; header[21] = 0; header[22] = (byte) channels; header[23] = 0;
-            header[24] = (byte) (sampleRate & 0xff); header[25] = (byte) ((sampleRate >> 8) & 0xff);
-            header[26] = (byte) ((sampleRate >> 16) & 0xff); header[27] = (byte) ((sampleRate >> 24) & 0xff);
-            header[28] = (byte) (byteRate & 0xff); header[29] = (byte) ((byteRate >> 8) & 0xff);
-            header[30] = (byte) ((byteRate >> 16) & 0xff); header[31] = (byte) ((byteRate >> 24) & 0xff);
-            header[32] = (byte) (2); header[33] = 0; header[34] = 16; header[35] = 0;
-            header[36] = 'd'; header[37] = 'a'; header[38] = 't'; header[39] = 'a';
-            header[40] = (byte) (totalAudioLen & 0xff); header[41] = (byte) ((totalAudioLen >> 8) & 0xff);
-            header[42] = (byte) ((totalAudioLen >> 16) & 0xff); header[43] = (byte) ((totalAudioLen >> 24) & 0xff);
-            out.write(header, 0, 44);
-            int length;
-            while ((length = in.read(buffer)) != -1) out.write(buffer, 0, length);
-        } catch (IOException e) { e.printStackTrace(); }
+    // 本界面录音、后台监测的当前分段，以及刚结束、可能还在收尾的分段
+    private boolean isBeingWritten(File wav) {
+        String base = wav.getPath().substring(0, wav.getPath().lastIndexOf("."));
+        return base.equals(recordingBasePath)
+                || base.equals(MonitorService.getRecordingBasePath())
+                || wav.lastModified() > System.currentTimeMillis() - RECENT_WRITE_MS;
     }
-}
\ No newline at end of file
+}
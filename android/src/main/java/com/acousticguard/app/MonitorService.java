@@ -0,0 +1,242 @@
+package com.acousticguard.app;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.util.Log;
+
+import com.acousticguard.dsp.AcousticEvent;
+
+import java.io.File;
+import java.io.IOException;
+
+// Unattended monitoring for days at a time, independent of MainActivity's lifecycle: a
+// foreground service runs a CaptureEngine that rolls into fixed-length segments, each one a
+// complete session with its own sidecar and catalog record, and after every segment applies
+// the RetentionPolicy so its segments (MON_<ts>) stay within the configured disk budget. A
+// crash or a full disk costs at most the segment being written: when the service next starts
+// (e.g. a START_STICKY restart) such leftovers are repaired and catalogued in the background,
+// so retention counts their size again.
+//
+// With mode "triggered" only clips around loud events are stored instead, optionally with the
+// microphone duty-cycled between checks, for battery-powered deployments.
+//
+// If the microphone fails (disconnected, taken by another app) monitoring stops and the
+// notification stays behind to say so.
+public class MonitorService extends Service {
+
+    private static final String TAG = "MonitorService";
+    private static final String MONITOR_PREFS = "monitor";
+    private static final String CHANNEL_ID = "monitor";
+    private static final int NOTIFICATION_ID = 1;
+    private static final int SAMPLE_RATE = 44100;
+    private static final long MB = 1024 * 1024;
+    // Segments modified more recently than this may still be finished by a previous engine.
+    private static final long RECENT_WRITE_MS = 60_000;
+
+    // The running engine, if any; lets the activity see that the microphone is taken.
+    private static volatile CaptureEngine activeEngine;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private CaptureEngine engine;
+    private RetentionPolicy retention;
+    private long segmentBytes;
+    private PowerManager.WakeLock wakeLock;
+    private int segmentsFinished;
+    private boolean triggered;
+    private volatile int eventsSeen; // written by the capture thread only
+    private boolean failed;
+
+    public static void start(Context context) {
+        Intent intent = new Intent(context, MonitorService.class);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(intent);
+        } else {
+            context.startService(intent);
+        }
+    }
+
+    public static void stop(Context context) {
+        context.stopService(new Intent(context, MonitorService.class));
+    }
+
+    public static boolean isRunning() {
+        return activeEngine != null;
+    }
+
+    // Base path of the segment being written, or null.
+    public static String getRecordingBasePath() {
+        CaptureEngine e = activeEngine;
+        return e != null ? e.getCurrentBasePath() : null;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        startForeground(NOTIFICATION_ID, buildNotification("Starting…"));
+        if (engine != null) return START_STICKY;
+
+        File dir = getExternalFilesDir(null);
+        SharedPreferences prefs = getSharedPreferences(MONITOR_PREFS, MODE_PRIVATE);
+        CaptureEngine.Config config = CaptureEngine.Config.fromPreferences(this, SAMPLE_RATE);
+        config.namePrefix = SessionAudio.SEGMENT_PREFIX;
+        config.segmentMs = prefs.getInt("segment_minutes", 10) * 60_000L;
+        config.triggered = "triggered".equals(prefs.getString("mode", "continuous"));
+        config.preTriggerMs = prefs.getLong("pre_trigger_ms", config.preTriggerMs);
+        config.postRollMs = prefs.getLong("post_roll_ms", config.postRollMs);
+        config.dutyListenMs = prefs.getLong("duty_listen_ms", config.dutyListenMs);
+        config.dutySleepMs = prefs.getLong("duty_sleep_ms", config.dutySleepMs);
+        triggered = config.triggered;
+        segmentBytes = config.segmentMs * SAMPLE_RATE / 1000 * 2;
+        // only the monitor's own segments, unless the user also gave up the app's recordings
+        retention = new RetentionPolicy(dir,
+                prefs.getLong("disk_budget_mb", 4096) * MB,
+                prefs.getLong("min_free_mb", 500) * MB,
+                prefs.getBoolean("evict_recordings", false) ? null : SessionAudio.SEGMENT_PREFIX);
+
+        // 新分段的文件名与遗留分段不同，可与录音同时进行
+        new Thread(() -> recoverSegments(dir), "segment-recovery").start();
+        engine = new CaptureEngine(dir, config, null, new CaptureEngine.Listener() {
+            @Override
+            public void onEventOpened(AcousticEvent event) {
+            }
+
+            @Override
+            public void onEventClosed(AcousticEvent event) {
+                eventsSeen++;
+            }
+
+            @Override
+            public void onSegmentFinished(String basePath, SessionMetadata meta) {
+                segmentFinished(basePath, meta);
+            }
+
+            @Override
+            public void onCaptureFailed(String message) {
+                // stop() joins the capture thread, so not from here
+                mainHandler.post(() -> captureFailed(message));
+            }
+        });
+        try {
+            engine.start();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not start monitoring", e);
+            engine = null;
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        activeEngine = engine;
+        PowerManager power = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        wakeLock = power.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "AcousticGuard:monitor");
+        wakeLock.setReferenceCounted(false);
+        wakeLock.acquire();
+        updateNotification("Monitoring");
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        activeEngine = null;
+        if (engine != null) {
+            engine.stop();
+            engine = null;
+        }
+        if (wakeLock != null && wakeLock.isHeld()) wakeLock.release();
+        // after a failure the notification stays to say so
+        if (!failed) stopForeground(true);
+    }
+
+    // Main thread: capture ended on its own. The last segment is still finished and
+    // catalogued; the notification is detached from the service so it outlives it.
+    private void captureFailed(String message) {
+        if (engine == null) return;
+        activeEngine = null;
+        engine.stop();
+        engine = null;
+        failed = true;
+        stopForeground(false);
+        updateNotification("Stopped: " + message);
+        stopSelf();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    // Recovery thread: segments of an earlier run that never got a sidecar were cut off by a
+    // crash or kill; finalize their audio and (re)write their catalog records. The segment being
+    // written now is too recent to be touched.
+    private void recoverSegments(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(SessionAudio.SEGMENT_PREFIX) && SessionAudio.isAudio(name));
+        if (files == null) return;
+        SessionCatalog catalog = null;
+        for (File audio : files) {
+            String base = audio.getPath().substring(0, audio.getPath().lastIndexOf('.'));
+            if (new File(base + SessionFile.EXTENSION).exists() || new File(base + SessionJson.EXTENSION).exists()) continue;
+            if (audio.lastModified() > System.currentTimeMillis() - RECENT_WRITE_MS) continue;
+            try {
+                if (catalog == null) catalog = SessionCatalog.shared(dir, SAMPLE_RATE);
+                if (SessionAudio.repair(audio)) Log.i(TAG, "Repaired unfinalized segment " + audio.getName());
+                CatalogEntry entry = SessionCatalog.readEntry(audio, SAMPLE_RATE);
+                if (entry != null) catalog.put(entry);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not recover " + audio.getName(), e);
+            }
+        }
+    }
+
+    // Finisher thread: record the segment in the catalog, then make room for the next one.
+    private void segmentFinished(String basePath, SessionMetadata meta) {
+        String name = new File(basePath).getName();
+        try {
+            SessionCatalog catalog = SessionCatalog.shared(getExternalFilesDir(null), SAMPLE_RATE);
+            catalog.put(CatalogEntry.fromSession(name, SessionAudio.find(basePath),
+                    new File(basePath + SessionFile.EXTENSION), meta));
+            int evicted = retention.enforce(catalog, segmentBytes);
+            if (evicted > 0) Log.i(TAG, "Retention removed " + evicted + " sessions");
+        } catch (IOException e) {
+            Log.e(TAG, "Could not update the catalog for " + name, e);
+        }
+        segmentsFinished++;
+        CaptureEngine e = activeEngine;
+        // once stopped the notification is gone, or says why monitoring stopped
+        if (e == null) return;
+        updateNotification(segmentsFinished + (triggered ? " clips, " : " segments, ") + eventsSeen + " events, "
+                + e.formatUsage());
+    }
+
+    private void updateNotification(String text) {
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        manager.notify(NOTIFICATION_ID, buildNotification(text));
+    }
+
+    private Notification buildNotification(String text) {
+        Notification.Builder builder;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID, "Monitoring", NotificationManager.IMPORTANCE_LOW));
+            builder = new Notification.Builder(this, CHANNEL_ID);
+        } else {
+            builder = new Notification.Builder(this);
+        }
+        int flags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0;
+        PendingIntent open = PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class), flags);
+        return builder.setContentTitle("AcousticGuard monitoring")
+                .setContentText(text)
+                .setSmallIcon(android.R.drawable.ic_btn_speak_now)
+                .setOngoing(true)
+                .setContentIntent(open)
+                .build();
+    }
+}
@@ -0,0 +1,504 @@
+package com.acousticguard.app;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.media.PlaybackParams;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.acousticguard.dsp.LosslessFile;
+import com.acousticguard.dsp.LosslessReader;
+import com.acousticguard.dsp.WavFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Plays a finished session through a streaming AudioTrack, fed by its own thread from the
+// memory-mapped WAV data or the lossless decoder. Samples are written in short chunks, so a
+// seek (pause, flush, reposition) takes effect within one chunk and lands on the exact sample.
+// The position comes from the audio clock: every chunk written is remembered with the source
+// sample it started at, and the frames the track reports as played are mapped back through
+// that table, which also keeps the cursor right across A/B loop jumps. Between the track's
+// position updates the estimate advances with the frame time, so a cursor drawn every vsync
+// moves smoothly. While paused or at the end the feeder thread waits on a lock and nothing is
+// polled.
+//
+// Control methods are for the main thread; the Listener is called there too.
+public class PlaybackEngine {
+
+    private static final String TAG = "PlaybackEngine";
+    private static final int CHUNK = 1024;           // about 23 ms at 44.1 kHz
+    private static final int HISTORY = 256;          // chunks remembered, well beyond the track buffer
+    private static final long END_POLL_MS = 20;      // while the last chunks play out
+
+    public interface Listener {
+        // Playback started, paused or reached the end.
+        void onPlaybackStateChanged(boolean playing);
+    }
+
+    private final Source source;
+    private final int sampleRate;
+    private final long length;
+    private final AudioTrack track;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Thread feeder;
+    private final Object lock = new Object();
+
+    // Guarded by lock.
+    private boolean playing;
+    private boolean released;
+    private long pendingSeek = -1;
+    private long loopStart = -1;
+    private long loopEnd = -1;
+    private float speed = 1f;
+    // Track frame at which each recent chunk starts, and the source sample it came from.
+    private final long[] chunkFrames = new long[HISTORY];
+    private final long[] chunkSamples = new long[HISTORY];
+    private int chunkCount;
+    private long framesWritten;      // in track frames since the last flush
+    private long endSample = -1;     // source position once everything is written, or -1
+    // Last played position handed out, for the estimate between track updates.
+    private long lastHead = -1;
+    private long lastHeadNanos;
+    private long lastPosition;
+
+    public static PlaybackEngine open(File audio, Listener listener) throws IOException {
+        Source source = SessionAudio.isLossless(audio) ? new LosslessSource(audio) : new WavSource(audio);
+        return new PlaybackEngine(source, listener);
+    }
+
+    private PlaybackEngine(Source source, Listener listener) {
+        this.source = source;
+        this.sampleRate = source.sampleRate();
+        this.length = source.length();
+        this.listener = listener;
+        int minBuffer = AudioTrack.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        // what STREAM_MUSIC stands for, without the deprecated stream-type constructor
+        AudioAttributes attributes = new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_MEDIA)
+                .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                .build();
+        AudioFormat format = new AudioFormat.Builder()
+                .setSampleRate(sampleRate)
+                .setChannelMask(AudioFormat.CHANNEL_OUT_MONO)
+                .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                .build();
+        track = new AudioTrack(attributes, format, Math.max(minBuffer, CHUNK * 2 * 2), AudioTrack.MODE_STREAM,
+                AudioManager.AUDIO_SESSION_ID_GENERATE);
+        feeder = new Thread(this::feed, "playback");
+        feeder.start();
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    // In samples.
+    public long getLength() {
+        return length;
+    }
+
+    public long getDurationMs() {
+        return length * 1000 / Math.max(1, sampleRate);
+    }
+
+    public boolean isPlaying() {
+        synchronized (lock) {
+            return playing;
+        }
+    }
+
+    public void play() {
+        synchronized (lock) {
+            if (released || playing) return;
+            // after the end start over (from the loop start when looping)
+            if (endSample >= 0 && pendingSeek < 0) requestSeek(loopStart >= 0 ? loopStart : 0);
+            playing = true;
+            track.play();
+            lock.notifyAll();
+        }
+        listener.onPlaybackStateChanged(true);
+    }
+
+    public void pause() {
+        synchronized (lock) {
+            if (!playing) return;
+            lastPosition = positionLocked(System.nanoTime());
+            playing = false;
+            track.pause();
+        }
+        listener.onPlaybackStateChanged(false);
+    }
+
+    public void toggle() {
+        if (isPlaying()) pause();
+        else play();
+    }
+
+    // Sample-accurate; the cursor jumps at once, the audio within a chunk.
+    public void seekTo(long sample) {
+        synchronized (lock) {
+            if (released) return;
+            requestSeek(sample);
+        }
+    }
+
+    public void seekToMs(long ms) {
+        seekTo(ms * sampleRate / 1000);
+    }
+
+    // Repeats [startMs, endMs) until clearLoop(), starting over from startMs now.
+    public void setLoopMs(long startMs, long endMs) {
+        long start = clamp(startMs * sampleRate / 1000);
+        long end = clamp(endMs * sampleRate / 1000);
+        if (end <= start) return;
+        synchronized (lock) {
+            loopStart = start;
+            loopEnd = end;
+            requestSeek(start);
+        }
+    }
+
+    public void clearLoop() {
+        synchronized (lock) {
+            loopStart = -1;
+            loopEnd = -1;
+        }
+    }
+
+    public boolean isLooping() {
+        synchronized (lock) {
+            return loopStart >= 0;
+        }
+    }
+
+    // 1 is normal speed. From API 23 the pitch is kept; before that it follows the speed.
+    public void setSpeed(float speed) {
+        synchronized (lock) {
+            if (released) return;
+            this.speed = speed;
+            rebaseEstimate(System.nanoTime());
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                track.setPlaybackParams(new PlaybackParams().setSpeed(speed).setPitch(1f));
+            } else {
+                track.setPlaybackRate(Math.round(sampleRate * speed));
+            }
+        }
+    }
+
+    public float getSpeed() {
+        synchronized (lock) {
+            return speed;
+        }
+    }
+
+    // Source sample being heard at nowNanos (System.nanoTime() or a Choreographer frame time).
+    public long getPosition(long nowNanos) {
+        synchronized (lock) {
+            if (!playing) return lastPosition;
+            long position = positionLocked(nowNanos);
+            lastPosition = position;
+            return position;
+        }
+    }
+
+    public void release() {
+        synchronized (lock) {
+            if (released) return;
+            released = true;
+            playing = false;
+            track.pause();
+            track.flush(); // frees a write blocked on a full buffer
+            lock.notifyAll();
+        }
+        boolean interrupted = false;
+        while (feeder.isAlive()) {
+            try {
+                feeder.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        track.release();
+        try {
+            source.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not close the session audio", e);
+        }
+    }
+
+    // Holds lock. The audible position jumps now: the track stops and drops what it buffered,
+    // which also releases a feeder blocked in write(); the feeder then repositions the source.
+    private void requestSeek(long sample) {
+        pendingSeek = clamp(sample);
+        lastPosition = pendingSeek;
+        endSample = -1;
+        track.pause();
+        track.flush();
+        lock.notifyAll();
+    }
+
+    private long clamp(long sample) {
+        return Math.max(0, Math.min(length, sample));
+    }
+
+    // Holds lock. Maps the frames played to the source sample via the chunk history, advancing
+    // between the track's (coarse) position updates by the time elapsed.
+    private long positionLocked(long nowNanos) {
+        if (pendingSeek >= 0) return pendingSeek;
+        if (chunkCount == 0) return lastPosition;
+        long head = track.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+        if (head != lastHead) {
+            lastHead = head;
+            lastHeadNanos = nowNanos;
+        }
+        long ahead = Math.max(0, (long) ((nowNanos - lastHeadNanos) * (double) sampleRate * speed / 1e9));
+        long frame = Math.min(framesWritten, head + Math.min(ahead, CHUNK));
+        int newest = chunkCount - 1;
+        int oldest = Math.max(0, chunkCount - HISTORY);
+        for (int i = newest; i >= oldest; i--) {
+            int slot = i % HISTORY;
+            if (chunkFrames[slot] <= frame || i == oldest) {
+                return Math.min(length, chunkSamples[slot] + Math.max(0, frame - chunkFrames[slot]));
+            }
+        }
+        return lastPosition;
+    }
+
+    private void rebaseEstimate(long nowNanos) {
+        lastHead = -1;
+        lastHeadNanos = nowNanos;
+    }
+
+    // Feeder thread.
+    private void feed() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        short[] chunk = new short[CHUNK];
+        long sample = 0;
+        try {
+            while (true) {
+                int n;
+                synchronized (lock) {
+                    // idle: nothing to write until play() or a seek
+                    while (!released && pendingSeek < 0 && (!playing || endSample >= 0)) {
+                        if (endSample >= 0 && playing) {
+                            if (finishedPlaying()) break;
+                            lock.wait(END_POLL_MS);
+                        } else {
+                            lock.wait();
+                        }
+                    }
+                    if (released) return;
+                    if (endSample >= 0 && playing && pendingSeek < 0) {
+                        // everything has been heard
+                        playing = false;
+                        lastPosition = endSample;
+                        track.pause();
+                        mainHandler.post(this::notifyEnded);
+                        continue;
+                    }
+                    if (pendingSeek >= 0) {
+                        sample = pendingSeek;
+                        pendingSeek = -1;
+                        track.pause();
+                        track.flush();
+                        source.seek(sample);
+                        chunkCount = 0;
+                        framesWritten = 0;
+                        rebaseEstimate(System.nanoTime());
+                        if (playing) track.play();
+                        if (!playing) continue;
+                    }
+                    if (loopStart >= 0 && (sample >= loopEnd || sample < loopStart)) {
+                        // seamless jump back; the chunk history keeps the cursor right
+                        sample = loopStart;
+                        source.seek(sample);
+                    }
+                    long limit = loopStart >= 0 ? loopEnd : length;
+                    n = (int) Math.min(CHUNK, limit - sample);
+                    if (n <= 0) {
+                        endSample = sample;
+                        continue;
+                    }
+                    int slot = chunkCount % HISTORY;
+                    chunkFrames[slot] = framesWritten;
+                    chunkSamples[slot] = sample;
+                    chunkCount++;
+                    framesWritten += n;
+                }
+                int read = source.read(chunk, 0, n);
+                if (read <= 0) {
+                    synchronized (lock) {
+                        endSample = sample;
+                    }
+                    continue;
+                }
+                if (read < n) Arrays.fill(chunk, read, n, (short) 0);
+                sample += n;
+                // blocks while the track buffer is full; a seek or release flushes it
+                track.write(chunk, 0, n);
+            }
+        } catch (InterruptedException | IOException e) {
+            Log.e(TAG, "Playback stopped", e);
+        }
+    }
+
+    // Main thread; nothing to report once released.
+    private void notifyEnded() {
+        synchronized (lock) {
+            if (released || playing) return;
+        }
+        listener.onPlaybackStateChanged(false);
+    }
+
+    // Holds lock. True once the track has played every frame written.
+    private boolean finishedPlaying() {
+        return (track.getPlaybackHeadPosition() & 0xFFFFFFFFL) >= framesWritten;
+    }
+
+    // Where samples come from; only the feeder thread reads and seeks.
+    private interface Source {
+        int sampleRate();
+        long length();
+        void seek(long sample) throws IOException;
+        int read(short[] buffer, int offset, int length);
+        void close() throws IOException;
+    }
+
+    // 16-bit mono WAV, mapped read-only a window at a time; the kernel pages each window in as
+    // playback advances, and reads or seeks past it map the next one. Windows keep recordings
+    // over 2 GB (about 6.7 hours at 44.1 kHz) playable and the address space used small.
+    private static final class WavSource implements Source {
+        private static final int WINDOW_SAMPLES = 1 << 24; // 32 MB, about 6 minutes
+
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final int sampleRate;
+        private final long dataOffset;
+        private final long length;
+        private ShortBuffer window;
+        private long windowStart;
+        private long position;
+
+        WavSource(File audio) throws IOException {
+            file = new RandomAccessFile(audio, "r");
+            try {
+                channel = file.getChannel();
+                WavFile.Info info = WavFile.readInfo(channel);
+                if (info == null) throw new IOException(audio.getName() + " is not a PCM WAV file");
+                if (info.channels != 1 || info.bitsPerSample != 16) {
+                    throw new IOException(audio.getName() + ": only 16 bit mono recordings can be played");
+                }
+                sampleRate = info.sampleRate;
+                dataOffset = info.dataOffset;
+                length = info.getAvailableDataLength() / 2;
+                if (length > 0) map(0);
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int sampleRate() {
+            return sampleRate;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public void seek(long sample) throws IOException {
+            position = Math.max(0, Math.min(length, sample));
+            if (position < length && !inWindow(position)) map(position);
+        }
+
+        @Override
+        public int read(short[] buffer, int offset, int length) {
+            int done = 0;
+            try {
+                while (done < length && position < this.length) {
+                    if (!inWindow(position)) map(position);
+                    int at = (int) (position - windowStart);
+                    int n = Math.min(length - done, window.capacity() - at);
+                    window.position(at);
+                    window.get(buffer, offset + done, n);
+                    done += n;
+                    position += n;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not map the recording", e);
+            }
+            return done;
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            file.close();
+        }
+
+        private boolean inWindow(long sample) {
+            return window != null && sample >= windowStart && sample < windowStart + window.capacity();
+        }
+
+        // Maps the window that holds sample; the previous one is unmapped once collected.
+        private void map(long sample) throws IOException {
+            long start = sample - sample % WINDOW_SAMPLES;
+            long samples = Math.min(WINDOW_SAMPLES, length - start);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + start * 2, samples * 2)
+                    .order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            windowStart = start;
+        }
+    }
+
+    private static final class LosslessSource implements Source {
+        private final LosslessReader reader;
+        private final LosslessFile.Info info;
+
+        LosslessSource(File audio) throws IOException {
+            reader = LosslessReader.open(audio);
+            if (reader == null) throw new IOException(audio.getName() + " is not a lossless recording");
+            info = reader.getInfo();
+        }
+
+        @Override
+        public int sampleRate() {
+            return info.sampleRate;
+        }
+
+        @Override
+        public long length() {
+            return info.sampleCount;
+        }
+
+        @Override
+        public void seek(long sample) throws IOException {
+            reader.seek(sample);
+        }
+
+        @Override
+        public int read(short[] buffer, int offset, int length) {
+            return reader.read(buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
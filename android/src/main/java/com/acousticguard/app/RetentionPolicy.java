@@ -0,0 +1,73 @@
+package com.acousticguard.app;
+
+import android.util.Log;
+
+import com.acousticguard.dsp.LosslessFile;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+
+// Keeps the sessions it is responsible for, those whose names start with namePrefix (usually
+// MonitorService's MON_ segments), within a disk budget by deleting whole sessions, using only
+// the SessionCatalog to decide: sessions without events go first, oldest first, and only then
+// the oldest sessions with events. It also frees space while the volume itself runs low.
+// Other sessions, such as recordings made in the app, neither count toward the budget nor are
+// ever deleted; a null prefix puts every catalogued session in scope.
+public class RetentionPolicy {
+
+    private static final String TAG = "RetentionPolicy";
+
+    private final File dir;
+    private final long budgetBytes;
+    private final long minFreeBytes;
+    private final String namePrefix;
+
+    public RetentionPolicy(File dir, long budgetBytes, long minFreeBytes, String namePrefix) {
+        this.dir = dir;
+        this.budgetBytes = budgetBytes;
+        this.minFreeBytes = minFreeBytes;
+        this.namePrefix = namePrefix;
+    }
+
+    // Deletes sessions in scope until they plus pendingBytes (e.g. the segment being written)
+    // fit the budget. Sessions missing from the catalog, such as the one being recorded, are
+    // never touched. Returns the number of deleted sessions.
+    public int enforce(SessionCatalog catalog, long pendingBytes) {
+        List<CatalogEntry> entries = catalog.queryEntries(SessionCatalog.Sort.OLDEST, null);
+        if (namePrefix != null) {
+            for (Iterator<CatalogEntry> it = entries.iterator(); it.hasNext(); ) {
+                if (!it.next().name.startsWith(namePrefix)) it.remove();
+            }
+        }
+        long used = pendingBytes;
+        for (CatalogEntry e : entries) used += e.sizeBytes;
+        long free = dir.getUsableSpace();
+
+        int deleted = 0;
+        // pass 0: sessions without events, pass 1: everything else; both oldest first
+        for (int pass = 0; pass < 2; pass++) {
+            for (CatalogEntry e : entries) {
+                if (used <= budgetBytes && free >= minFreeBytes) return deleted;
+                if ((e.eventCount == 0) != (pass == 0)) continue;
+                long size = delete(e.name);
+                catalog.remove(e.name);
+                used -= e.sizeBytes;
+                free += size;
+                deleted++;
+                Log.i(TAG, "Evicted " + e.name + " (" + e.eventCount + " events)");
+            }
+        }
+        return deleted;
+    }
+
+    private long delete(String name) {
+        long freed = 0;
+        for (String extension : new String[]{SessionAudio.WAV_EXTENSION, LosslessFile.EXTENSION, SessionFile.EXTENSION, SessionJson.EXTENSION}) {
+            File f = new File(dir, name + extension);
+            long length = f.length();
+            if (f.delete()) freed += length;
+        }
+        return freed;
+    }
+}
@@ -0,0 +1,73 @@
+package com.acousticguard.app;
+
+import com.acousticguard.dsp.LosslessFile;
+import com.acousticguard.dsp.WavFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+// A session's audio is either REC_<ts>.wav or, with lossless storage on, REC_<ts>.agl (see
+// LosslessFile). Everything that lists, sizes or repairs recordings goes through here so both
+// are handled alike; readers pick WavFile or LosslessReader by isLossless(). Recordings made in
+// the app are named REC_<ts>, MonitorService's segments and clips MON_<ts>; only the latter are
+// ever deleted by the RetentionPolicy.
+public final class SessionAudio {
+
+    public static final String RECORDING_PREFIX = "REC_";
+    public static final String SEGMENT_PREFIX = "MON_";
+    public static final String WAV_EXTENSION = ".wav";
+    public static final String[] EXTENSIONS = {WAV_EXTENSION, LosslessFile.EXTENSION};
+
+    private SessionAudio() {}
+
+    public static boolean isAudio(String fileName) {
+        return fileName.endsWith(WAV_EXTENSION) || fileName.endsWith(LosslessFile.EXTENSION);
+    }
+
+    // A recording or monitoring segment, as opposed to e.g. an exported clip.
+    public static boolean isSession(String fileName) {
+        return (fileName.startsWith(RECORDING_PREFIX) || fileName.startsWith(SEGMENT_PREFIX)) && isAudio(fileName);
+    }
+
+    public static boolean isLossless(File audio) {
+        return audio.getName().endsWith(LosslessFile.EXTENSION);
+    }
+
+    // The audio file of the session at basePath; the WAV path if there is none yet.
+    public static File find(String basePath) {
+        File lossless = new File(basePath + LosslessFile.EXTENSION);
+        return lossless.exists() ? lossless : new File(basePath + WAV_EXTENSION);
+    }
+
+    // REC_<ts>.agl -> REC_<ts>
+    public static String baseName(File audio) {
+        String name = audio.getName();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    public static String basePath(File audio) {
+        String path = audio.getPath();
+        return path.substring(0, path.lastIndexOf('.'));
+    }
+
+    // Length of the recording on disk; 0 if the file cannot be read.
+    public static long readDurationMs(File audio) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(audio, "r")) {
+            FileChannel channel = raf.getChannel();
+            if (isLossless(audio)) {
+                LosslessFile.Info info = LosslessFile.readInfo(channel);
+                return info != null ? info.getDurationMs() : 0;
+            }
+            WavFile.Info info = WavFile.readInfo(channel);
+            if (info == null || info.sampleRate <= 0) return 0;
+            return info.getFrameCount() * 1000 / info.sampleRate;
+        }
+    }
+
+    // Finalizes a recording that was cut off mid-session. Returns true if the file was changed.
+    public static boolean repair(File audio) throws IOException {
+        return isLossless(audio) ? LosslessFile.repair(audio) : WavFile.repair(audio);
+    }
+}
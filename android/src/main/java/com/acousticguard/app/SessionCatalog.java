@@ -0,0 +1,393 @@
+package com.acousticguard.app;
+
+import com.acousticguard.dsp.AcousticEvent;
+import com.acousticguard.dsp.SoundType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// On-disk index of all sessions (sessions.agc): one fixed-size CatalogEntry record per
+// session in a memory-mapped file, so the history drawer can sort, filter and page through
+// thousands of recordings without opening any WAV or sidecar. Records are updated in place
+// when a recording stops; the whole file can be rebuilt from the session files at any time.
+//
+//   header   16 bytes: int32 magic "AGCT", int32 version, int32 recordSize, int32 count
+//   records  count * recordSize bytes, see the *_AT offsets below (little-endian)
+//
+// All methods are synchronized; queries and rebuilds should run off the main thread. Removing
+// a session moves another record into its place, so query results are only valid until the
+// next removal; getModCount() tells whether one happened.
+public class SessionCatalog {
+
+    public static final String FILE_NAME = "sessions.agc";
+
+    public enum Sort { NEWEST, OLDEST, LONGEST, LOUDEST, MOST_EVENTS }
+
+    // Sessions to keep; every condition that is set must hold.
+    public static class Filter {
+        public int minEvents;
+        // At least minTypeEvents events of this type peaking at or above minTypeDb.
+        public SoundType type;
+        public int minTypeEvents;
+        public int minTypeDb = Integer.MIN_VALUE;
+        public float minLeq = Float.NaN;
+
+        public boolean matches(CatalogEntry e) {
+            if (e.eventCount < minEvents) return false;
+            if (type != null && e.countEvents(type, minTypeDb) < minTypeEvents) return false;
+            if (!Float.isNaN(minLeq) && !(e.leq >= minLeq)) return false;
+            return true;
+        }
+
+        // Whether a single event is one of those the filter asks for, e.g. to export just those.
+        // Only the type condition applies to events; the session must pass matches(CatalogEntry).
+        public boolean matches(AcousticEvent e) {
+            return type == null || (e.type == type && e.peakDb >= minTypeDb);
+        }
+    }
+
+    private static final int MAGIC = 0x54434741; // "AGCT"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int NAME_BYTES = 32;
+    private static final int RECORD_SIZE = NAME_BYTES + 40 + SoundType.values().length * CatalogEntry.DB_BANDS * 4;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final long SORT_EPOCH_SECONDS = 1577836800L; // 2020-01-01
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final int COUNT_AT = 12;
+    private static final int CREATED_AT = NAME_BYTES;
+    private static final int DURATION_AT = NAME_BYTES + 8;
+    private static final int SIZE_AT = NAME_BYTES + 16;
+    private static final int MAX_DB_AT = NAME_BYTES + 24;
+    private static final int AVG_DB_AT = NAME_BYTES + 28;
+    private static final int LEQ_AT = NAME_BYTES + 32;
+    private static final int EVENT_COUNT_AT = NAME_BYTES + 36;
+    private static final int TYPE_COUNTS_AT = NAME_BYTES + 40;
+
+    // Process-wide instance, see shared().
+    private static SessionCatalog shared;
+
+    private RandomAccessFile raf;
+    private MappedByteBuffer map;
+    private int count;
+    // Removals so far; each one may renumber a record.
+    private int modCount;
+    private final Map<String, Integer> recordsByName = new HashMap<>();
+    private final byte[] nameBuffer = new byte[NAME_BYTES];
+
+    // The catalog of dir shared by MainActivity and MonitorService, opened or rebuilt on first
+    // use; the file must never be mapped twice in one process.
+    public static synchronized SessionCatalog shared(File dir, int defaultSampleRate) throws IOException {
+        if (shared == null) {
+            shared = open(dir);
+            if (shared == null) shared = rebuild(dir, defaultSampleRate);
+        }
+        return shared;
+    }
+
+    // Opens the catalog in dir, or returns null if it is missing or unreadable; callers then
+    // rebuild() it.
+    public static SessionCatalog open(File dir) {
+        File file = new File(dir, FILE_NAME);
+        if (!file.exists()) return null;
+        SessionCatalog catalog = new SessionCatalog();
+        try {
+            catalog.map(file);
+            return catalog;
+        } catch (IOException e) {
+            catalog.close();
+            return null;
+        }
+    }
+
+    // Scans every recording in dir and writes a fresh catalog from it and the sidecars.
+    public static SessionCatalog rebuild(File dir, int defaultSampleRate) throws IOException {
+        File[] recordings = dir.listFiles((d, name) -> SessionAudio.isAudio(name));
+        File tmp = new File(dir, FILE_NAME + ".tmp");
+        tmp.delete();
+        SessionCatalog catalog = new SessionCatalog();
+        catalog.create(tmp);
+        if (recordings != null) {
+            for (File audio : recordings) {
+                CatalogEntry entry = readEntry(audio, defaultSampleRate);
+                if (entry != null) catalog.store(entry);
+            }
+        }
+        catalog.map.force();
+        catalog.close();
+        File target = new File(dir, FILE_NAME);
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Could not replace " + target);
+        }
+        SessionCatalog result = new SessionCatalog();
+        result.map(target);
+        return result;
+    }
+
+    // Summarizes one recording from its files; null if it cannot be read.
+    public static CatalogEntry readEntry(File audio, int defaultSampleRate) {
+        String path = audio.getPath();
+        String base = path.substring(0, path.lastIndexOf('.'));
+        String name = audio.getName().substring(0, audio.getName().lastIndexOf('.'));
+        File agm = new File(base + SessionFile.EXTENSION);
+        File json = new File(base + SessionJson.EXTENSION);
+        try {
+            SessionMetadata meta = null;
+            File sidecar = null;
+            if (agm.exists()) {
+                meta = SessionFile.open(agm).toMetadata();
+                sidecar = agm;
+            } else if (json.exists()) {
+                meta = SessionJson.read(json, defaultSampleRate);
+                sidecar = json;
+            }
+            return CatalogEntry.fromSession(name, audio, sidecar, meta);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    // Read before query() and passed to read(int[], ...) to detect results that went stale.
+    public synchronized int getModCount() {
+        return modCount;
+    }
+
+    public synchronized boolean contains(String name) {
+        return recordsByName.containsKey(name);
+    }
+
+    // Adds the entry, or replaces the record of the session with the same name.
+    public synchronized void put(CatalogEntry entry) throws IOException {
+        store(entry);
+        map.force();
+    }
+
+    private void store(CatalogEntry entry) throws IOException {
+        Integer existing = recordsByName.get(entry.name);
+        int record;
+        if (existing != null) {
+            record = existing;
+        } else {
+            ensureCapacity(count + 1);
+            record = count++;
+            recordsByName.put(entry.name, record);
+        }
+        write(record, entry);
+        map.putInt(COUNT_AT, count);
+    }
+
+    public synchronized boolean remove(String name) {
+        Integer record = recordsByName.get(name);
+        if (record == null) return false;
+        removeRecord(record, name);
+        map.putInt(COUNT_AT, count);
+        map.force();
+        return true;
+    }
+
+    // Drops the records of sessions whose names are not in names, e.g. deleted recordings.
+    public synchronized int retainAll(Set<String> names) {
+        int removed = 0;
+        for (int record = count - 1; record >= 0; record--) {
+            String name = readName(record);
+            if (names.contains(name)) continue;
+            removeRecord(record, name);
+            removed++;
+        }
+        if (removed > 0) {
+            map.putInt(COUNT_AT, count);
+            map.force();
+        }
+        return removed;
+    }
+
+    // Record numbers of the matching sessions in the requested order. Only the record fields
+    // are read, never the session files.
+    public synchronized int[] query(Sort sort, Filter filter) {
+        CatalogEntry scratch = new CatalogEntry();
+        long[] keys = new long[count];
+        int matches = 0;
+        for (int record = 0; record < count; record++) {
+            readFields(record, scratch);
+            if (filter != null && !filter.matches(scratch)) continue;
+            keys[matches++] = ((long) sortKey(sort, scratch) << 32) | record;
+        }
+        // sorted ascending by key, ties by record number; descending orders read it backwards
+        Arrays.sort(keys, 0, matches);
+        boolean descending = sort != Sort.OLDEST;
+        int[] records = new int[matches];
+        for (int i = 0; i < matches; i++) {
+            records[i] = (int) keys[descending ? matches - 1 - i : i];
+        }
+        return records;
+    }
+
+    // query() and read() in one step, for callers that want every match at once.
+    public synchronized List<CatalogEntry> queryEntries(Sort sort, Filter filter) {
+        int[] records = query(sort, filter);
+        List<CatalogEntry> entries = new ArrayList<>(records.length);
+        for (int record : records) entries.add(read(record));
+        return entries;
+    }
+
+    // The record of the named session, or null when it is not catalogued.
+    public synchronized CatalogEntry get(String name) {
+        Integer record = recordsByName.get(name);
+        return record != null ? read(record) : null;
+    }
+
+    public synchronized CatalogEntry read(int record) {
+        CatalogEntry e = new CatalogEntry();
+        readFields(record, e);
+        e.name = readName(record);
+        return e;
+    }
+
+    // Reads up to limit entries of a query result, starting at position from. Returns false
+    // without reading anything if a session was removed since modCount was taken; the query
+    // must then be run again.
+    public synchronized boolean read(int[] records, int from, int limit, int modCount, List<CatalogEntry> into) {
+        if (modCount != this.modCount) return false;
+        int end = Math.min(records.length, from + limit);
+        for (int i = from; i < end; i++) into.add(read(records[i]));
+        return true;
+    }
+
+    public synchronized void close() {
+        if (raf == null) return;
+        try {
+            raf.close();
+        } catch (IOException ignored) {
+        }
+        raf = null;
+        map = null;
+    }
+
+    private static int sortKey(Sort sort, CatalogEntry e) {
+        switch (sort) {
+            case LONGEST:
+                return (int) Math.min(Integer.MAX_VALUE, e.durationMs);
+            case LOUDEST:
+                return orderedBits(Float.isNaN(e.leq) ? e.avgDb : e.leq);
+            case MOST_EVENTS:
+                return e.eventCount;
+            default:
+                // seconds since 2020 fit an int until 2088
+                return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, e.createdMs / 1000 - SORT_EPOCH_SECONDS));
+        }
+    }
+
+    // Float bits reordered so that signed int comparison matches float comparison.
+    private static int orderedBits(float f) {
+        int bits = Float.floatToIntBits(f);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    private void create(File file) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(HEADER_SIZE + (long) INITIAL_CAPACITY * RECORD_SIZE);
+        remap();
+        map.putInt(0, MAGIC);
+        map.putInt(4, VERSION);
+        map.putInt(8, RECORD_SIZE);
+        map.putInt(COUNT_AT, 0);
+        count = 0;
+    }
+
+    private void map(File file) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        if (raf.length() < HEADER_SIZE) throw new IOException("Truncated catalog");
+        remap();
+        if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION || map.getInt(8) != RECORD_SIZE) {
+            throw new IOException("Unsupported catalog");
+        }
+        count = map.getInt(COUNT_AT);
+        if (HEADER_SIZE + (long) count * RECORD_SIZE > raf.length()) throw new IOException("Truncated catalog");
+        for (int record = 0; record < count; record++) recordsByName.put(readName(record), record);
+    }
+
+    private void remap() throws IOException {
+        map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        map.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void ensureCapacity(int records) throws IOException {
+        long required = HEADER_SIZE + (long) records * RECORD_SIZE;
+        if (required <= map.capacity()) return;
+        raf.setLength(Math.max(required, HEADER_SIZE + (map.capacity() - HEADER_SIZE) * 2L));
+        remap();
+    }
+
+    // Moves the last record into the hole so records stay contiguous.
+    private void removeRecord(int record, String name) {
+        int last = count - 1;
+        if (record != last) {
+            String lastName = readName(last);
+            for (int i = 0; i < RECORD_SIZE; i += 4) map.putInt(offset(record) + i, map.getInt(offset(last) + i));
+            recordsByName.put(lastName, record);
+        }
+        recordsByName.remove(name);
+        count--;
+        modCount++;
+    }
+
+    private static int offset(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    private void write(int record, CatalogEntry e) {
+        int at = offset(record);
+        byte[] name = e.name.getBytes(ASCII);
+        Arrays.fill(nameBuffer, (byte) 0);
+        System.arraycopy(name, 0, nameBuffer, 0, Math.min(name.length, NAME_BYTES));
+        for (int i = 0; i < NAME_BYTES; i++) map.put(at + i, nameBuffer[i]);
+        map.putLong(at + CREATED_AT, e.createdMs);
+        map.putLong(at + DURATION_AT, e.durationMs);
+        map.putLong(at + SIZE_AT, e.sizeBytes);
+        map.putFloat(at + MAX_DB_AT, e.maxDb);
+        map.putFloat(at + AVG_DB_AT, e.avgDb);
+        map.putFloat(at + LEQ_AT, e.leq);
+        map.putInt(at + EVENT_COUNT_AT, e.eventCount);
+        for (int i = 0; i < e.typeBandCounts.length; i++) map.putInt(at + TYPE_COUNTS_AT + i * 4, e.typeBandCounts[i]);
+    }
+
+    // Everything but the name, which is only decoded for rows that are shown.
+    private void readFields(int record, CatalogEntry e) {
+        int at = offset(record);
+        e.createdMs = map.getLong(at + CREATED_AT);
+        e.durationMs = map.getLong(at + DURATION_AT);
+        e.sizeBytes = map.getLong(at + SIZE_AT);
+        e.maxDb = map.getFloat(at + MAX_DB_AT);
+        e.avgDb = map.getFloat(at + AVG_DB_AT);
+        e.leq = map.getFloat(at + LEQ_AT);
+        e.eventCount = map.getInt(at + EVENT_COUNT_AT);
+        for (int i = 0; i < e.typeBandCounts.length; i++) e.typeBandCounts[i] = map.getInt(at + TYPE_COUNTS_AT + i * 4);
+    }
+
+    private String readName(int record) {
+        int at = offset(record);
+        int length = 0;
+        while (length < NAME_BYTES && map.get(at + length) != 0) {
+            nameBuffer[length] = map.get(at + length);
+            length++;
+        }
+        return new String(nameBuffer, 0, length, ASCII);
+    }
+}
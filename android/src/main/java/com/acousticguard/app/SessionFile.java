@@ -0,0 +1,308 @@
+package com.acousticguard.app;
+
+import com.acousticguard.dsp.LevelSummary;
+import com.acousticguard.dsp.PeakPyramid;
+import com.acousticguard.dsp.SoundType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Binary session sidecar (REC_<ts>.agm), read through a memory map so nothing is parsed
+// until a column is touched. Little-endian layout:
+//
+//   header      72 bytes (64 before version 4), see the *_AT offsets below
+//   amplitudes  float32[amplitudeCount]
+//   markers     markerCount records of markerStride bytes: int32 index, int32 db, int64 ts,
+//               then since version 2: int64 endTs, int32 endIndex, float32 energy,
+//               then since version 3: int32 SoundType ordinal, float32 low frequency ratio
+//   peaks       for each stored level from firstLevel up: int32 size, float32[size] min,
+//               float32[size] max
+//   statistics  since version 4, if statsOffset is non-zero: int32 flags (bit 0: A-weighted),
+//               int32 minuteCount, then 1 + minuteCount records of 32 bytes for the session
+//               and each minute: int64 durationMs, float32 leq, lmax, lmin, l10, l50, l90
+//
+// Readers only rely on the fields they know, so newer writers may append fields to the
+// marker records (larger stride) or new sections after the peaks.
+public final class SessionFile {
+
+    public static final String EXTENSION = ".agm";
+    public static final int VERSION = 4;
+
+    private static final int MAGIC = 0x444D4741; // "AGMD"
+    private static final int HEADER_SIZE = 72;
+    private static final int V3_HEADER_SIZE = 64;
+    private static final int MARKER_STRIDE = 40;
+    private static final int V1_MARKER_STRIDE = 16;
+    private static final int V2_MARKER_STRIDE = 32;
+    // Levels below this are cheap to rebuild from the amplitudes and would double the file.
+    private static final int FIRST_STORED_LEVEL = 4;
+
+    private static final int VERSION_AT = 4;
+    private static final int SAMPLE_RATE_AT = 8;
+    private static final int SAMPLES_PER_AMPLITUDE_AT = 12;
+    private static final int AMPLITUDE_COUNT_AT = 16;
+    private static final int MARKER_COUNT_AT = 20;
+    private static final int MARKER_STRIDE_AT = 24;
+    private static final int LEVEL_COUNT_AT = 28;
+    private static final int AMPLITUDE_OFFSET_AT = 32;
+    private static final int MARKER_OFFSET_AT = 40;
+    private static final int LEVEL_OFFSET_AT = 48;
+    private static final int FIRST_LEVEL_AT = 56;
+    private static final int STATS_OFFSET_AT = 64;
+
+    private static final int STATS_A_WEIGHTED = 1;
+    private static final int STATS_RECORD_SIZE = 32;
+
+    private final ByteBuffer map;
+    private final int markerOffset;
+    private final int markerStride;
+    private final int[] levelOffsets;
+
+    private SessionFile(ByteBuffer map) throws IOException {
+        this.map = map;
+        if (map.limit() < V3_HEADER_SIZE || map.getInt(0) != MAGIC) throw new IOException("Not a session metadata file");
+        this.markerOffset = (int) map.getLong(MARKER_OFFSET_AT);
+        this.markerStride = map.getInt(MARKER_STRIDE_AT);
+        this.levelOffsets = new int[map.getInt(LEVEL_COUNT_AT)];
+        int offset = (int) map.getLong(LEVEL_OFFSET_AT);
+        for (int i = 0; i < levelOffsets.length; i++) {
+            levelOffsets[i] = offset;
+            offset += 4 + map.getInt(offset) * 8;
+        }
+    }
+
+    public static SessionFile open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            return new SessionFile(map);
+        }
+    }
+
+    // Writes to a temporary file first and renames it over the target, so a crash never
+    // leaves a half-written sidecar behind.
+    public static void write(File file, SessionMetadata meta) throws IOException {
+        PeakPyramid peaks = meta.amplitudes;
+        int amplitudeCount = peaks.size();
+        int levelCount = Math.max(0, peaks.getLevelCount() - FIRST_STORED_LEVEL);
+
+        long amplitudeOffset = HEADER_SIZE;
+        long markerOffset = amplitudeOffset + amplitudeCount * 4L;
+        long levelOffset = markerOffset + (long) meta.markerCount * MARKER_STRIDE;
+        long size = levelOffset;
+        for (int i = 0; i < levelCount; i++) size += 4 + peaks.getLevelSize(FIRST_STORED_LEVEL + i) * 8L;
+        long statsOffset = 0;
+        if (meta.stats != null) {
+            statsOffset = size;
+            size += 8 + (1 + meta.minuteStats.size()) * (long) STATS_RECORD_SIZE;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(size);
+            MappedByteBuffer out = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(0, MAGIC);
+            out.putInt(VERSION_AT, VERSION);
+            out.putInt(SAMPLE_RATE_AT, meta.sampleRate);
+            out.putInt(SAMPLES_PER_AMPLITUDE_AT, meta.samplesPerAmplitude);
+            out.putInt(AMPLITUDE_COUNT_AT, amplitudeCount);
+            out.putInt(MARKER_COUNT_AT, meta.markerCount);
+            out.putInt(MARKER_STRIDE_AT, MARKER_STRIDE);
+            out.putInt(LEVEL_COUNT_AT, levelCount);
+            out.putLong(AMPLITUDE_OFFSET_AT, amplitudeOffset);
+            out.putLong(MARKER_OFFSET_AT, markerOffset);
+            out.putLong(LEVEL_OFFSET_AT, levelOffset);
+            out.putInt(FIRST_LEVEL_AT, FIRST_STORED_LEVEL);
+            out.putLong(STATS_OFFSET_AT, statsOffset);
+
+            out.position((int) amplitudeOffset);
+            for (int i = 0; i < amplitudeCount; i++) out.putFloat(peaks.get(i));
+            for (int i = 0; i < meta.markerCount; i++) {
+                out.putInt(meta.markerIndex[i]);
+                out.putInt(meta.markerDb[i]);
+                out.putLong(meta.markerTimestamp[i]);
+                out.putLong(meta.markerEndTimestamp[i]);
+                out.putInt(meta.markerEndIndex[i]);
+                out.putFloat(meta.markerEnergy[i]);
+                out.putInt(meta.markerType[i]);
+                out.putFloat(meta.markerLowRatio[i]);
+            }
+            for (int i = 0; i < levelCount; i++) {
+                int level = FIRST_STORED_LEVEL + i;
+                int levelSize = peaks.getLevelSize(level);
+                out.putInt(levelSize);
+                for (int j = 0; j < levelSize; j++) out.putFloat(peaks.getMin(level, j));
+                for (int j = 0; j < levelSize; j++) out.putFloat(peaks.getMax(level, j));
+            }
+            if (meta.stats != null) {
+                out.putInt(meta.aWeighted ? STATS_A_WEIGHTED : 0);
+                out.putInt(meta.minuteStats.size());
+                putSummary(out, meta.stats);
+                for (LevelSummary minute : meta.minuteStats) putSummary(out, minute);
+            }
+            out.force();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    public int getVersion() {
+        return map.getInt(VERSION_AT);
+    }
+
+    public int getSampleRate() {
+        return map.getInt(SAMPLE_RATE_AT);
+    }
+
+    public int getSamplesPerAmplitude() {
+        return map.getInt(SAMPLES_PER_AMPLITUDE_AT);
+    }
+
+    public int getAmplitudeCount() {
+        return map.getInt(AMPLITUDE_COUNT_AT);
+    }
+
+    // A view straight onto the mapped column; nothing is copied.
+    public FloatBuffer getAmplitudes() {
+        return floatView((int) map.getLong(AMPLITUDE_OFFSET_AT), getAmplitudeCount());
+    }
+
+    public int getMarkerCount() {
+        return map.getInt(MARKER_COUNT_AT);
+    }
+
+    public int getMarkerIndex(int i) {
+        return map.getInt(markerOffset + i * markerStride);
+    }
+
+    public int getMarkerDb(int i) {
+        return map.getInt(markerOffset + i * markerStride + 4);
+    }
+
+    public long getMarkerTimestamp(int i) {
+        return map.getLong(markerOffset + i * markerStride + 8);
+    }
+
+    // Version 1 markers were single points: they end where they start and carry no energy.
+    public long getMarkerEndTimestamp(int i) {
+        if (markerStride <= V1_MARKER_STRIDE) return getMarkerTimestamp(i);
+        return map.getLong(markerOffset + i * markerStride + 16);
+    }
+
+    public int getMarkerEndIndex(int i) {
+        if (markerStride <= V1_MARKER_STRIDE) return getMarkerIndex(i);
+        return map.getInt(markerOffset + i * markerStride + 24);
+    }
+
+    public float getMarkerEnergy(int i) {
+        if (markerStride <= V1_MARKER_STRIDE) return 0f;
+        return map.getFloat(markerOffset + i * markerStride + 28);
+    }
+
+    // Markers written before spectral classification are Environment.
+    public int getMarkerType(int i) {
+        if (markerStride <= V2_MARKER_STRIDE) return SoundType.ENVIRONMENT.ordinal();
+        return map.getInt(markerOffset + i * markerStride + 32);
+    }
+
+    public float getMarkerLowRatio(int i) {
+        if (markerStride <= V2_MARKER_STRIDE) return 0f;
+        return map.getFloat(markerOffset + i * markerStride + 36);
+    }
+
+    public void readMarkers(SessionMetadata meta) {
+        int markers = getMarkerCount();
+        for (int i = 0; i < markers; i++) {
+            meta.addMarker(getMarkerIndex(i), getMarkerDb(i), getMarkerTimestamp(i),
+                    getMarkerEndIndex(i), getMarkerEndTimestamp(i), getMarkerEnergy(i),
+                    getMarkerType(i), getMarkerLowRatio(i));
+        }
+    }
+
+    // Copies the level statistics, if the file has any, into meta.
+    public void readStatistics(SessionMetadata meta) {
+        if (getVersion() < 4) return;
+        int offset = (int) map.getLong(STATS_OFFSET_AT);
+        if (offset == 0) return;
+        meta.aWeighted = (map.getInt(offset) & STATS_A_WEIGHTED) != 0;
+        int minutes = map.getInt(offset + 4);
+        offset += 8;
+        meta.stats = getSummary(offset);
+        for (int i = 0; i < minutes; i++) {
+            offset += STATS_RECORD_SIZE;
+            meta.minuteStats.add(getSummary(offset));
+        }
+    }
+
+    // Pyramid level of the first stored peak level; stored levels are consecutive from here.
+    public int getFirstStoredLevel() {
+        return map.getInt(FIRST_LEVEL_AT);
+    }
+
+    public int getStoredLevelCount() {
+        return levelOffsets.length;
+    }
+
+    public FloatBuffer getLevelMin(int storedLevel) {
+        int offset = levelOffsets[storedLevel];
+        return floatView(offset + 4, map.getInt(offset));
+    }
+
+    public FloatBuffer getLevelMax(int storedLevel) {
+        int offset = levelOffsets[storedLevel];
+        int size = map.getInt(offset);
+        return floatView(offset + 4 + size * 4, size);
+    }
+
+    // Materializes everything, e.g. for a session that is about to be displayed and edited.
+    public SessionMetadata toMetadata() {
+        SessionMetadata meta = new SessionMetadata();
+        meta.sampleRate = getSampleRate();
+        meta.samplesPerAmplitude = getSamplesPerAmplitude();
+        float[] amps = new float[getAmplitudeCount()];
+        getAmplitudes().get(amps);
+        meta.amplitudes = PeakPyramid.build(amps, amps.length);
+        readMarkers(meta);
+        readStatistics(meta);
+        return meta;
+    }
+
+    private static void putSummary(ByteBuffer out, LevelSummary s) {
+        out.putLong(s.durationMs);
+        out.putFloat(s.leq);
+        out.putFloat(s.lmax);
+        out.putFloat(s.lmin);
+        out.putFloat(s.l10);
+        out.putFloat(s.l50);
+        out.putFloat(s.l90);
+    }
+
+    private LevelSummary getSummary(int offset) {
+        LevelSummary s = new LevelSummary();
+        s.durationMs = map.getLong(offset);
+        s.leq = map.getFloat(offset + 8);
+        s.lmax = map.getFloat(offset + 12);
+        s.lmin = map.getFloat(offset + 16);
+        s.l10 = map.getFloat(offset + 20);
+        s.l50 = map.getFloat(offset + 24);
+        s.l90 = map.getFloat(offset + 28);
+        return s;
+    }
+
+    private FloatBuffer floatView(int offset, int count) {
+        ByteBuffer slice = map.duplicate();
+        slice.position(offset);
+        slice.limit(offset + count * 4);
+        return slice.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+}
@@ -0,0 +1,72 @@
+package com.acousticguard.app;
+
+import com.acousticguard.dsp.PeakPyramid;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+// The original REC_<ts>.json sidecar. Still read so old sessions open (and get converted to
+// the binary format on first load); new sessions are saved as SessionFile.
+public final class SessionJson {
+
+    public static final String EXTENSION = ".json";
+
+    private SessionJson() {}
+
+    public static SessionMetadata read(File file, int sampleRate) throws IOException, JSONException {
+        byte[] bytes = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int off = 0;
+            while (off < bytes.length) {
+                int n = in.read(bytes, off, bytes.length - off);
+                if (n < 0) break;
+                off += n;
+            }
+        }
+        JSONObject root = new JSONObject(new String(bytes, Charset.forName("UTF-8")));
+
+        SessionMetadata meta = new SessionMetadata();
+        meta.sampleRate = sampleRate;
+        JSONArray amps = root.getJSONArray("amplitudes");
+        float[] values = new float[amps.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) amps.getDouble(i);
+        }
+        meta.amplitudes = PeakPyramid.build(values, values.length);
+
+        JSONArray marks = root.getJSONArray("markers");
+        for (int i = 0; i < marks.length(); i++) {
+            JSONObject obj = marks.getJSONObject(i);
+            meta.addMarker(obj.getInt("index"), obj.getInt("db"), obj.getLong("ts"));
+        }
+        return meta;
+    }
+
+    public static void write(File file, SessionMetadata meta) throws IOException, JSONException {
+        JSONObject root = new JSONObject();
+        JSONArray amps = new JSONArray();
+        for (int i = 0; i < meta.amplitudes.size(); i++) amps.put((double) meta.amplitudes.get(i));
+        root.put("amplitudes", amps);
+
+        JSONArray marks = new JSONArray();
+        for (int i = 0; i < meta.markerCount; i++) {
+            JSONObject obj = new JSONObject();
+            obj.put("index", meta.markerIndex[i]);
+            obj.put("db", meta.markerDb[i]);
+            obj.put("ts", meta.markerTimestamp[i]);
+            marks.put(obj);
+        }
+        root.put("markers", marks);
+
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(root.toString());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.acousticguard.app;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.acousticguard.dsp.PeakPyramid;
+
+import java.io.File;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Loads session sidecars on a background thread. Starting a new load cancels the previous
+// one; results are delivered on the main thread in two steps: a coarse overview built from
+// the stored peak levels, then the full-resolution session. Completed sessions stay in a
+// small LRU cache so switching back to them is immediate.
+public class SessionLoader {
+
+    private static final String TAG = "SessionLoader";
+    // Finest stored level used for the overview is the first one with at most this many entries.
+    private static final int OVERVIEW_ENTRIES = 2048;
+    private static final int CACHE_BYTES = 16 * 1024 * 1024;
+
+    public interface Listener {
+        // complete is false for the overview and true for the final, full-resolution data.
+        void onSessionData(String baseName, SessionMetadata meta, boolean complete);
+    }
+
+    private final File dir;
+    private final int defaultSampleRate;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "session-loader"));
+    private final LruCache<String, SessionMetadata> cache = new LruCache<String, SessionMetadata>(CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, SessionMetadata meta) {
+            // level 0 plus roughly two floats per sample for the levels above it
+            return meta.amplitudes.size() * 12 + meta.markerCount * 48 + meta.minuteStats.size() * 40;
+        }
+    };
+
+    private Future<?> pending;
+    private int generation = 0;
+
+    public SessionLoader(File dir, int defaultSampleRate) {
+        this.dir = dir;
+        this.defaultSampleRate = defaultSampleRate;
+    }
+
+    // Main thread only.
+    public void load(String baseName, Listener listener) {
+        cancel();
+        final int gen = generation;
+        SessionMetadata cached = cache.get(baseName);
+        if (cached != null) {
+            listener.onSessionData(baseName, cached, true);
+            return;
+        }
+        pending = executor.submit(() -> {
+            try {
+                loadInBackground(baseName, gen, listener);
+            } catch (Exception e) {
+                if (!Thread.currentThread().isInterrupted()) Log.e(TAG, "Failed to load " + baseName, e);
+            }
+        });
+    }
+
+    // Main thread only.
+    public void cancel() {
+        generation++;
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+    }
+
+    // Main thread only; e.g. for a session that was just recorded.
+    public void put(String baseName, SessionMetadata meta) {
+        cache.put(baseName, meta);
+    }
+
+    // Main thread only; e.g. after the session's sidecar was rewritten.
+    public void invalidate(String baseName) {
+        cache.remove(baseName);
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private void loadInBackground(String baseName, int gen, Listener listener) throws Exception {
+        File metaFile = new File(dir, baseName + SessionFile.EXTENSION);
+        File jsonFile = new File(dir, baseName + SessionJson.EXTENSION);
+        SessionMetadata meta;
+        if (metaFile.exists()) {
+            SessionFile file = SessionFile.open(metaFile);
+            SessionMetadata overview = readOverview(file);
+            if (overview != null) deliver(baseName, gen, overview, false, listener);
+            if (Thread.currentThread().isInterrupted()) return;
+            meta = file.toMetadata();
+        } else if (jsonFile.exists()) {
+            // 旧格式：解析后转换成二进制，下次打开即可走快速路径
+            meta = SessionJson.read(jsonFile, defaultSampleRate);
+            if (Thread.currentThread().isInterrupted()) return;
+            SessionFile.write(metaFile, meta);
+        } else {
+            meta = new SessionMetadata();
+            meta.sampleRate = defaultSampleRate;
+        }
+        if (Thread.currentThread().isInterrupted()) return;
+        deliver(baseName, gen, meta, true, listener);
+    }
+
+    private static SessionMetadata readOverview(SessionFile file) {
+        int stored = file.getStoredLevelCount();
+        for (int i = 0; i < stored; i++) {
+            FloatBuffer min = file.getLevelMin(i);
+            if (min.remaining() > OVERVIEW_ENTRIES) continue;
+            SessionMetadata overview = new SessionMetadata();
+            overview.sampleRate = file.getSampleRate();
+            overview.samplesPerAmplitude = file.getSamplesPerAmplitude();
+            overview.amplitudes = PeakPyramid.fromLevel(file.getAmplitudeCount(), file.getFirstStoredLevel() + i, min, file.getLevelMax(i));
+            file.readMarkers(overview);
+            file.readStatistics(overview);
+            return overview;
+        }
+        return null;
+    }
+
+    private void deliver(String baseName, int gen, SessionMetadata meta, boolean complete, Listener listener) {
+        mainHandler.post(() -> {
+            if (gen != generation) return; // superseded by a newer load
+            if (complete) cache.put(baseName, meta);
+            listener.onSessionData(baseName, meta, complete);
+        });
+    }
+}
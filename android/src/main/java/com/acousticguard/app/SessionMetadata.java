@@ -0,0 +1,83 @@
+package com.acousticguard.app;
+
+import com.acousticguard.dsp.AcousticEvent;
+import com.acousticguard.dsp.LevelSummary;
+import com.acousticguard.dsp.PeakPyramid;
+import com.acousticguard.dsp.SoundType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// In-memory form of a session's sidecar: the amplitude track (one RMS value per captured
+// buffer, normalized to 0..1), the detected events ("markers") as parallel primitive columns,
+// and the level statistics of the session and of each minute.
+public class SessionMetadata {
+
+    public int sampleRate;
+    // Samples summarized by each amplitude value, 0 when unknown (legacy JSON sessions).
+    public int samplesPerAmplitude;
+    public PeakPyramid amplitudes = new PeakPyramid();
+
+    public int markerCount;
+    public int[] markerIndex = new int[16];
+    public int[] markerDb = new int[16];
+    public long[] markerTimestamp = new long[16];
+    public int[] markerEndIndex = new int[16];
+    public long[] markerEndTimestamp = new long[16];
+    public float[] markerEnergy = new float[16];
+    public int[] markerType = new int[16];
+    public float[] markerLowRatio = new float[16];
+
+    // Null for sessions recorded before level statistics.
+    public LevelSummary stats;
+    public List<LevelSummary> minuteStats = new ArrayList<>();
+    public boolean aWeighted;
+
+    // Point marker, as written by sessions recorded before event detection.
+    public void addMarker(int index, int db, long timestamp) {
+        addMarker(index, db, timestamp, index, timestamp, 0f, SoundType.ENVIRONMENT.ordinal(), 0f);
+    }
+
+    public void addMarker(int index, int db, long timestamp, int endIndex, long endTimestamp, float energy,
+                          int type, float lowRatio) {
+        if (markerCount == markerIndex.length) {
+            int capacity = markerCount * 2;
+            markerIndex = Arrays.copyOf(markerIndex, capacity);
+            markerDb = Arrays.copyOf(markerDb, capacity);
+            markerTimestamp = Arrays.copyOf(markerTimestamp, capacity);
+            markerEndIndex = Arrays.copyOf(markerEndIndex, capacity);
+            markerEndTimestamp = Arrays.copyOf(markerEndTimestamp, capacity);
+            markerEnergy = Arrays.copyOf(markerEnergy, capacity);
+            markerType = Arrays.copyOf(markerType, capacity);
+            markerLowRatio = Arrays.copyOf(markerLowRatio, capacity);
+        }
+        markerIndex[markerCount] = index;
+        markerDb[markerCount] = db;
+        markerTimestamp[markerCount] = timestamp;
+        markerEndIndex[markerCount] = endIndex;
+        markerEndTimestamp[markerCount] = endTimestamp;
+        markerEnergy[markerCount] = energy;
+        markerType[markerCount] = type;
+        markerLowRatio[markerCount] = lowRatio;
+        markerCount++;
+    }
+
+    public void addEvent(AcousticEvent e) {
+        addMarker(e.startIndex, Math.round(e.peakDb), e.startMs, e.endIndex, e.endMs, (float) e.energy,
+                e.type.ordinal(), e.lowRatio);
+    }
+
+    public AcousticEvent getEvent(int i) {
+        AcousticEvent e = new AcousticEvent();
+        e.startIndex = markerIndex[i];
+        e.endIndex = markerEndIndex[i];
+        e.startMs = markerTimestamp[i];
+        e.endMs = markerEndTimestamp[i];
+        e.peakDb = markerDb[i];
+        e.energy = markerEnergy[i];
+        e.type = SoundType.fromOrdinal(markerType[i]);
+        e.lowRatio = markerLowRatio[i];
+        return e;
+    }
+}
@@ -0,0 +1,438 @@
+package com.acousticguard.app;
+
+import com.acousticguard.dsp.AcousticEvent;
+import com.acousticguard.dsp.AudioBlock;
+import com.acousticguard.dsp.BlockSource;
+import com.acousticguard.dsp.EventDetector;
+import com.acousticguard.dsp.LevelMeter;
+import com.acousticguard.dsp.LevelStatistics;
+import com.acousticguard.dsp.LosslessFile;
+import com.acousticguard.dsp.LosslessReader;
+import com.acousticguard.dsp.Pipeline;
+import com.acousticguard.dsp.SpectralAnalyzer;
+import com.acousticguard.dsp.WavFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Re-runs the capture analysis over existing recordings, e.g. after the detector thresholds or
+// the classifier changed, and replaces their sidecars with the new events and statistics.
+//
+// The expensive per-buffer work (the LevelMeter and SpectralAnalyzer stages of the capture
+// pipeline) is split across a ForkJoinPool: every file is cut into chunks of whole buffers, and
+// each chunk maps its part of the data chunk read-only (or, for lossless recordings, decodes it
+// from the seek table's frame onwards) and runs it through its own pipeline after a warm-up
+// over the audio just before it, so the filter and FFT framing state match a straight pass (the
+// FFT frames exactly, the A-weighting to well below the statistics' resolution). The stateful,
+// cheap part (event detection, statistics, peak pyramid) then runs once over the per-buffer
+// results in order.
+// Sidecars are written to a temporary file and renamed, so a cancelled or failed run leaves
+// every session either untouched or fully updated.
+//
+// Uses no Android APIs, so it also runs on a plain JVM against copied-off archives; see main()
+// and the :tools module.
+public class SessionReanalyzer {
+
+    public static class Config {
+        public EventDetector.Config detector = new EventDetector.Config();
+        public boolean aWeighted;
+        public int defaultSampleRate = 44100;
+        // Buffer size for files whose old sidecar does not tell how they were recorded.
+        public int defaultBlockSize = 1792;
+        public long chunkMs = 30_000;
+        public int parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    public interface Listener {
+        // Any worker thread, once the file's sidecar has been replaced.
+        void onFileAnalyzed(File wav, SessionMetadata meta);
+        void onFileFailed(File wav, Exception error);
+        // Any worker thread, after each chunk; bytes refer to the audio data of all files.
+        void onProgress(int filesDone, int fileCount, long bytesDone, long totalBytes);
+    }
+
+    public static class Result {
+        public int analyzed;
+        public int failed;
+        public boolean cancelled;
+        public long elapsedMs;
+    }
+
+    // Audio before a chunk that is analyzed and thrown away: at least one FFT frame and about
+    // 60 time constants of the slowest A-weighting pole.
+    private static final long WARM_UP_MS = 500;
+
+    private final Config config;
+    private final Listener listener;
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private volatile boolean cancelled;
+    private int fileCount;
+    private long totalBytes;
+
+    public SessionReanalyzer(Config config, Listener listener) {
+        this.config = config;
+        this.listener = listener;
+    }
+
+    // Any thread; run() stops at the next buffer and returns with cancelled set.
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // Blocks until every file has been analyzed, failed or the run was cancelled.
+    public Result run(List<File> wavs) {
+        long started = System.currentTimeMillis();
+        fileCount = wavs.size();
+        totalBytes = 0;
+        for (File f : wavs) totalBytes += pcmBytes(f);
+        Result result = new Result();
+        AtomicInteger failed = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, config.parallelism));
+        try {
+            pool.invoke(new FilesTask(wavs, 0, wavs.size(), failed));
+        } finally {
+            pool.shutdown();
+        }
+        result.failed = failed.get();
+        result.analyzed = filesDone.get() - result.failed;
+        result.cancelled = cancelled;
+        result.elapsedMs = System.currentTimeMillis() - started;
+        return result;
+    }
+
+    // Splits the file list until single files remain, so small files also run in parallel.
+    private final class FilesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> wavs;
+        private final int from;
+        private final int to;
+        private final AtomicInteger failed;
+
+        FilesTask(List<File> wavs, int from, int to, AtomicInteger failed) {
+            this.wavs = wavs;
+            this.from = from;
+            this.to = to;
+            this.failed = failed;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new FilesTask(wavs, from, mid, failed), new FilesTask(wavs, mid, to, failed));
+                return;
+            }
+            if (from == to || cancelled) return;
+            File wav = wavs.get(from);
+            try {
+                SessionMetadata meta = analyze(wav);
+                if (meta == null) return; // cancelled
+                filesDone.incrementAndGet();
+                listener.onFileAnalyzed(wav, meta);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                filesDone.incrementAndGet();
+                listener.onFileFailed(wav, e);
+            } catch (LinkageError e) {
+                // e.g. org.json missing from a desktop classpath; fail this file, not the run
+                failed.incrementAndGet();
+                filesDone.incrementAndGet();
+                listener.onFileFailed(wav, new IOException(e.toString(), e));
+            }
+            listener.onProgress(filesDone.get(), fileCount, bytesDone.get(), totalBytes);
+        }
+    }
+
+    // Per-buffer results of the parallel stage.
+    private static final class Blocks {
+        final float[] amplitude;
+        final float[] level;
+        final float[] statsLevel;
+        final double[] low;
+        final double[] mid;
+        final double[] high;
+
+        Blocks(int count) {
+            amplitude = new float[count];
+            level = new float[count];
+            statsLevel = new float[count];
+            low = new double[count];
+            mid = new double[count];
+            high = new double[count];
+        }
+    }
+
+    // 16-bit PCM bytes the recording decodes to, as counted by the progress.
+    private static long pcmBytes(File audio) {
+        if (!SessionAudio.isLossless(audio)) return Math.max(0, audio.length() - WavFile.HEADER_SIZE);
+        try (RandomAccessFile raf = new RandomAccessFile(audio, "r")) {
+            LosslessFile.Info info = LosslessFile.readInfo(raf.getChannel());
+            return info != null ? info.sampleCount * 2 : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Analyzes one recording and replaces its sidecar; returns null if cancelled on the way.
+    SessionMetadata analyze(File wav) throws IOException {
+        String path = wav.getPath();
+        String base = path.substring(0, path.lastIndexOf('.'));
+        File sidecar = new File(base + SessionFile.EXTENSION);
+        File json = new File(base + SessionJson.EXTENSION);
+        int blockSize = previousBlockSize(sidecar, json);
+
+        SessionMetadata meta = new SessionMetadata();
+        LevelStatistics stats;
+        try (RandomAccessFile raf = new RandomAccessFile(wav, "r")) {
+            FileChannel channel = raf.getChannel();
+            WavFile.Info info = null;
+            LosslessFile.Info lossless = null;
+            final int sampleRate;
+            final long frames;
+            if (SessionAudio.isLossless(wav)) {
+                lossless = LosslessFile.readInfo(channel);
+                if (lossless == null) throw new IOException(wav.getName() + " is not a lossless recording");
+                sampleRate = lossless.sampleRate;
+                frames = lossless.sampleCount;
+            } else {
+                info = WavFile.readInfo(channel);
+                if (info == null) throw new IOException(wav.getName() + " is not a PCM WAV file");
+                if (info.channels != 1 || info.bitsPerSample != 16) {
+                    throw new IOException(wav.getName() + ": only 16 bit mono recordings can be analyzed");
+                }
+                sampleRate = info.sampleRate;
+                frames = info.getFrameCount();
+            }
+            final int blockCount = (int) ((frames + blockSize - 1) / blockSize);
+            final int chunkBlocks = (int) Math.max(1, config.chunkMs * sampleRate / 1000 / blockSize);
+            Blocks blocks = new Blocks(blockCount);
+
+            List<ChunkTask> chunks = new ArrayList<>();
+            for (int first = 0; first < blockCount; first += chunkBlocks) {
+                chunks.add(new ChunkTask(channel, info, lossless, sampleRate, frames, blockSize, first, Math.min(blockCount, first + chunkBlocks), blocks));
+            }
+            try {
+                ForkJoinTask.invokeAll(chunks);
+            } catch (CancellationException e) {
+                return null;
+            }
+            if (cancelled) return null;
+
+            // 顺序部分：与录音时 CaptureEngine 流水线（LevelMeter → SpectralAnalyzer → EventDetector）
+            // 末端的检测相同，之后的统计和波形与其 SegmentStage 相同
+            meta.sampleRate = sampleRate;
+            meta.samplesPerAmplitude = blockSize;
+            meta.aWeighted = config.aWeighted;
+            stats = new LevelStatistics(sampleRate);
+            EventDetector detector = new EventDetector(config.detector, new EventDetector.Listener() {
+                @Override
+                public void onEventOpened(AcousticEvent event) {
+                }
+
+                @Override
+                public void onEventClosed(AcousticEvent event) {
+                    meta.addEvent(event);
+                }
+            });
+            long samples = 0;
+            for (int i = 0; i < blockCount; i++) {
+                int read = (int) Math.min(blockSize, frames - samples);
+                stats.add(blocks.statsLevel[i], read);
+                long startMs = samples * 1000 / sampleRate;
+                samples += read;
+                detector.process(i, startMs, samples * 1000 / sampleRate, blocks.level[i],
+                        blocks.low[i], blocks.mid[i], blocks.high[i]);
+                meta.amplitudes.append(blocks.amplitude[i]);
+            }
+            detector.flush();
+        }
+        stats.finish();
+        meta.stats = stats.summarize();
+        meta.minuteStats = stats.getMinutes();
+        if (cancelled) return null;
+        SessionFile.write(sidecar, meta);
+        // the new sidecar supersedes a legacy JSON one
+        if (json.exists()) json.delete();
+        return meta;
+    }
+
+    private int previousBlockSize(File sidecar, File json) {
+        try {
+            if (sidecar.exists()) {
+                int size = SessionFile.open(sidecar).getSamplesPerAmplitude();
+                if (size > 0) return size;
+            } else if (json.exists()) {
+                int size = SessionJson.read(json, config.defaultSampleRate).samplesPerAmplitude;
+                if (size > 0) return size;
+            }
+        } catch (Exception | LinkageError ignored) {
+            // a damaged sidecar is about to be replaced anyway; without org.json on the
+            // classpath a legacy one cannot be read and the default block size is used
+        }
+        return config.defaultBlockSize;
+    }
+
+    // Buffers [firstBlock, endBlock) of one file; exactly one of info and lossless is set.
+    private final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final WavFile.Info info;
+        private final LosslessFile.Info lossless;
+        private final int sampleRate;
+        private final long frames;
+        private final int blockSize;
+        private final int firstBlock;
+        private final int endBlock;
+        private final Blocks out;
+
+        ChunkTask(FileChannel channel, WavFile.Info info, LosslessFile.Info lossless, int sampleRate, long frames,
+                  int blockSize, int firstBlock, int endBlock, Blocks out) {
+            this.channel = channel;
+            this.info = info;
+            this.lossless = lossless;
+            this.sampleRate = sampleRate;
+            this.frames = frames;
+            this.blockSize = blockSize;
+            this.firstBlock = firstBlock;
+            this.endBlock = endBlock;
+            this.out = out;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                analyzeChunk();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void analyzeChunk() throws IOException {
+            long start = (long) firstBlock * blockSize;
+            long end = Math.min(frames, (long) endBlock * blockSize);
+            // Start the warm-up on a hop boundary so FFT frames fall where a straight pass puts them.
+            long warmUp = Math.max(SpectralAnalyzer.FFT_SIZE, WARM_UP_MS * sampleRate / 1000);
+            long from = Math.max(0, (start - warmUp) / SpectralAnalyzer.HOP_SIZE * SpectralAnalyzer.HOP_SIZE);
+
+            BlockSource audio;
+            if (lossless != null) {
+                LosslessReader reader = new LosslessReader(channel, lossless);
+                reader.seek(from);
+                audio = reader;
+            } else {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, info.dataOffset + from * 2, (end - from) * 2);
+                final ShortBuffer pcm = map.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+                audio = (buffer, offset, length) -> {
+                    int n = Math.min(length, pcm.remaining());
+                    pcm.get(buffer, offset, n);
+                    return n;
+                };
+            }
+            // the warm-up stops at start, the chunk itself at end
+            final long[] limit = {start - from};
+            BlockSource source = (buffer, offset, length) -> {
+                int n = limit[0] > 0 ? audio.read(buffer, offset, (int) Math.min(length, limit[0])) : 0;
+                if (n > 0) limit[0] -= n;
+                return n;
+            };
+            Pipeline pipeline = new Pipeline(sampleRate, blockSize)
+                    .add(new LevelMeter(sampleRate, config.aWeighted))
+                    .add(new SpectralAnalyzer(sampleRate));
+
+            while (pipeline.pump(source) > 0) {
+                // warm-up only
+            }
+            limit[0] = end - start;
+            for (int i = firstBlock; i < endBlock; i++) {
+                if (cancelled) throw new CancellationException();
+                pipeline.pump(source);
+                AudioBlock block = pipeline.getBlock();
+                out.amplitude[i] = block.amplitude;
+                out.level[i] = block.level;
+                out.statsLevel[i] = block.statsLevel;
+                out.low[i] = block.lowEnergy;
+                out.mid[i] = block.midEnergy;
+                out.high[i] = block.highEnergy;
+            }
+            bytesDone.addAndGet((end - start) * 2);
+            listener.onProgress(filesDone.get(), fileCount, bytesDone.get(), totalBytes);
+        }
+    }
+
+    // Command line use on a workstation, built by the :tools module (tools/build.gradle):
+    //   ./gradlew :tools:run --args='[options] <dir or recording>...'
+    // Options: --open-db, --close-db, --attack-ms, --min-duration-ms, --merge-gap-ms,
+    // --a-weighting, --threads.
+    public static void main(String[] args) {
+        Config config = new Config();
+        List<File> wavs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--open-db": config.detector.openDb = Float.parseFloat(args[++i]); break;
+                case "--close-db": config.detector.closeDb = Float.parseFloat(args[++i]); break;
+                case "--attack-ms": config.detector.attackMs = Long.parseLong(args[++i]); break;
+                case "--min-duration-ms": config.detector.minDurationMs = Long.parseLong(args[++i]); break;
+                case "--merge-gap-ms": config.detector.mergeGapMs = Long.parseLong(args[++i]); break;
+                case "--a-weighting": config.aWeighted = true; break;
+                case "--threads": config.parallelism = Integer.parseInt(args[++i]); break;
+                default:
+                    File f = new File(arg);
+                    File[] found = f.isDirectory() ? f.listFiles((d, name) -> SessionAudio.isSession(name)) : new File[]{f};
+                    if (found != null) {
+                        Arrays.sort(found);
+                        wavs.addAll(Arrays.asList(found));
+                    }
+            }
+        }
+        if (wavs.isEmpty()) {
+            System.err.println("usage: SessionReanalyzer [--open-db dB] [--close-db dB] [--attack-ms ms] [--min-duration-ms ms]"
+                    + " [--merge-gap-ms ms] [--a-weighting] [--threads n] <dir or recording>...");
+            System.exit(2);
+        }
+
+        SessionReanalyzer reanalyzer = new SessionReanalyzer(config, new Listener() {
+            private int lastPercent = -1;
+
+            @Override
+            public void onFileAnalyzed(File wav, SessionMetadata meta) {
+                System.out.println(wav.getName() + ": " + meta.markerCount + " events, " + meta.stats.format(meta.aWeighted));
+            }
+
+            @Override
+            public void onFileFailed(File wav, Exception error) {
+                System.err.println(wav.getName() + ": " + error);
+            }
+
+            @Override
+            public synchronized void onProgress(int filesDone, int fileCount, long bytesDone, long totalBytes) {
+                int percent = totalBytes > 0 ? (int) (bytesDone * 100 / totalBytes) : 100;
+                if (percent == lastPercent) return;
+                lastPercent = percent;
+                System.err.printf(Locale.US, "\r%d%% (%d/%d files)", percent, filesDone, fileCount);
+            }
+        });
+        Result result = reanalyzer.run(wavs);
+        System.err.printf(Locale.US, "%n%d analyzed, %d failed in %.1f s on %d threads%n",
+                result.analyzed, result.failed, result.elapsedMs / 1000.0, config.parallelism);
+        System.exit(result.failed > 0 ? 1 : 0);
+    }
+}
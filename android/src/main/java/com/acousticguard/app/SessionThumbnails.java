@@ -0,0 +1,165 @@
+package com.acousticguard.app;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.acousticguard.dsp.PeakPyramid;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Mini waveforms for the history list. A thumbnail is drawn from the coarsest peak level
+// stored in the session's sidecar that still has an entry per column, a few KB read through
+// the mapping, never the amplitude track or the JSON. Thumbnails are kept in memory and as
+// small PNGs in the cache directory, which is trimmed to DISK_BYTES, least recently used
+// first. A PNG older than its sidecar is redrawn. Main thread only.
+public class SessionThumbnails {
+
+    private static final String TAG = "SessionThumbnails";
+    // 3:1 like the history row's ImageView, which scales it to fit
+    public static final int WIDTH_PX = 240;
+    public static final int HEIGHT_PX = 80;
+    private static final float COLUMN_PX = 2f;
+    private static final int MEMORY_BYTES = 4 * 1024 * 1024;
+    private static final long DISK_BYTES = 2 * 1024 * 1024;
+
+    private final File sessionDir;
+    private final File thumbDir;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "thumbnails"));
+    private final LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>(MEMORY_BYTES) {
+        @Override
+        protected int sizeOf(String baseName, Bitmap thumbnail) {
+            return thumbnail.getByteCount();
+        }
+    };
+    // Sessions being loaded, with the view that asked last.
+    private final Map<String, ImageView> pending = new HashMap<>();
+    // Only used on the worker thread.
+    private final Paint outerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint corePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    public SessionThumbnails(File sessionDir, File cacheDir) {
+        this.sessionDir = sessionDir;
+        this.thumbDir = new File(cacheDir, "thumbs");
+        outerPaint.setColor(Color.parseColor("#3B82F6"));
+        outerPaint.setStrokeWidth(COLUMN_PX);
+        corePaint.setColor(Color.parseColor("#93C5FD"));
+        corePaint.setStrokeWidth(COLUMN_PX);
+    }
+
+    // Shows the session's thumbnail in view, now if it is in memory, otherwise once it is
+    // loaded or drawn; the view is left empty meanwhile and when the session has no sidecar.
+    // Rows are recycled, so the view's tag records which session it currently wants.
+    public void bind(ImageView view, String baseName) {
+        view.setTag(baseName);
+        Bitmap cached = cache.get(baseName);
+        view.setImageBitmap(cached);
+        if (cached != null || pending.put(baseName, view) != null) return;
+        executor.execute(() -> {
+            Bitmap thumbnail = null;
+            try {
+                thumbnail = load(baseName);
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "No thumbnail for " + baseName, e);
+            }
+            Bitmap result = thumbnail;
+            mainHandler.post(() -> {
+                ImageView target = pending.remove(baseName);
+                if (result == null) return;
+                cache.put(baseName, result);
+                if (target != null && baseName.equals(target.getTag())) target.setImageBitmap(result);
+            });
+        });
+    }
+
+    // Main thread; e.g. after the session's sidecar was rewritten.
+    public void invalidate(String baseName) {
+        cache.remove(baseName);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        cache.evictAll();
+    }
+
+    private Bitmap load(String baseName) throws IOException {
+        File sidecar = new File(sessionDir, baseName + SessionFile.EXTENSION);
+        if (!sidecar.exists()) return null;
+        File png = new File(thumbDir, baseName + ".png");
+        if (png.lastModified() >= sidecar.lastModified()) {
+            Bitmap decoded = BitmapFactory.decodeFile(png.getPath());
+            if (decoded != null) {
+                png.setLastModified(System.currentTimeMillis());
+                return decoded;
+            }
+        }
+        Bitmap thumbnail = draw(SessionFile.open(sidecar));
+        if (thumbnail != null) save(thumbnail, png);
+        return thumbnail;
+    }
+
+    private Bitmap draw(SessionFile file) {
+        int total = file.getAmplitudeCount();
+        if (total == 0) return null;
+        int columns = (int) (WIDTH_PX / COLUMN_PX);
+        PeakPyramid peaks = null;
+        for (int i = file.getStoredLevelCount() - 1; i >= 0 && peaks == null; i--) {
+            FloatBuffer min = file.getLevelMin(i);
+            if (min.remaining() < columns) continue;
+            peaks = PeakPyramid.fromLevel(total, file.getFirstStoredLevel() + i, min, file.getLevelMax(i));
+        }
+        if (peaks == null) {
+            // shorter than the first stored level times the columns: the track itself is tiny
+            float[] amps = new float[total];
+            file.getAmplitudes().get(amps);
+            peaks = PeakPyramid.build(amps, total);
+        }
+        Bitmap thumbnail = Bitmap.createBitmap(WIDTH_PX, HEIGHT_PX, Bitmap.Config.ARGB_8888);
+        WaveformTiles.render(new Canvas(thumbnail), peaks, 0, total / (float) WIDTH_PX,
+                WIDTH_PX, HEIGHT_PX, COLUMN_PX, outerPaint, corePaint);
+        return thumbnail;
+    }
+
+    private void save(Bitmap thumbnail, File png) {
+        if (!thumbDir.isDirectory() && !thumbDir.mkdirs()) return;
+        try (OutputStream out = new FileOutputStream(png)) {
+            thumbnail.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache " + png.getName(), e);
+            png.delete();
+            return;
+        }
+        trimDisk();
+    }
+
+    // Deletes the least recently used PNGs until the rest fit in DISK_BYTES.
+    private void trimDisk() {
+        File[] files = thumbDir.listFiles();
+        if (files == null) return;
+        long size = 0;
+        for (File f : files) size += f.length();
+        if (size <= DISK_BYTES) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int i = 0; i < files.length && size > DISK_BYTES; i++) {
+            size -= files[i].length();
+            files[i].delete();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.acousticguard.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import com.acousticguard.dsp.PeakPyramid;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Rasterized waveform of a recorded session, in TILE_PX wide bitmaps of the view's height.
+// Tiles exist per power-of-two zoom: at zoom z every tile pixel covers 2^z samples, and a view
+// showing s samples per pixel is drawn from zoom floor(log2 s), scaled down by at most half.
+// Tiles are rendered on a background thread and kept in an LRU cache bounded in bytes, so
+// panning, playback and most of a pinch only blit bitmaps. Main thread only, except render().
+public class WaveformTiles {
+
+    public static final int TILE_PX = 256;
+    // Neighbouring tiles rendered ahead on each side of the visible range, for panning.
+    private static final int PREFETCH_TILES = 1;
+    private static final int MAX_CACHE_BYTES = 32 * 1024 * 1024;
+
+    public interface Listener {
+        // A requested tile was rendered; the view should redraw.
+        void onTileReady();
+    }
+
+    private final Listener listener;
+    private final Paint outerPaint;
+    private final Paint corePaint;
+    private final float columnPx;
+    private final Paint blitPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF dst = new RectF();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private ExecutorService executor;
+    private final LruCache<Long, Bitmap> cache;
+    private final Set<Long> pending = new HashSet<>();
+    // Visible tiles of the current frame, reused.
+    private Bitmap[] visible = new Bitmap[8];
+
+    private PeakPyramid peaks;
+    private int height;
+    // Bumped whenever the source or size changes; renders of an older generation are dropped.
+    private volatile int generation;
+    // Zoom of the last frame; queued renders for other zooms are skipped, e.g. mid-pinch.
+    private volatile int wantedZoom;
+
+    public WaveformTiles(Paint outerPaint, Paint corePaint, float columnPx, Listener listener) {
+        // own copies: the render thread draws with them while the view may draw with the originals
+        this.outerPaint = new Paint(outerPaint);
+        this.corePaint = new Paint(corePaint);
+        this.columnPx = columnPx;
+        this.listener = listener;
+        int budget = (int) Math.min(MAX_CACHE_BYTES, Runtime.getRuntime().maxMemory() / 8);
+        cache = new LruCache<Long, Bitmap>(budget) {
+            @Override
+            protected int sizeOf(Long key, Bitmap tile) {
+                return tile.getByteCount();
+            }
+        };
+    }
+
+    // The session pyramid must not change while it is shown; a new one invalidates all tiles.
+    public void setSource(PeakPyramid sessionPeaks) {
+        if (sessionPeaks == peaks) return;
+        peaks = sessionPeaks;
+        reset();
+    }
+
+    public void setHeight(int viewHeight) {
+        if (viewHeight == height) return;
+        height = viewHeight;
+        reset();
+    }
+
+    private void reset() {
+        generation++;
+        pending.clear();
+        cache.evictAll();
+    }
+
+    // Blits the visible range [viewStart, viewStart + viewSpan) samples onto width pixels.
+    // Returns false without drawing if a visible tile is not rendered yet; it is requested,
+    // and the caller draws this frame some other way.
+    public boolean draw(Canvas canvas, float viewStart, float viewSpan, int width) {
+        if (peaks == null || height <= 0 || width <= 0) return false;
+        float samplesPerPixel = viewSpan / width;
+        int zoom = zoomFor(samplesPerPixel);
+        wantedZoom = zoom;
+        float tileSamples = TILE_PX * Math.scalb(1f, zoom);
+        int lastTile = (int) ((peaks.size() - 1) / tileSamples);
+        int first = Math.min((int) (viewStart / tileSamples), lastTile);
+        int last = Math.max(first, Math.min((int) Math.ceil((viewStart + viewSpan) / tileSamples) - 1, lastTile));
+        int count = last - first + 1;
+        if (visible.length < count) visible = new Bitmap[count];
+
+        boolean complete = true;
+        for (int i = 0; i < count; i++) {
+            Bitmap tile = cache.get(key(zoom, first + i));
+            visible[i] = tile;
+            if (tile == null) {
+                request(zoom, first + i);
+                complete = false;
+            }
+        }
+        for (int p = 1; p <= PREFETCH_TILES; p++) {
+            if (first - p >= 0) request(zoom, first - p);
+            if (last + p <= lastTile) request(zoom, last + p);
+        }
+        if (!complete) return false;
+
+        float tileWidth = tileSamples / samplesPerPixel;
+        for (int i = 0; i < count; i++) {
+            float left = ((first + i) * tileSamples - viewStart) / samplesPerPixel;
+            dst.set(left, 0, left + tileWidth, height);
+            canvas.drawBitmap(visible[i], null, dst, blitPaint);
+            visible[i] = null;
+        }
+        return true;
+    }
+
+    // Drops every tile and stops the render thread; the next draw starts over.
+    public void release() {
+        reset();
+        if (executor != null) executor.shutdownNow();
+        executor = null;
+    }
+
+    private static int zoomFor(float samplesPerPixel) {
+        return Math.getExponent(Math.max(samplesPerPixel, Float.MIN_NORMAL));
+    }
+
+    private static long key(int zoom, int index) {
+        return ((long) (zoom + 256) << 32) | index;
+    }
+
+    private void request(int zoom, int index) {
+        long key = key(zoom, index);
+        if (pending.contains(key) || cache.get(key) != null) return;
+        pending.add(key);
+        final int gen = generation;
+        final PeakPyramid source = peaks;
+        final int h = height;
+        if (executor == null) executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "waveform-tiles"));
+        executor.execute(() -> {
+            if (gen != generation || zoom != wantedZoom) {
+                mainHandler.post(() -> { if (gen == generation) pending.remove(key); });
+                return;
+            }
+            Bitmap tile = Bitmap.createBitmap(TILE_PX, h, Bitmap.Config.ARGB_8888);
+            float samplesPerPixel = Math.scalb(1f, zoom);
+            render(new Canvas(tile), source, index * TILE_PX * samplesPerPixel, samplesPerPixel,
+                    TILE_PX, h, columnPx, outerPaint, corePaint);
+            mainHandler.post(() -> {
+                if (gen != generation) return;
+                pending.remove(key);
+                cache.put(key, tile);
+                listener.onTileReady();
+            });
+        });
+    }
+
+    // Min/max columns of the samples from start onwards, one every columnPx pixels across width
+    // pixels: the outer stroke spans the maximum, the core (levels above the samples only) the
+    // minimum. Shared with the history thumbnails; safe on any thread with paints of its own.
+    static void render(Canvas canvas, PeakPyramid peaks, float start, float samplesPerPixel,
+                       int width, int height, float columnPx, Paint outer, Paint core) {
+        int columns = (int) Math.ceil(width / columnPx);
+        float[] min = new float[columns];
+        float[] max = new float[columns];
+        float samplesPerColumn = samplesPerPixel * columnPx;
+        int level = peaks.levelFor(samplesPerColumn);
+        columns = peaks.decimate(level, start, samplesPerColumn, columns, min, max);
+
+        float centerY = height / 2f;
+        float scale = centerY * 0.8f;
+        float[] outerPoints = new float[columns * 4];
+        float[] corePoints = new float[columns * 4];
+        int k = 0;
+        for (int c = 0; c < columns; c++) {
+            float x = c * columnPx;
+            outerPoints[k] = x;
+            outerPoints[k + 1] = centerY - max[c] * scale;
+            outerPoints[k + 2] = x;
+            outerPoints[k + 3] = centerY + max[c] * scale;
+            corePoints[k] = x;
+            corePoints[k + 1] = centerY - min[c] * scale;
+            corePoints[k + 2] = x;
+            corePoints[k + 3] = centerY + min[c] * scale;
+            k += 4;
+        }
+        canvas.drawLines(outerPoints, 0, k, outer);
+        if (level > 0) canvas.drawLines(corePoints, 0, k, core);
+    }
+}
@@ -6,18 +6,62 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
-import java.util.ArrayList;
+
+import com.acousticguard.dsp.PeakPyramid;
+
 import java.util.List;
 
 public class WaveformView extends View {
+    // Keep window of last 1000 samples for live view
+    private static final int LIVE_WINDOW = 1000;
+    private static final int LIVE_MARKERS = 256;
+    // Session view: one min/max column every COLUMN_PX pixels, zoomed in to at most
+    // MIN_VISIBLE_SAMPLES samples across the view.
+    private static final float COLUMN_PX = 2f;
+    private static final float MIN_VISIBLE_SAMPLES = 32f;
+
     private Paint linePaint;
+    private Paint corePaint;
     private Paint markerPaint;
     private Paint cursorPaint;
-    private List<Float> amplitudes = new ArrayList<>();
-    private List<Marker> markers = new ArrayList<>();
+
+    // Live mode: amplitudes as a primitive ring wrapping at LIVE_WINDOW. ampBase is the
+    // absolute index of the oldest sample still in the window.
+    private float[] amps = new float[LIVE_WINDOW];
+    private int ampHead = 0;
+    private int ampCount = 0;
+    private long ampBase = 0;
+
+    // Session mode: the whole recording as a peak pyramid plus the visible sample range.
+    private PeakPyramid peaks;
+    private float viewStart = 0f;
+    private float viewSpan = 0f;
+    // Recorded sessions never change, so they are drawn from cached bitmap tiles; the lines
+    // below are only drawn while the visible tiles are still being rendered.
+    private WaveformTiles tiles;
+
+    // Markers in the same layout, as parallel primitive rings (head stays 0 for a session).
+    private long[] markerIndex = new long[LIVE_MARKERS];
+    private int[] markerDb = new int[LIVE_MARKERS];
+    private long[] markerTs = new long[LIVE_MARKERS];
+    private int markerHead = 0;
+    private int markerCount = 0;
+
+    // Reused drawLines point buffers (4 floats per line), sized for the live window or the
+    // number of pixel columns, never per frame.
+    private float[] ampPoints = new float[LIVE_WINDOW * 4];
+    private float[] corePoints = new float[0];
+    private float[] columnMin = new float[0];
+    private float[] columnMax = new float[0];
+    private float[] markerPoints = new float[LIVE_MARKERS * 4];
+
     private float progress = 0f;
     private OnSeekListener seekListener;
+    private ScaleGestureDetector scaleDetector;
+    private boolean scaling = false;
+    private float lastFocusX;
 
     public static class Marker {
         public int index;
@@ -46,6 +90,10 @@ public class WaveformView extends View {
         linePaint.setStrokeWidth(4f);
         linePaint.setStrokeCap(Paint.Cap.ROUND);
 
+        corePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        corePaint.setColor(Color.parseColor("#93C5FD"));
+        corePaint.setStrokeWidth(COLUMN_PX);
+
         markerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         markerPaint.setColor(Color.parseColor("#EF4444"));
         markerPaint.setStrokeWidth(6f);
@@ -53,30 +101,94 @@ public class WaveformView extends View {
         cursorPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         cursorPaint.setColor(Color.WHITE);
         cursorPaint.setStrokeWidth(4f);
+
+        tiles = new WaveformTiles(linePaint, corePaint, COLUMN_PX, this::invalidate);
+
+        scaleDetector = new ScaleGestureDetector(getContext(), new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScaleBegin(ScaleGestureDetector detector) {
+                if (peaks == null) return false;
+                scaling = true;
+                lastFocusX = detector.getFocusX();
+                return true;
+            }
+
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomAndPan(detector.getScaleFactor(), detector.getFocusX());
+                return true;
+            }
+        });
     }
 
     public void clear() {
-        amplitudes.clear();
-        markers.clear();
+        peaks = null;
+        tiles.setSource(null);
+        if (markerIndex.length != LIVE_MARKERS) {
+            markerIndex = new long[LIVE_MARKERS];
+            markerDb = new int[LIVE_MARKERS];
+            markerTs = new long[LIVE_MARKERS];
+        }
+        ampHead = 0;
+        ampCount = 0;
+        ampBase = 0;
+        markerHead = 0;
+        markerCount = 0;
         progress = 0f;
         invalidate();
     }
 
-    public void setSessionData(List<Float> amps, List<Marker> marks) {
-        this.amplitudes = new ArrayList<>(amps);
-        this.markers = new ArrayList<>(marks);
+    // Shows a whole recorded session, fully zoomed out.
+    public void setSessionData(PeakPyramid sessionPeaks, List<Marker> marks) {
+        peaks = sessionPeaks;
+        tiles.setSource(sessionPeaks);
+        viewStart = 0f;
+        viewSpan = Math.max(1, sessionPeaks.size());
+
+        int m = marks.size();
+        markerIndex = new long[Math.max(m, 1)];
+        markerDb = new int[Math.max(m, 1)];
+        markerTs = new long[Math.max(m, 1)];
+        for (int i = 0; i < m; i++) {
+            Marker mark = marks.get(i);
+            markerIndex[i] = mark.index;
+            markerDb[i] = mark.db;
+            markerTs[i] = mark.timestamp;
+        }
+        markerHead = 0;
+        markerCount = m;
+        if (markerPoints.length < m * 4) markerPoints = new float[m * 4];
         invalidate();
     }
 
     public void addAmplitude(float amp) {
-        amplitudes.add(amp);
-        // Keep window of last 1000 samples for live view
-        if (amplitudes.size() > 1000) amplitudes.remove(0);
+        int capacity = amps.length;
+        if (ampCount < capacity) {
+            amps[(ampHead + ampCount) % capacity] = amp;
+            ampCount++;
+        } else {
+            // ring is full: overwrite the oldest sample
+            amps[ampHead] = amp;
+            ampHead = (ampHead + 1) % capacity;
+            ampBase++;
+        }
         invalidate();
     }
 
-    public void addMarker(int db, long timestamp) {
-        markers.add(new Marker(amplitudes.size() - 1, db, timestamp));
+    // index is the absolute amplitude index the marker belongs to.
+    public void addMarker(long index, int db, long timestamp) {
+        int capacity = markerIndex.length;
+        int slot;
+        if (markerCount < capacity) {
+            slot = (markerHead + markerCount) % capacity;
+            markerCount++;
+        } else {
+            slot = markerHead;
+            markerHead = (markerHead + 1) % capacity;
+        }
+        markerIndex[slot] = index;
+        markerDb[slot] = db;
+        markerTs[slot] = timestamp;
         invalidate();
     }
 
@@ -89,43 +201,160 @@ public class WaveformView extends View {
         this.seekListener = listener;
     }
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        int columns = (int) Math.ceil(w / COLUMN_PX) + 1;
+        if (ampPoints.length < columns * 4) ampPoints = new float[columns * 4];
+        corePoints = new float[columns * 4];
+        columnMin = new float[columns];
+        columnMax = new float[columns];
+        tiles.setHeight(h);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        tiles.release();
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
+        long start = System.nanoTime();
         super.onDraw(canvas);
-        if (amplitudes.isEmpty()) return;
+        if (peaks != null) {
+            drawSession(canvas);
+        } else {
+            drawLive(canvas);
+        }
+        Diagnostics.DRAW_US.record((System.nanoTime() - start) / 1000);
+    }
+
+    private void drawLive(Canvas canvas) {
+        if (ampCount == 0) return;
 
         float width = getWidth();
         float height = getHeight();
         float centerY = height / 2;
-        float step = width / (float) amplitudes.size();
+        float step = width / (float) ampCount;
 
-        // Draw Amplitudes
-        for (int i = 0; i < amplitudes.size(); i++) {
+        // Draw Amplitudes: fill the reused point buffer, then one drawLines call
+        int capacity = amps.length;
+        float[] pts = ampPoints;
+        int k = 0;
+        for (int i = 0; i < ampCount; i++) {
             float x = i * step;
-            float val = amplitudes.get(i) * centerY * 0.8f; // scale down slightly
-            canvas.drawLine(x, centerY - val, x, centerY + val, linePaint);
+            float val = amps[(ampHead + i) % capacity] * centerY * 0.8f; // scale down slightly
+            pts[k++] = x;
+            pts[k++] = centerY - val;
+            pts[k++] = x;
+            pts[k++] = centerY + val;
         }
+        canvas.drawLines(pts, 0, k, linePaint);
 
-        // Draw Markers (Nodes)
-        for (Marker m : markers) {
-            float x = m.index * step;
-            canvas.drawLine(x, 0, x, height, markerPaint);
-            // Optional: draw dB text
-            // canvas.drawText(m.db + "dB", x + 5, 30, markerPaint);
-        }
+        drawMarkers(canvas, ampBase, step);
 
         // Draw Playback Cursor
         float cursorX = progress * width;
         canvas.drawLine(cursorX, 0, cursorX, height, cursorPaint);
     }
 
+    private void drawSession(Canvas canvas) {
+        int total = peaks.size();
+        if (total == 0) return;
+
+        float width = getWidth();
+        float height = getHeight();
+        if (!tiles.draw(canvas, viewStart, viewSpan, getWidth())) drawSessionLines(canvas);
+
+        drawMarkers(canvas, viewStart, width / viewSpan);
+
+        // Draw Playback Cursor
+        float cursorX = (progress * total - viewStart) / viewSpan * width;
+        if (cursorX >= 0 && cursorX <= width) canvas.drawLine(cursorX, 0, cursorX, height, cursorPaint);
+    }
+
+    // Draw cost depends on the view width only: each pixel column reads the one or two pyramid
+    // entries of the level whose resolution matches the current zoom.
+    private void drawSessionLines(Canvas canvas) {
+        float width = getWidth();
+        float height = getHeight();
+        float centerY = height / 2;
+        float scale = centerY * 0.8f; // scale down slightly
+        int columns = Math.min((int) Math.ceil(width / COLUMN_PX) + 1, corePoints.length / 4);
+        float samplesPerColumn = viewSpan * COLUMN_PX / width;
+        int level = peaks.levelFor(samplesPerColumn);
+        columns = peaks.decimate(level, viewStart, samplesPerColumn, columns, columnMin, columnMax);
+
+        float[] outer = ampPoints;
+        float[] inner = corePoints;
+        int k = 0;
+        for (int c = 0; c < columns; c++) {
+            float min = columnMin[c];
+            float max = columnMax[c];
+            float x = c * COLUMN_PX;
+            outer[k] = x;
+            outer[k + 1] = centerY - max * scale;
+            outer[k + 2] = x;
+            outer[k + 3] = centerY + max * scale;
+            inner[k] = x;
+            inner[k + 1] = centerY - min * scale;
+            inner[k + 2] = x;
+            inner[k + 3] = centerY + min * scale;
+            k += 4;
+        }
+        canvas.drawLines(outer, 0, k, linePaint);
+        if (level > 0) canvas.drawLines(inner, 0, k, corePaint);
+    }
+
+    // Draw Markers (Nodes), skipping those outside the visible range
+    private void drawMarkers(Canvas canvas, float firstIndex, float step) {
+        float width = getWidth();
+        float height = getHeight();
+        int markerCapacity = markerIndex.length;
+        float[] pts = markerPoints;
+        int k = 0;
+        for (int i = 0; i < markerCount; i++) {
+            float x = (markerIndex[(markerHead + i) % markerCapacity] - firstIndex) * step;
+            if (x < 0 || x > width) continue;
+            pts[k++] = x;
+            pts[k++] = 0;
+            pts[k++] = x;
+            pts[k++] = height;
+        }
+        if (k > 0) canvas.drawLines(pts, 0, k, markerPaint);
+    }
+
+    // Pinch zooms around the gesture focus; moving the focus pans the visible range.
+    private void zoomAndPan(float scaleFactor, float focusX) {
+        int total = peaks.size();
+        if (total == 0 || getWidth() == 0) return;
+        float width = getWidth();
+        float focusSample = viewStart + lastFocusX / width * viewSpan;
+        float minSpan = Math.min(MIN_VISIBLE_SAMPLES, total);
+        float span = Math.max(minSpan, Math.min(total, viewSpan / scaleFactor));
+        float start = focusSample - focusX / width * span;
+        viewSpan = span;
+        viewStart = Math.max(0, Math.min(total - span, start));
+        lastFocusX = focusX;
+        invalidate();
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        if (event.getAction() == MotionEvent.ACTION_DOWN || event.getAction() == MotionEvent.ACTION_MOVE) {
-            float p = event.getX() / getWidth();
+        scaleDetector.onTouchEvent(event);
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN) scaling = false;
+        if (scaling || event.getPointerCount() > 1) return true;
+
+        if (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_MOVE) {
+            float x = Math.max(0, Math.min(1, event.getX() / getWidth()));
+            // map the touch through the visible range so seeking stays exact at any zoom
+            float p = x;
+            if (peaks != null && peaks.size() > 0) p = (viewStart + x * viewSpan) / peaks.size();
             if (seekListener != null) seekListener.onSeek(Math.max(0, Math.min(1, p)));
             return true;
         }
         return super.onTouchEvent(event);
     }
-}
\ No newline at end of file
+}
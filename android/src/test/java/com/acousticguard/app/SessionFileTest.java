@@ -0,0 +1,194 @@
+package com.acousticguard.app;
+
+import com.acousticguard.dsp.LevelSummary;
+import com.acousticguard.dsp.PeakPyramid;
+import com.acousticguard.dsp.SoundType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// The .agm sidecar and the legacy JSON conversion on a plain JVM. Every value read back must
+// be bit-identical to what was written.
+public class SessionFileTest {
+
+    // An hour of 1024-sample buffers at 44.1 kHz.
+    private static final int HOUR_OF_AMPLITUDES = 44100 * 3600 / 1024;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void roundTripsEverySection() throws Exception {
+        SessionMetadata meta = session(5000, 40, new Random(1));
+        File file = tmp.newFile("REC_1" + SessionFile.EXTENSION);
+        SessionFile.write(file, meta);
+
+        SessionFile read = SessionFile.open(file);
+        assertEquals(SessionFile.VERSION, read.getVersion());
+        assertEquals(meta.sampleRate, read.getSampleRate());
+        assertEquals(meta.samplesPerAmplitude, read.getSamplesPerAmplitude());
+        assertAmplitudes(meta.amplitudes, read.getAmplitudes());
+        assertMarkers(meta, read);
+
+        // stored peak levels are exactly the pyramid's levels from the first stored one up
+        PeakPyramid peaks = meta.amplitudes;
+        int first = read.getFirstStoredLevel();
+        assertEquals(peaks.getLevelCount() - first, read.getStoredLevelCount());
+        for (int i = 0; i < read.getStoredLevelCount(); i++) {
+            FloatBuffer min = read.getLevelMin(i);
+            FloatBuffer max = read.getLevelMax(i);
+            assertEquals(peaks.getLevelSize(first + i), min.remaining());
+            assertEquals(peaks.getLevelSize(first + i), max.remaining());
+            for (int j = 0; j < min.remaining(); j++) {
+                assertBits(peaks.getMin(first + i, j), min.get(j));
+                assertBits(peaks.getMax(first + i, j), max.get(j));
+            }
+        }
+
+        SessionMetadata back = read.toMetadata();
+        assertTrue(back.aWeighted);
+        assertSummary(meta.stats, back.stats);
+        assertEquals(meta.minuteStats.size(), back.minuteStats.size());
+        for (int i = 0; i < meta.minuteStats.size(); i++) assertSummary(meta.minuteStats.get(i), back.minuteStats.get(i));
+        assertEquals(meta.markerCount, back.markerCount);
+        for (int i = 0; i < meta.markerCount; i++) {
+            assertEquals(meta.markerType[i], back.markerType[i]);
+            assertBits(meta.markerEnergy[i], back.markerEnergy[i]);
+        }
+    }
+
+    @Test
+    public void sessionWithoutStatisticsHasNone() throws Exception {
+        SessionMetadata meta = session(10, 0, new Random(2));
+        meta.stats = null;
+        meta.minuteStats.clear();
+        File file = tmp.newFile("REC_2" + SessionFile.EXTENSION);
+        SessionFile.write(file, meta);
+
+        SessionMetadata back = SessionFile.open(file).toMetadata();
+        assertNull(back.stats);
+        assertFalse(back.aWeighted);
+        assertEquals(0, back.markerCount);
+        assertEquals(10, back.amplitudes.size());
+    }
+
+    @Test
+    public void convertsLegacyJson() throws Exception {
+        SessionMetadata legacy = new SessionMetadata();
+        Random random = new Random(3);
+        float[] amps = new float[3000];
+        for (int i = 0; i < amps.length; i++) amps[i] = random.nextFloat();
+        legacy.amplitudes = PeakPyramid.build(amps, amps.length);
+        for (int i = 0; i < 25; i++) legacy.addMarker(i * 100, 50 + i, 1_700_000_000_000L + i * 2500L);
+        File json = tmp.newFile("REC_3" + SessionJson.EXTENSION);
+        SessionJson.write(json, legacy);
+
+        SessionMetadata parsed = SessionJson.read(json, 44100);
+        File agm = tmp.newFile("REC_3" + SessionFile.EXTENSION);
+        SessionFile.write(agm, parsed);
+        SessionFile converted = SessionFile.open(agm);
+
+        assertEquals(44100, converted.getSampleRate());
+        assertEquals(0, converted.getSamplesPerAmplitude());
+        assertAmplitudes(legacy.amplitudes, converted.getAmplitudes());
+        assertMarkers(legacy, converted);
+        // point markers: they end where they start, unclassified, without energy
+        for (int i = 0; i < legacy.markerCount; i++) {
+            assertEquals(legacy.markerIndex[i], converted.getMarkerEndIndex(i));
+            assertEquals(legacy.markerTimestamp[i], converted.getMarkerEndTimestamp(i));
+            assertEquals(SoundType.ENVIRONMENT.ordinal(), converted.getMarkerType(i));
+            assertBits(0f, converted.getMarkerEnergy(i));
+        }
+        assertNull(converted.toMetadata().stats);
+    }
+
+    // An hour-long session in both formats: both read back whole, and the sidecar is less than
+    // half the size of the JSON. Parse times are measured by MetadataBenchmark.
+    @Test
+    public void binaryIsLessThanHalfTheJsonSize() throws Exception {
+        SessionMetadata meta = session(HOUR_OF_AMPLITUDES, 200, new Random(4));
+        File json = tmp.newFile("REC_4" + SessionJson.EXTENSION);
+        File agm = tmp.newFile("REC_4" + SessionFile.EXTENSION);
+        SessionJson.write(json, meta);
+        SessionFile.write(agm, meta);
+
+        assertEquals(meta.amplitudes.size(), SessionJson.read(json, meta.sampleRate).amplitudes.size());
+        assertEquals(meta.amplitudes.size(), SessionFile.open(agm).toMetadata().amplitudes.size());
+        // float32 amplitudes plus stored peaks against decimal text
+        assertTrue(agm.length() + " vs " + json.length(), agm.length() * 2 < json.length());
+    }
+
+    private static SessionMetadata session(int amplitudeCount, int markers, Random random) {
+        SessionMetadata meta = new SessionMetadata();
+        meta.sampleRate = 44100;
+        meta.samplesPerAmplitude = 1024;
+        float[] amps = new float[amplitudeCount];
+        for (int i = 0; i < amps.length; i++) amps[i] = random.nextFloat() * random.nextFloat();
+        meta.amplitudes = PeakPyramid.build(amps, amps.length);
+        for (int i = 0; i < markers; i++) {
+            int index = random.nextInt(amplitudeCount);
+            long ts = index * 1024L * 1000 / meta.sampleRate;
+            meta.addMarker(index, 50 + random.nextInt(50), ts, index + random.nextInt(20), ts + random.nextInt(5000),
+                    random.nextFloat() * 1e6f, random.nextInt(SoundType.values().length), random.nextFloat());
+        }
+        meta.aWeighted = true;
+        meta.stats = summary(3_600_000, random);
+        for (int i = 0; i < 60; i++) meta.minuteStats.add(summary(60_000, random));
+        return meta;
+    }
+
+    private static LevelSummary summary(long durationMs, Random random) {
+        LevelSummary s = new LevelSummary();
+        s.durationMs = durationMs;
+        s.leq = 40 + random.nextFloat() * 40;
+        s.lmax = s.leq + random.nextFloat() * 20;
+        s.lmin = s.leq - random.nextFloat() * 20;
+        s.l10 = s.leq + random.nextFloat() * 5;
+        s.l50 = s.leq - random.nextFloat() * 2;
+        s.l90 = s.lmin + random.nextFloat() * 3;
+        return s;
+    }
+
+    private static void assertAmplitudes(PeakPyramid expected, FloatBuffer actual) {
+        assertEquals(expected.size(), actual.remaining());
+        for (int i = 0; i < expected.size(); i++) assertBits(expected.get(i), actual.get(i));
+    }
+
+    private static void assertMarkers(SessionMetadata expected, SessionFile actual) {
+        assertEquals(expected.markerCount, actual.getMarkerCount());
+        for (int i = 0; i < expected.markerCount; i++) {
+            assertEquals(expected.markerIndex[i], actual.getMarkerIndex(i));
+            assertEquals(expected.markerDb[i], actual.getMarkerDb(i));
+            assertEquals(expected.markerTimestamp[i], actual.getMarkerTimestamp(i));
+            assertEquals(expected.markerEndIndex[i], actual.getMarkerEndIndex(i));
+            assertEquals(expected.markerEndTimestamp[i], actual.getMarkerEndTimestamp(i));
+            assertBits(expected.markerEnergy[i], actual.getMarkerEnergy(i));
+            assertEquals(expected.markerType[i], actual.getMarkerType(i));
+            assertBits(expected.markerLowRatio[i], actual.getMarkerLowRatio(i));
+        }
+    }
+
+    private static void assertSummary(LevelSummary expected, LevelSummary actual) {
+        assertEquals(expected.durationMs, actual.durationMs);
+        assertBits(expected.leq, actual.leq);
+        assertBits(expected.lmax, actual.lmax);
+        assertBits(expected.lmin, actual.lmin);
+        assertBits(expected.l10, actual.l10);
+        assertBits(expected.l50, actual.l50);
+        assertBits(expected.l90, actual.l90);
+    }
+
+    private static void assertBits(float expected, float actual) {
+        assertEquals(Float.floatToIntBits(expected), Float.floatToIntBits(actual));
+    }
+}
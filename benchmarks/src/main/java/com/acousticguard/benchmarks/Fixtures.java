@@ -0,0 +1,97 @@
+package com.acousticguard.benchmarks;
+
+import com.acousticguard.app.SessionMetadata;
+import com.acousticguard.dsp.AcousticEvent;
+import com.acousticguard.dsp.AudioBlock;
+import com.acousticguard.dsp.EventDetector;
+import com.acousticguard.dsp.LevelMeter;
+import com.acousticguard.dsp.LevelStatistics;
+import com.acousticguard.dsp.Pipeline;
+import com.acousticguard.dsp.Stage;
+import com.acousticguard.dsp.SyntheticSource;
+
+// Realistic inputs for the benchmarks: 44.1 kHz mono audio in the block sizes AudioRecord
+// hands out, and session metadata produced by running that audio through the capture chain.
+final class Fixtures {
+
+    static final int SAMPLE_RATE = 44100;
+    // Quiet room tone with a two-second loud burst every BURST_PERIOD_S seconds.
+    static final double ROOM_AMPLITUDE = 30;
+    static final double BURST_AMPLITUDE = 20000;
+    static final int BURST_PERIOD_S = 20;
+
+    static final EventDetector.Listener IGNORE_EVENTS = new EventDetector.Listener() {
+        @Override
+        public void onEventOpened(AcousticEvent event) {
+        }
+
+        @Override
+        public void onEventClosed(AcousticEvent event) {
+        }
+    };
+
+    private Fixtures() {}
+
+    static SyntheticSource source(long seconds) {
+        SyntheticSource source = new SyntheticSource(SAMPLE_RATE, 440, ROOM_AMPLITUDE).limit(seconds * SAMPLE_RATE);
+        for (long s = 10; s + 2 <= seconds; s += BURST_PERIOD_S) {
+            source.addBurst(s * SAMPLE_RATE, (s + 2) * SAMPLE_RATE, BURST_AMPLITUDE);
+        }
+        return source;
+    }
+
+    static short[] samples(int length, double amplitude) {
+        short[] samples = new short[length];
+        new SyntheticSource(SAMPLE_RATE, 440, amplitude).read(samples, 0, length);
+        return samples;
+    }
+
+    static AudioBlock block(int blockSize, double amplitude) {
+        AudioBlock block = new AudioBlock(blockSize);
+        new SyntheticSource(SAMPLE_RATE, 440, amplitude).read(block.samples, 0, blockSize);
+        block.length = blockSize;
+        block.sampleRate = SAMPLE_RATE;
+        return block;
+    }
+
+    // What CaptureEngine saves for a session of the given length: one amplitude per block,
+    // the detected events and the level statistics.
+    static SessionMetadata session(int blockSize, long seconds) {
+        SessionMetadata meta = new SessionMetadata();
+        meta.sampleRate = SAMPLE_RATE;
+        meta.samplesPerAmplitude = blockSize;
+        LevelStatistics stats = new LevelStatistics(SAMPLE_RATE);
+        EventDetector detector = new EventDetector(new EventDetector.Config(), new EventDetector.Listener() {
+            @Override
+            public void onEventOpened(AcousticEvent event) {
+            }
+
+            @Override
+            public void onEventClosed(AcousticEvent event) {
+                meta.addEvent(event);
+            }
+        });
+        Stage amplitudes = new Stage() {
+            @Override
+            public void process(AudioBlock block) {
+                meta.amplitudes.append(block.amplitude);
+            }
+
+            @Override
+            public void finish() {
+            }
+        };
+        Pipeline pipeline = new Pipeline(SAMPLE_RATE, blockSize)
+                .add(new LevelMeter(SAMPLE_RATE, false))
+                .add(detector)
+                .add(stats)
+                .add(amplitudes);
+        SyntheticSource source = source(seconds);
+        while (pipeline.pump(source) > 0) {
+        }
+        pipeline.finish();
+        meta.stats = stats.summarize();
+        meta.minuteStats = stats.getMinutes();
+        return meta;
+    }
+}
@@ -0,0 +1,71 @@
+package com.acousticguard.benchmarks;
+
+import com.acousticguard.dsp.AudioBlock;
+import com.acousticguard.dsp.EventDetector;
+import com.acousticguard.dsp.LevelMeter;
+import com.acousticguard.dsp.LevelStatistics;
+import com.acousticguard.dsp.Pipeline;
+import com.acousticguard.dsp.SpectralAnalyzer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Per-block cost on the capture thread: the RMS/dB meter alone and the whole analysis chain
+// that CaptureEngine runs before handing the block to the writer. A block has to be done in
+// well under blockSize / 44100 s (23 ms for 1024 samples) or AudioRecord overruns.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LevelMeterBenchmark {
+
+    // Typical AudioRecord.getMinBufferSize results at 44.1 kHz mono, used as the block size.
+    @Param({"1024", "3584", "8192"})
+    public int blockSize;
+
+    @Param({"false", "true"})
+    public boolean aWeighted;
+
+    private AudioBlock block;
+    private LevelMeter meter;
+    private Pipeline pipeline;
+    private short[] loud;
+
+    @Setup
+    public void setUp() {
+        block = Fixtures.block(blockSize, Fixtures.ROOM_AMPLITUDE);
+        meter = new LevelMeter(Fixtures.SAMPLE_RATE, aWeighted);
+        pipeline = new Pipeline(Fixtures.SAMPLE_RATE, blockSize)
+                .add(new LevelMeter(Fixtures.SAMPLE_RATE, aWeighted))
+                .add(new SpectralAnalyzer(Fixtures.SAMPLE_RATE))
+                .add(new EventDetector(new EventDetector.Config(), Fixtures.IGNORE_EVENTS))
+                .add(new LevelStatistics(Fixtures.SAMPLE_RATE));
+        loud = Fixtures.samples(blockSize, Fixtures.BURST_AMPLITUDE);
+    }
+
+    @Benchmark
+    public float meter() {
+        meter.process(block);
+        return block.level;
+    }
+
+    // A loud block keeps the detector inside an event, its most expensive state.
+    @Benchmark
+    public float analysisChain() {
+        pipeline.process(loud, 0, blockSize);
+        return pipeline.getBlock().level;
+    }
+}
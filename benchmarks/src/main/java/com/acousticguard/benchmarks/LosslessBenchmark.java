@@ -0,0 +1,109 @@
+package com.acousticguard.benchmarks;
+
+import com.acousticguard.dsp.LosslessCodec;
+import com.acousticguard.dsp.LosslessFile;
+import com.acousticguard.dsp.LosslessReader;
+import com.acousticguard.dsp.LosslessWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Lossless storage of SECONDS of room noise with a burst: encoding and decoding the frames in
+// memory (the CPU cost per second of audio is the score / SECONDS), writing a whole .agl file
+// as the PcmBlockWriter's thread does, and reading it back with seeks into the middle of
+// frames as playback and clip export do. setUp() prints the compression ratio.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LosslessBenchmark {
+
+    private static final int SECONDS = 10;
+    private static final int FRAME = LosslessFile.FRAME_SAMPLES;
+
+    private short[] audio;
+    private short[] decoded;
+    private byte[] encoded;
+    private int[] frameStarts;
+    private final LosslessCodec codec = new LosslessCodec(FRAME);
+    private File file;
+    private File written;
+
+    @Setup
+    public void setUp() throws IOException {
+        audio = new short[SECONDS * Fixtures.SAMPLE_RATE];
+        Fixtures.source(SECONDS).read(audio, 0, audio.length);
+        decoded = new short[FRAME];
+        int frames = (audio.length + FRAME - 1) / FRAME;
+        encoded = new byte[frames * LosslessCodec.maxFrameBytes(FRAME)];
+        frameStarts = new int[frames];
+        encodeAll();
+
+        file = File.createTempFile("bench", LosslessFile.EXTENSION);
+        written = File.createTempFile("bench", LosslessFile.EXTENSION);
+        try (LosslessWriter writer = new LosslessWriter(file, Fixtures.SAMPLE_RATE)) {
+            writer.write(audio, 0, audio.length);
+        }
+        System.out.printf("%n%.1f%% of 16-bit PCM%n", file.length() * 100.0 / (audio.length * 2));
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+        written.delete();
+    }
+
+    @Benchmark
+    public int encodeAll() {
+        int position = 0;
+        for (int i = 0, offset = 0; offset < audio.length; i++, offset += FRAME) {
+            frameStarts[i] = position;
+            position += codec.encode(audio, offset, Math.min(FRAME, audio.length - offset), encoded, position);
+        }
+        return position;
+    }
+
+    @Benchmark
+    public long decodeAll() {
+        long sum = 0;
+        for (int start : frameStarts) sum += codec.decode(encoded, start, decoded);
+        return sum;
+    }
+
+    @Benchmark
+    public long writeFile() throws IOException {
+        try (LosslessWriter writer = new LosslessWriter(written, Fixtures.SAMPLE_RATE)) {
+            writer.write(audio, 0, audio.length);
+            return writer.getSampleCount();
+        }
+    }
+
+    // One second from each of SECONDS positions, none of them on a frame boundary.
+    @Benchmark
+    public long seekAndRead() throws IOException {
+        long sum = 0;
+        try (LosslessReader reader = LosslessReader.open(file)) {
+            short[] buffer = new short[Fixtures.SAMPLE_RATE];
+            for (int s = 0; s < SECONDS; s++) {
+                reader.seek(s * (long) Fixtures.SAMPLE_RATE + 1234);
+                sum += reader.read(buffer, 0, buffer.length);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,91 @@
+package com.acousticguard.benchmarks;
+
+import com.acousticguard.app.SessionFile;
+import com.acousticguard.app.SessionJson;
+import com.acousticguard.app.SessionMetadata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+// Saving and loading a session's metadata as the legacy JSON sidecar and as the binary
+// SessionFile. The JSON holds only amplitudes and point markers, the binary file also the
+// event details, stored peak levels and statistics, so the comparison favours JSON.
+// binaryOpen is what the history list pays: map the file and read the header.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MetadataBenchmark {
+
+    private static final int BLOCK_SIZE = 3584;
+
+    @Param({"10", "60"})
+    public int minutes;
+
+    private SessionMetadata meta;
+    private File json;
+    private File binary;
+    private File jsonOut;
+    private File binaryOut;
+
+    @Setup
+    public void setUp() throws Exception {
+        meta = Fixtures.session(BLOCK_SIZE, minutes * 60L);
+        json = File.createTempFile("bench", SessionJson.EXTENSION);
+        binary = File.createTempFile("bench", SessionFile.EXTENSION);
+        jsonOut = File.createTempFile("bench-out", SessionJson.EXTENSION);
+        binaryOut = File.createTempFile("bench-out", SessionFile.EXTENSION);
+        SessionJson.write(json, meta);
+        SessionFile.write(binary, meta);
+    }
+
+    @TearDown
+    public void tearDown() {
+        json.delete();
+        binary.delete();
+        jsonOut.delete();
+        binaryOut.delete();
+    }
+
+    @Benchmark
+    public File jsonWrite() throws Exception {
+        SessionJson.write(jsonOut, meta);
+        return jsonOut;
+    }
+
+    @Benchmark
+    public SessionMetadata jsonRead() throws Exception {
+        return SessionJson.read(json, Fixtures.SAMPLE_RATE);
+    }
+
+    @Benchmark
+    public File binaryWrite() throws Exception {
+        SessionFile.write(binaryOut, meta);
+        return binaryOut;
+    }
+
+    @Benchmark
+    public SessionMetadata binaryRead() throws Exception {
+        return SessionFile.open(binary).toMetadata();
+    }
+
+    @Benchmark
+    public int binaryOpen() throws Exception {
+        return SessionFile.open(binary).getAmplitudeCount();
+    }
+}
@@ -0,0 +1,76 @@
+package com.acousticguard.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Turning a captured block of shorts into little-endian WAV bytes. shortView is what
+// PcmBlockWriter does (one bulk put into a direct buffer); the other two are the per-sample
+// ways of doing the same, for comparison.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PcmEncodingBenchmark {
+
+    @Param({"1024", "3584", "8192"})
+    public int blockSize;
+
+    private short[] samples;
+    private ByteBuffer direct;
+    private ShortBuffer shortView;
+    private ByteBuffer heap;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        samples = Fixtures.samples(blockSize, Fixtures.BURST_AMPLITUDE);
+        direct = ByteBuffer.allocateDirect(blockSize * 2).order(ByteOrder.LITTLE_ENDIAN);
+        shortView = direct.asShortBuffer();
+        heap = ByteBuffer.allocate(blockSize * 2).order(ByteOrder.LITTLE_ENDIAN);
+        bytes = new byte[blockSize * 2];
+    }
+
+    @Benchmark
+    public ByteBuffer shortView() {
+        shortView.clear();
+        shortView.put(samples, 0, blockSize);
+        direct.clear();
+        direct.limit(blockSize * 2);
+        return direct;
+    }
+
+    @Benchmark
+    public ByteBuffer putShort() {
+        heap.clear();
+        for (int i = 0; i < blockSize; i++) heap.putShort(samples[i]);
+        heap.flip();
+        return heap;
+    }
+
+    @Benchmark
+    public byte[] shifts() {
+        byte[] out = bytes;
+        for (int i = 0; i < blockSize; i++) {
+            short s = samples[i];
+            out[2 * i] = (byte) s;
+            out[2 * i + 1] = (byte) (s >> 8);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,91 @@
+package com.acousticguard.benchmarks;
+
+import com.acousticguard.dsp.PcmBlockWriter;
+import com.acousticguard.dsp.WavFileWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Writing SECONDS of captured audio into a fresh WAV file, block by block, header included:
+// directly on the calling thread, and through PcmBlockWriter's ring and writer thread as
+// CaptureEngine does. The latter waits for a free slot instead of dropping blocks, so both
+// write every byte.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WavWriteBenchmark {
+
+    private static final int SECONDS = 10;
+    private static final int RING_BLOCKS = 32;
+
+    @Param({"1024", "3584", "8192"})
+    public int blockSize;
+
+    private short[] audio;
+    private File file;
+    private ByteBuffer bytes;
+    private ShortBuffer shorts;
+
+    @Setup
+    public void setUp() throws IOException {
+        audio = new short[SECONDS * Fixtures.SAMPLE_RATE];
+        Fixtures.source(SECONDS).read(audio, 0, audio.length);
+        file = File.createTempFile("bench", ".wav");
+        bytes = ByteBuffer.allocateDirect(blockSize * 2).order(ByteOrder.LITTLE_ENDIAN);
+        shorts = bytes.asShortBuffer();
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long wavFileWriter() throws IOException {
+        try (WavFileWriter wav = new WavFileWriter(file, Fixtures.SAMPLE_RATE, 1, 16)) {
+            for (int offset = 0; offset < audio.length; offset += blockSize) {
+                int length = Math.min(blockSize, audio.length - offset);
+                shorts.clear();
+                shorts.put(audio, offset, length);
+                bytes.clear();
+                bytes.limit(length * 2);
+                wav.write(bytes);
+            }
+            return wav.getDataLength();
+        }
+    }
+
+    @Benchmark
+    public long pcmBlockWriter() throws IOException {
+        PcmBlockWriter writer = new PcmBlockWriter(new WavFileWriter(file, Fixtures.SAMPLE_RATE, 1, 16), blockSize, RING_BLOCKS);
+        for (int offset = 0; offset < audio.length; offset += blockSize) {
+            int length = Math.min(blockSize, audio.length - offset);
+            short[] slot;
+            while ((slot = writer.acquire()) == null) Thread.yield();
+            System.arraycopy(audio, offset, slot, 0, length);
+            writer.publish(length);
+        }
+        writer.close();
+        return writer.getBytesWritten();
+    }
+}
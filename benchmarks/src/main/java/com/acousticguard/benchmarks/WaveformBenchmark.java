@@ -0,0 +1,69 @@
+package com.acousticguard.benchmarks;
+
+import com.acousticguard.dsp.PeakPyramid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The waveform's data side: decimating a session to one min/max pair per column as
+// WaveformView.drawSession does every frame, zoomed out and zoomed in, and growing the
+// pyramid one amplitude per block as capture does.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WaveformBenchmark {
+
+    private static final int BLOCK_SIZE = 3584;
+    // A 1080 px wide view at WaveformView's 2 px per column.
+    private static final int COLUMNS = 541;
+
+    @Param({"10", "60"})
+    public int minutes;
+
+    private float[] amplitudes;
+    private PeakPyramid peaks;
+    private final float[] min = new float[COLUMNS];
+    private final float[] max = new float[COLUMNS];
+
+    @Setup
+    public void setUp() {
+        peaks = Fixtures.session(BLOCK_SIZE, minutes * 60L).amplitudes;
+        amplitudes = new float[peaks.size()];
+        for (int i = 0; i < amplitudes.length; i++) amplitudes[i] = peaks.get(i);
+    }
+
+    @Benchmark
+    public int decimateWholeSession() {
+        float samplesPerColumn = (float) peaks.size() / COLUMNS;
+        return peaks.decimate(peaks.levelFor(samplesPerColumn), 0, samplesPerColumn, COLUMNS, min, max);
+    }
+
+    // The last ten seconds of the session.
+    @Benchmark
+    public int decimateTenSeconds() {
+        float span = 10f * Fixtures.SAMPLE_RATE / BLOCK_SIZE;
+        float samplesPerColumn = span / COLUMNS;
+        return peaks.decimate(peaks.levelFor(samplesPerColumn), peaks.size() - span, samplesPerColumn, COLUMNS, min, max);
+    }
+
+    @Benchmark
+    public PeakPyramid appendSession() {
+        PeakPyramid pyramid = new PeakPyramid();
+        for (float a : amplitudes) pyramid.append(a);
+        return pyramid;
+    }
+}
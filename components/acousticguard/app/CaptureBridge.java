@@ -0,0 +1,272 @@
+package com.acousticguard.app;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.JavascriptInterface;
+import android.webkit.WebMessage;
+import android.webkit.WebMessagePort;
+import android.webkit.WebView;
+
+import com.acousticguard.dsp.AcousticEvent;
+import com.acousticguard.dsp.LevelChannel;
+import com.acousticguard.dsp.LevelMeter;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Native capture for the WebView build. The page only calls start()/stop() through the
+// "AcousticGuardNative" JavascriptInterface; capture, level and event analysis and the WAV
+// file are all CaptureEngine's, as in the native app. Every FRAME_MS the main thread drains
+// what happened since the last frame into one short text message for the page:
+//
+//   L,<elapsedMs>,<db>,<maxDb>,<avgDb>,<rms*1000>,...  levels, at most MAX_LEVELS_PER_FRAME
+//   E,<startMs>,<endMs>,<peakDb>,<open 0|1>,<type label>  an event opened or closed
+//   S,<file name>,<durationMs>                     the recording is complete on disk
+//   R,<recording 0|1>                              capture started or stopped
+//   X,<message>                                    capture could not start or failed
+//
+// one record per line. Messages go through a WebMessagePort once the page has taken it
+// (API 23+), otherwise through evaluateJavascript. Levels are sent on the page's own scale,
+// 20 log10(RMS) + 100 with RMS relative to full scale, so its thresholds apply unchanged.
+public class CaptureBridge {
+
+    private static final String TAG = "CaptureBridge";
+    public static final String JS_NAME = "AcousticGuardNative";
+    // What the page receives with the port; see index.html.
+    private static final String PORT_MESSAGE = "acousticguard-port";
+    private static final int SAMPLE_RATE = 44100;
+    private static final long FRAME_MS = 100;
+    private static final int MAX_LEVELS_PER_FRAME = 16;
+    // Several seconds of levels at usual buffer sizes, far more than one frame's worth.
+    private static final int LEVEL_CHANNEL_SLOTS = 256;
+    private static final int PERMISSION_REQUEST_CODE = 1002;
+    // LevelMeter's 20 log10(RMS / 0.1) in sample units is this far above the page's scale.
+    private static final double PAGE_DB_OFFSET = LevelMeter.toDb(32768) - 100;
+
+    private final Activity activity;
+    private final WebView webView;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Main thread only.
+    private CaptureEngine engine;
+    private LevelChannel levels;
+    private long startedAt;
+    private int latestDb;
+    private int maxDb;
+    private long dbSum;
+    private int dbCount;
+    private final float[] frameAmps = new float[LEVEL_CHANNEL_SLOTS];
+    private int frameLevels;
+    private final StringBuilder frame = new StringBuilder();
+    private WebMessagePort port;
+    private boolean portReady;
+
+    // From the capture and finisher threads; drained by the frame ticker.
+    private final List<AcousticEvent> pendingEvents = new ArrayList<>();
+    private final List<String> pendingRecords = new ArrayList<>();
+
+    private final LevelChannel.Sink levelSink = (amplitude, level) -> {
+        if (frameLevels < frameAmps.length) frameAmps[frameLevels++] = amplitude;
+        // a silent block has no level (Integer.MIN_VALUE); it must not drag down the average
+        if (level == Integer.MIN_VALUE) return;
+        int db = toPageDb(level);
+        latestDb = db;
+        maxDb = Math.max(maxDb, db);
+        dbSum += db;
+        dbCount++;
+    };
+
+    private final Runnable frameTicker = new Runnable() {
+        @Override
+        public void run() {
+            sendFrame();
+            if (engine != null) mainHandler.postDelayed(this, FRAME_MS);
+        }
+    };
+
+    public CaptureBridge(Activity activity, WebView webView) {
+        this.activity = activity;
+        this.webView = webView;
+    }
+
+    // Main thread, from WebViewClient.onPageFinished: offers the page a fresh message port
+    // and tells it whether capture is running, e.g. after a reload.
+    public void onPageFinished() {
+        closePort();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            WebMessagePort[] ports = webView.createWebMessageChannel();
+            port = ports[0];
+            webView.postWebMessage(new WebMessage(PORT_MESSAGE, new WebMessagePort[]{ports[1]}), Uri.parse("*"));
+        }
+        post("R," + (engine != null ? 1 : 0));
+    }
+
+    @JavascriptInterface
+    public void start() {
+        mainHandler.post(this::startCapture);
+    }
+
+    @JavascriptInterface
+    public void stop() {
+        mainHandler.post(this::stopCapture);
+    }
+
+    // The page took the port; later messages go through it.
+    @JavascriptInterface
+    public void usePort() {
+        mainHandler.post(() -> portReady = port != null);
+    }
+
+    public void release() {
+        stopCapture();
+        closePort();
+    }
+
+    private void startCapture() {
+        if (engine != null) return;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                && activity.checkSelfPermission(Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
+            activity.requestPermissions(new String[]{Manifest.permission.RECORD_AUDIO}, PERMISSION_REQUEST_CODE);
+            post("X,Microphone permission is required");
+            return;
+        }
+        LevelChannel channel = new LevelChannel(LEVEL_CHANNEL_SLOTS);
+        CaptureEngine capture = new CaptureEngine(activity.getExternalFilesDir(null),
+                CaptureEngine.Config.fromPreferences(activity, SAMPLE_RATE), channel, new CaptureEngine.Listener() {
+            @Override
+            public void onEventOpened(AcousticEvent event) {
+                queueEvent(event);
+            }
+
+            @Override
+            public void onEventClosed(AcousticEvent event) {
+                queueEvent(event);
+            }
+
+            @Override
+            public void onSegmentFinished(String basePath, SessionMetadata meta) {
+                File audio = SessionAudio.find(basePath);
+                long durationMs = meta.stats != null ? meta.stats.durationMs : 0;
+                synchronized (pendingEvents) {
+                    pendingRecords.add("S," + audio.getName() + "," + durationMs);
+                }
+                // capture has stopped by now, so nothing else would send it
+                mainHandler.post(CaptureBridge.this::sendFrame);
+            }
+
+            @Override
+            public void onCaptureFailed(String message) {
+                mainHandler.post(() -> {
+                    if (engine == null || engine.isRunning()) return;
+                    stopCapture();
+                    post("X," + message);
+                });
+            }
+        });
+        try {
+            capture.start();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not start capture", e);
+            post("X," + e.getMessage());
+            return;
+        }
+        engine = capture;
+        levels = channel;
+        startedAt = SystemClock.elapsedRealtime();
+        latestDb = 0;
+        maxDb = 0;
+        dbSum = 0;
+        dbCount = 0;
+        frameLevels = 0;
+        post("R,1");
+        mainHandler.postDelayed(frameTicker, FRAME_MS);
+    }
+
+    private void stopCapture() {
+        if (engine == null) return;
+        engine.stop();
+        engine = null;
+        mainHandler.removeCallbacks(frameTicker);
+        sendFrame();
+        levels = null;
+        post("R,0");
+    }
+
+    // Capture thread; the event keeps changing there until it closes, so a snapshot is queued.
+    private void queueEvent(AcousticEvent event) {
+        synchronized (pendingEvents) {
+            pendingEvents.add(new AcousticEvent(event));
+        }
+    }
+
+    private void sendFrame() {
+        StringBuilder out = frame;
+        out.setLength(0);
+        if (levels != null) {
+            frameLevels = 0;
+            levels.drain(levelSink);
+            if (frameLevels > 0) appendLevels(out);
+        }
+        synchronized (pendingEvents) {
+            for (AcousticEvent e : pendingEvents) {
+                if (out.length() > 0) out.append('\n');
+                out.append("E,").append(e.startMs).append(',').append(e.endMs).append(',')
+                        .append(toPageDb(e.peakDb)).append(',').append(e.open ? 1 : 0).append(',')
+                        .append(e.type.label);
+            }
+            for (String record : pendingRecords) {
+                if (out.length() > 0) out.append('\n');
+                out.append(record);
+            }
+            pendingEvents.clear();
+            pendingRecords.clear();
+        }
+        if (out.length() > 0) post(out.toString());
+    }
+
+    // Levels of this frame, reduced to their maxima in at most MAX_LEVELS_PER_FRAME groups.
+    private void appendLevels(StringBuilder out) {
+        out.append("L,").append(SystemClock.elapsedRealtime() - startedAt)
+                .append(',').append(latestDb)
+                .append(',').append(maxDb)
+                .append(',').append(dbCount > 0 ? Math.round((float) dbSum / dbCount) : 0);
+        int groups = Math.min(frameLevels, MAX_LEVELS_PER_FRAME);
+        for (int g = 0; g < groups; g++) {
+            int from = g * frameLevels / groups;
+            int to = (g + 1) * frameLevels / groups;
+            float peak = 0;
+            for (int i = from; i < to; i++) peak = Math.max(peak, frameAmps[i]);
+            out.append(',').append(Math.round(Math.min(1f, peak) * 1000));
+        }
+    }
+
+    // Like the page's calculateDecibels, never below 0.
+    private static int toPageDb(double nativeDb) {
+        return (int) Math.max(0, Math.round(nativeDb - PAGE_DB_OFFSET));
+    }
+
+    private void post(String message) {
+        if (portReady) {
+            port.postMessage(new WebMessage(message));
+        } else {
+            webView.evaluateJavascript("window.onNativeFrame && onNativeFrame(" + JSONObject.quote(message) + ")", null);
+        }
+    }
+
+    private void closePort() {
+        if (port != null) port.close();
+        port = null;
+        portReady = false;
+    }
+}
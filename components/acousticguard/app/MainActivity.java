@@ -16,6 +16,7 @@ import android.widget.Toast;
 public class MainActivity extends Activity {
 
     private WebView mWebView;
+    private CaptureBridge mCaptureBridge;
     private static final int PERMISSION_REQUEST_CODE = 1001;
 
     @SuppressLint("SetJavaScriptEnabled")
@@ -48,7 +49,16 @@ public class MainActivity extends Activity {
             }
         });
 
-        mWebView.setWebViewClient(new WebViewClient());
+        // 录音、分析和写 WAV 都在原生 CaptureEngine 中完成，网页只负责显示（见 CaptureBridge）
+        mCaptureBridge = new CaptureBridge(this, mWebView);
+        mWebView.addJavascriptInterface(mCaptureBridge, CaptureBridge.JS_NAME);
+        mWebView.setWebViewClient(new WebViewClient() {
+            @Override
+            public void onPageFinished(WebView view, String url) {
+                // 每次加载完成后重新建立消息通道
+                mCaptureBridge.onPageFinished();
+            }
+        });
 
         // 4. 检查安卓原生权限
         checkAndroidPermissions();
@@ -79,6 +89,13 @@ public class MainActivity extends Activity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        mCaptureBridge.release();
+        mWebView.destroy();
+        super.onDestroy();
+    }
+
     @Override
     public void onBackPressed() {
         if (mWebView.canGoBack()) {
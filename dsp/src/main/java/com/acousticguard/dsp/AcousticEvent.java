@@ -0,0 +1,61 @@
+package com.acousticguard.dsp;
+
+// One detected acoustic event: a run of buffers whose level stayed above the detector's
+// release threshold. Indices refer to the session's amplitude track, times are ms from the
+// start of the recording.
+public class AcousticEvent {
+
+    public int startIndex;
+    public int endIndex;
+    public long startMs;
+    public long endMs;
+    public float peakDb;
+    // Sum of 10^(dB/10) * seconds over the event, i.e. its energy relative to the dB reference.
+    public double energy;
+    public boolean open;
+    public SoundType type = SoundType.ENVIRONMENT;
+    // Share of spectral energy below SpectralAnalyzer.LOW_FREQ_BOUND.
+    public float lowRatio;
+
+    // Spectral band energies accumulated while the event was loud (not persisted).
+    public double lowEnergy;
+    public double midEnergy;
+    public double highEnergy;
+
+    public AcousticEvent() {}
+
+    public AcousticEvent(AcousticEvent other) {
+        set(other);
+    }
+
+    public void set(AcousticEvent other) {
+        startIndex = other.startIndex;
+        endIndex = other.endIndex;
+        startMs = other.startMs;
+        endMs = other.endMs;
+        peakDb = other.peakDb;
+        energy = other.energy;
+        open = other.open;
+        type = other.type;
+        lowRatio = other.lowRatio;
+        lowEnergy = other.lowEnergy;
+        midEnergy = other.midEnergy;
+        highEnergy = other.highEnergy;
+    }
+
+    // Updates type and lowRatio from the accumulated band energies.
+    public void classify() {
+        double total = lowEnergy + midEnergy + highEnergy;
+        lowRatio = total > 0 ? (float) (lowEnergy / total) : 0f;
+        type = SoundType.classify(lowEnergy, midEnergy, highEnergy);
+    }
+
+    public long getDurationMs() {
+        return endMs - startMs;
+    }
+
+    // Sound exposure level of the event in the app's dB scale.
+    public double getExposureDb() {
+        return energy > 0 ? 10 * Math.log10(energy) : 0;
+    }
+}
@@ -0,0 +1,56 @@
+package com.acousticguard.dsp;
+
+// One buffer of mono 16-bit PCM on its way down a Pipeline, together with what the stages have
+// derived from it so far. A pipeline reuses the same instance and array for every block, so a
+// stage must copy whatever it wants to keep after process() returns.
+public final class AudioBlock {
+
+    public final short[] samples;
+    public int length;
+    public int sampleRate;
+
+    // Block number and sample offset since the pipeline's last reset, and the time span
+    // [startMs, endMs) the samples cover.
+    public int index;
+    public long position;
+    public long startMs;
+    public long endMs;
+
+    // LevelMeter: RMS / 32768, the level on the app's dB scale (20 log10(RMS / 0.1)) and the
+    // level used for statistics, which is A-weighted when enabled.
+    public double sumOfSquares;
+    public float amplitude;
+    public float level;
+    public float statsLevel;
+
+    // SpectralAnalyzer: band energies of the FFT frames completed during this block.
+    public double lowEnergy;
+    public double midEnergy;
+    public double highEnergy;
+
+    public AudioBlock(int capacity) {
+        this.samples = new short[capacity];
+    }
+
+    public int getCapacity() {
+        return samples.length;
+    }
+
+    // Copies the samples and every derived value; other must not be longer than this block.
+    public void copyFrom(AudioBlock other) {
+        System.arraycopy(other.samples, 0, samples, 0, other.length);
+        length = other.length;
+        sampleRate = other.sampleRate;
+        index = other.index;
+        position = other.position;
+        startMs = other.startMs;
+        endMs = other.endMs;
+        sumOfSquares = other.sumOfSquares;
+        amplitude = other.amplitude;
+        level = other.level;
+        statsLevel = other.statsLevel;
+        lowEnergy = other.lowEnergy;
+        midEnergy = other.midEnergy;
+        highEnergy = other.highEnergy;
+    }
+}
@@ -0,0 +1,10 @@
+package com.acousticguard.dsp;
+
+// Where a Pipeline's audio comes from: the microphone on a device, a mapped file or a
+// synthetic signal elsewhere.
+public interface BlockSource {
+
+    // Reads up to length samples into buffer and returns how many were read: 0 or a negative
+    // error code if none are available, as AudioRecord.read does.
+    int read(short[] buffer, int offset, int length);
+}
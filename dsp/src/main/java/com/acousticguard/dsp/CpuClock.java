@@ -0,0 +1,10 @@
+package com.acousticguard.dsp;
+
+// CPU time used by the calling thread, in ns, or -1 when unknown. The module has no access to
+// android.os.Debug or java.lang.management, so callers that want the figure supply one.
+public interface CpuClock {
+
+    CpuClock NONE = () -> -1;
+
+    long currentThreadCpuNanos();
+}
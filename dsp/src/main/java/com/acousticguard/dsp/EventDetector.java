@@ -0,0 +1,119 @@
+package com.acousticguard.dsp;
+
+// Turns the per-buffer level track into discrete events instead of flagging every loud
+// buffer. An event opens once the level has stayed at or above openDb for attackMs, stays
+// open while the level is at or above the lower closeDb (hysteresis), and closes after
+// mergeGapMs below it, so bursts separated by short gaps become one event. Events shorter
+// than minDurationMs are never reported.
+//
+// Spectral band energies of the loud buffers are summed per event, which classifies it as
+// Structure, Voice or Environment.
+//
+// Runs on the capture thread; the listener is told about each event exactly twice, when it
+// is confirmed and when it ends, with snapshots it may hand to other threads.
+public class EventDetector implements Stage {
+
+    public static class Config {
+        public float openDb = 65f;
+        public float closeDb = 60f;
+        public long attackMs = 0;
+        public long minDurationMs = 100;
+        public long mergeGapMs = 500;
+    }
+
+    public interface Listener {
+        void onEventOpened(AcousticEvent event);
+        void onEventClosed(AcousticEvent event);
+    }
+
+    private final Config config;
+    private final Listener listener;
+    private final float closeDb;
+    private final AcousticEvent current = new AcousticEvent();
+
+    private boolean active;      // an event is being tracked
+    private boolean reported;    // onEventOpened was sent for it
+    private long attackStartMs = -1;
+    private int attackStartIndex;
+    private long lastLoudEndMs;  // end of the last buffer at or above closeDb
+    private int lastLoudIndex;
+
+    public EventDetector(Config config, Listener listener) {
+        this.config = config;
+        this.listener = listener;
+        this.closeDb = Math.min(config.closeDb, config.openDb);
+    }
+
+    // One buffer: its amplitude index, time span [startMs, endMs), level and the spectral band
+    // energies of the frames analyzed during it.
+    public void process(int index, long startMs, long endMs, float db, double low, double mid, double high) {
+        if (!active) {
+            if (db < config.openDb) {
+                attackStartMs = -1;
+                return;
+            }
+            if (attackStartMs < 0) {
+                attackStartMs = startMs;
+                attackStartIndex = index;
+            }
+            if (endMs - attackStartMs < config.attackMs) return;
+            active = true;
+            reported = false;
+            current.startIndex = attackStartIndex;
+            current.startMs = attackStartMs;
+            current.peakDb = db;
+            current.energy = 0;
+            current.lowEnergy = 0;
+            current.midEnergy = 0;
+            current.highEnergy = 0;
+            current.open = true;
+            attackStartMs = -1;
+        }
+
+        if (db >= closeDb) {
+            lastLoudEndMs = endMs;
+            lastLoudIndex = index;
+            if (db > current.peakDb) current.peakDb = db;
+            current.energy += Math.pow(10, db / 10.0) * (endMs - startMs) / 1000.0;
+            current.lowEnergy += low;
+            current.midEnergy += mid;
+            current.highEnergy += high;
+            current.endIndex = index;
+            current.endMs = endMs;
+            if (!reported && current.getDurationMs() >= config.minDurationMs) {
+                reported = true;
+                current.classify();
+                listener.onEventOpened(new AcousticEvent(current));
+            }
+        } else if (endMs - lastLoudEndMs >= config.mergeGapMs) {
+            closeEvent();
+        }
+    }
+
+    // As a pipeline stage, after LevelMeter and SpectralAnalyzer.
+    @Override
+    public void process(AudioBlock block) {
+        process(block.index, block.startMs, block.endMs, block.level, block.lowEnergy, block.midEnergy, block.highEnergy);
+    }
+
+    @Override
+    public void finish() {
+        flush();
+    }
+
+    // Closes whatever is still open and forgets a pending attack, e.g. when recording stops or
+    // a new segment restarts the index and time base.
+    public void flush() {
+        if (active) closeEvent();
+        attackStartMs = -1;
+    }
+
+    private void closeEvent() {
+        active = false;
+        current.endIndex = lastLoudIndex;
+        current.endMs = lastLoudEndMs;
+        current.open = false;
+        current.classify();
+        if (reported) listener.onEventClosed(new AcousticEvent(current));
+    }
+}
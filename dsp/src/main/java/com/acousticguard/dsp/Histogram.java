@@ -0,0 +1,54 @@
+package com.acousticguard.dsp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Distribution of non-negative values (microseconds, queue depths) in fixed power-of-two
+// buckets, recorded without allocating or locking: bucket 0 counts zeros, bucket i values in
+// [2^(i-1), 2^i), the last one everything larger. One thread records; any thread may read,
+// seeing counts that lag by at most the values being recorded at that moment.
+public class Histogram {
+
+    public static final int BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    // Written only by the recording thread.
+    private volatile long count;
+    private volatile long max;
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+        counts.lazySet(bucket, counts.get(bucket) + 1);
+        count++;
+        if (value > max) max = value;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // Largest value recorded so far.
+    public long getMax() {
+        return max;
+    }
+
+    // Copies the bucket counts into counts, which holds at least BUCKETS entries.
+    public void copyCounts(long[] counts) {
+        for (int i = 0; i < BUCKETS; i++) counts[i] = this.counts.get(i);
+    }
+
+    // Exclusive upper bound of the bucket holding the given quantile (0..1) of the counts, or
+    // 0 if they are all zero. Works on a copy, or on the difference of two copies.
+    public static long quantile(long[] counts, double q) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += counts[i];
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(1, rank)) return 1L << i;
+        }
+        return 1L << (BUCKETS - 1);
+    }
+}
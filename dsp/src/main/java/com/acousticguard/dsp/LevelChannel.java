@@ -0,0 +1,72 @@
+package com.acousticguard.dsp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hands per-buffer levels from the capture thread to the UI without allocating: the producer
+// writes into preallocated primitive slots, the consumer drains everything pending once per
+// frame. When the UI falls a full ring behind, new levels are dropped and counted instead of
+// queueing without bound.
+public class LevelChannel implements Stage {
+
+    public interface Sink {
+        void onLevel(float amplitude, int db);
+    }
+
+    private final float[] amplitudes;
+    private final int[] dbs;
+    private final int mask;
+
+    // Single producer (capture thread) / single consumer (UI thread) sequences.
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+
+    // Written only by the capture thread.
+    private volatile long dropped;
+
+    public LevelChannel(int capacity) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two");
+        this.amplitudes = new float[capacity];
+        this.dbs = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    // Capture thread only. Returns false if the level was dropped.
+    public boolean offer(float amplitude, int db) {
+        long seq = published.get();
+        if (seq - consumed.get() > mask) {
+            dropped++;
+            return false;
+        }
+        int slot = (int) (seq & mask);
+        amplitudes[slot] = amplitude;
+        dbs[slot] = db;
+        published.lazySet(seq + 1);
+        return true;
+    }
+
+    // As the capture pipeline's sink for the live meter, after LevelMeter.
+    @Override
+    public void process(AudioBlock block) {
+        offer(block.amplitude, (int) block.level);
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    // UI thread only. Passes every pending level to sink, oldest first, and returns how many.
+    public int drain(Sink sink) {
+        long next = consumed.get();
+        long end = published.get();
+        for (long seq = next; seq < end; seq++) {
+            int slot = (int) (seq & mask);
+            sink.onLevel(amplitudes[slot], dbs[slot]);
+        }
+        consumed.lazySet(end);
+        return (int) (end - next);
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+}
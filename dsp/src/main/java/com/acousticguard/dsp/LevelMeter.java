@@ -0,0 +1,46 @@
+package com.acousticguard.dsp;
+
+// First stage of the analysis chain: the block's RMS, its level on the app's dB scale
+// (20 log10(RMS / 0.1), RMS in sample units) and, when A-weighting is on, the weighted level
+// that the statistics use. Detection and the waveform always use the unweighted level.
+public class LevelMeter implements Stage {
+
+    private final AWeightingFilter weighting;
+
+    public LevelMeter(int sampleRate, boolean aWeighted) {
+        this.weighting = aWeighted ? new AWeightingFilter(sampleRate) : null;
+    }
+
+    @Override
+    public void process(AudioBlock block) {
+        int length = block.length;
+        double sum = sumOfSquares(block.samples, length);
+        double statsSum = weighting != null ? weighting.sumOfSquares(block.samples, 0, length) : sum;
+        double rms = Math.sqrt(sum / length);
+        block.sumOfSquares = sum;
+        block.amplitude = (float) rms / 32768f;
+        block.level = (float) toDb(rms);
+        block.statsLevel = (float) toDb(Math.sqrt(statsSum / length));
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    @Override
+    public void reset() {
+        if (weighting != null) weighting.reset();
+    }
+
+    public static double sumOfSquares(short[] samples, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += samples[i] * samples[i];
+        }
+        return sum;
+    }
+
+    public static double toDb(double rms) {
+        return 20 * Math.log10(rms / 0.1);
+    }
+}
@@ -0,0 +1,120 @@
+package com.acousticguard.dsp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Streaming level statistics for a session and for each minute of audio in it. Every
+// captured buffer adds its level, weighted by its sample count, to an energy sum and to a
+// fixed 0.1 dB histogram, so memory does not grow with the session: Leq comes from the
+// energy, L10/L50/L90 from the histogram. Only one finished LevelSummary per minute is kept.
+//
+// add() runs on the capture thread; the summaries may be read from any thread.
+public class LevelStatistics implements Stage {
+
+    private static final float MIN_DB = 0f;
+    private static final float MAX_DB = 140f;
+    private static final float BIN_DB = 0.1f;
+    private static final int BINS = (int) ((MAX_DB - MIN_DB) / BIN_DB);
+
+    private final int sampleRate;
+    private final long samplesPerMinute;
+    private final Accumulator session = new Accumulator();
+    private final Accumulator minute = new Accumulator();
+    private final List<LevelSummary> minutes = new ArrayList<>();
+
+    public LevelStatistics(int sampleRate) {
+        this.sampleRate = sampleRate;
+        this.samplesPerMinute = sampleRate * 60L;
+    }
+
+    // One buffer of the given level; levels outside 0..140 dB are clamped.
+    public synchronized void add(double db, int samples) {
+        if (samples <= 0) return;
+        float level = (float) Math.max(MIN_DB, Math.min(MAX_DB - BIN_DB, db));
+        session.add(level, samples);
+        minute.add(level, samples);
+        if (minute.samples >= samplesPerMinute) closeMinute();
+    }
+
+    // As a pipeline stage, after LevelMeter.
+    @Override
+    public void process(AudioBlock block) {
+        add(block.statsLevel, block.length);
+    }
+
+    // Closes the last, partial minute. Call once capture has stopped.
+    @Override
+    public synchronized void finish() {
+        if (minute.samples > 0) closeMinute();
+    }
+
+    public synchronized LevelSummary summarize() {
+        return session.summarize(sampleRate);
+    }
+
+    // The minute in progress, or null right after a minute boundary.
+    public synchronized LevelSummary summarizeCurrentMinute() {
+        return minute.samples > 0 ? minute.summarize(sampleRate) : null;
+    }
+
+    public synchronized List<LevelSummary> getMinutes() {
+        return new ArrayList<>(minutes);
+    }
+
+    private void closeMinute() {
+        minutes.add(minute.summarize(sampleRate));
+        minute.reset();
+    }
+
+    private static final class Accumulator {
+        final long[] histogram = new long[BINS];
+        long samples;
+        double energy;
+        float max;
+        float min;
+
+        void add(float db, int n) {
+            if (samples == 0) {
+                max = db;
+                min = db;
+            } else {
+                if (db > max) max = db;
+                if (db < min) min = db;
+            }
+            samples += n;
+            energy += Math.pow(10, db / 10.0) * n;
+            histogram[(int) ((db - MIN_DB) / BIN_DB)] += n;
+        }
+
+        void reset() {
+            Arrays.fill(histogram, 0);
+            samples = 0;
+            energy = 0;
+        }
+
+        LevelSummary summarize(int sampleRate) {
+            LevelSummary s = new LevelSummary();
+            s.durationMs = samples * 1000 / sampleRate;
+            if (samples == 0) return s;
+            s.leq = (float) (10 * Math.log10(energy / samples));
+            s.lmax = max;
+            s.lmin = min;
+            s.l10 = exceeded(0.10);
+            s.l50 = exceeded(0.50);
+            s.l90 = exceeded(0.90);
+            return s;
+        }
+
+        // Level exceeded for the given fraction of the time: walk down from the loudest bin.
+        private float exceeded(double fraction) {
+            long target = (long) Math.ceil(samples * fraction);
+            long seen = 0;
+            for (int bin = BINS - 1; bin >= 0; bin--) {
+                seen += histogram[bin];
+                if (seen >= target) return MIN_DB + (bin + 0.5f) * BIN_DB;
+            }
+            return MIN_DB;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.acousticguard.dsp;
+
+import java.util.Locale;
+
+// Level statistics over a stretch of time, in the app's dB scale. Ln is the level exceeded
+// n percent of the time, so L10 describes the loud peaks and L90 the background.
+public class LevelSummary {
+
+    public long durationMs;
+    public float leq;
+    public float lmax;
+    public float lmin;
+    public float l10;
+    public float l50;
+    public float l90;
+
+    public String format(boolean aWeighted) {
+        String unit = aWeighted ? " dB(A)" : " dB";
+        return String.format(Locale.US, "Leq %.1f  Lmax %.1f  Lmin %.1f  L10 %.1f  L50 %.1f  L90 %.1f%s",
+                leq, lmax, lmin, l10, l50, l90, unit);
+    }
+}
@@ -0,0 +1,259 @@
+package com.acousticguard.dsp;
+
+// Encodes and decodes single frames of 16-bit mono audio, FLAC-style: the frame is predicted
+// with the fixed polynomial predictor of order 0-4 that leaves the smallest residuals, and the
+// residuals are Rice-coded in up to 16 partitions, each with its own parameter (or stored raw
+// when that is smaller, e.g. for clipped noise). Every frame decodes on its own.
+//
+// Frame layout: u32 byte length (little-endian, including this prefix), u16 sample count, u8
+// predictor order, u8 partition order, then MSB-first bits: the first `order` samples as 16
+// bit warm-up, and per partition a 5 bit Rice parameter followed by its residuals, or ESCAPE,
+// a 5 bit width and the residuals stored in that many bits. Residuals are zigzag-mapped.
+//
+// An instance keeps scratch buffers for frames of up to maxSamples and is not thread-safe.
+public final class LosslessCodec {
+
+    public static final int FRAME_HEADER_SIZE = 8;
+    public static final int MAX_ORDER = 4;
+    private static final int MAX_PARTITION_ORDER = 4;
+    private static final int ESCAPE = 31;
+
+    private final int[] residuals;
+
+    // Bit cursor, shared by the encoder and decoder paths.
+    private byte[] buf;
+    private int pos;
+    private long acc;
+    private int bits;
+
+    public LosslessCodec(int maxSamples) {
+        this.residuals = new int[maxSamples];
+    }
+
+    // Upper bound of the encoded size of a frame of n samples.
+    public static int maxFrameBytes(int n) {
+        return FRAME_HEADER_SIZE + 8 + 4 * n + (1 << MAX_PARTITION_ORDER) * 2;
+    }
+
+    // Encodes samples[offset, offset + n) into out at outOffset, where maxFrameBytes(n) bytes
+    // must be free. Returns the number of bytes written.
+    public int encode(short[] samples, int offset, int n, byte[] out, int outOffset) {
+        int order = chooseOrder(samples, offset, n);
+        computeResiduals(samples, offset, n, order);
+        int partitionOrder = 0;
+        while (partitionOrder < MAX_PARTITION_ORDER && n % (2 << partitionOrder) == 0 && (n >> (partitionOrder + 1)) > order) {
+            partitionOrder++;
+        }
+
+        buf = out;
+        pos = outOffset + FRAME_HEADER_SIZE;
+        acc = 0;
+        bits = 0;
+        for (int i = 0; i < order; i++) put(samples[offset + i] & 0xFFFF, 16);
+        int partitionSize = n >> partitionOrder;
+        for (int p = 0; p < 1 << partitionOrder; p++) {
+            int start = Math.max(order, p * partitionSize);
+            encodePartition(start, (p + 1) * partitionSize);
+        }
+        if (bits > 0) out[pos++] = (byte) (acc << (8 - bits));
+
+        int length = pos - outOffset;
+        out[outOffset] = (byte) length;
+        out[outOffset + 1] = (byte) (length >>> 8);
+        out[outOffset + 2] = (byte) (length >>> 16);
+        out[outOffset + 3] = (byte) (length >>> 24);
+        out[outOffset + 4] = (byte) n;
+        out[outOffset + 5] = (byte) (n >>> 8);
+        out[outOffset + 6] = (byte) order;
+        out[outOffset + 7] = (byte) partitionOrder;
+        buf = null;
+        return length;
+    }
+
+    // Byte length of the frame starting at in[offset], from its prefix.
+    public static int frameLength(byte[] in, int offset) {
+        return (in[offset] & 0xFF) | (in[offset + 1] & 0xFF) << 8 | (in[offset + 2] & 0xFF) << 16 | (in[offset + 3] & 0xFF) << 24;
+    }
+
+    // Sample count of the frame starting at in[offset].
+    public static int frameSamples(byte[] in, int offset) {
+        return (in[offset + 4] & 0xFF) | (in[offset + 5] & 0xFF) << 8;
+    }
+
+    // Decodes the frame starting at in[offset] into out. Returns the number of samples.
+    public int decode(byte[] in, int offset, short[] out) {
+        int n = frameSamples(in, offset);
+        int order = in[offset + 6];
+        int partitionOrder = in[offset + 7];
+        buf = in;
+        pos = offset + FRAME_HEADER_SIZE;
+        acc = 0;
+        bits = 0;
+        for (int i = 0; i < order; i++) out[i] = (short) get(16);
+        int partitionSize = n >> partitionOrder;
+        for (int p = 0; p < 1 << partitionOrder; p++) {
+            int start = Math.max(order, p * partitionSize);
+            decodePartition(out, start, (p + 1) * partitionSize);
+        }
+        buf = null;
+        restore(out, n, order);
+        return n;
+    }
+
+    // Order whose residuals have the smallest absolute sum, using the usual difference chain:
+    // the residual of order k is the difference of consecutive residuals of order k - 1.
+    private static int chooseOrder(short[] s, int offset, int n) {
+        if (n <= MAX_ORDER) return 0;
+        long e0 = 0, e1 = 0, e2 = 0, e3 = 0, e4 = 0;
+        int x1 = s[offset + 3], x2 = s[offset + 2], x3 = s[offset + 1], x4 = s[offset];
+        for (int i = MAX_ORDER; i < n; i++) {
+            int x0 = s[offset + i];
+            int r1 = x0 - x1;
+            int r2 = r1 - (x1 - x2);
+            int r3 = r2 - (x1 - 2 * x2 + x3);
+            int r4 = r3 - (x1 - 3 * x2 + 3 * x3 - x4);
+            e0 += Math.abs(x0);
+            e1 += Math.abs(r1);
+            e2 += Math.abs(r2);
+            e3 += Math.abs(r3);
+            e4 += Math.abs(r4);
+            x4 = x3;
+            x3 = x2;
+            x2 = x1;
+            x1 = x0;
+        }
+        int order = 0;
+        long best = e0;
+        if (e1 < best) { best = e1; order = 1; }
+        if (e2 < best) { best = e2; order = 2; }
+        if (e3 < best) { best = e3; order = 3; }
+        if (e4 < best) order = 4;
+        return order;
+    }
+
+    private void computeResiduals(short[] s, int offset, int n, int order) {
+        int[] r = residuals;
+        for (int i = order; i < n; i++) {
+            int j = offset + i;
+            switch (order) {
+                case 0: r[i] = s[j]; break;
+                case 1: r[i] = s[j] - s[j - 1]; break;
+                case 2: r[i] = s[j] - 2 * s[j - 1] + s[j - 2]; break;
+                case 3: r[i] = s[j] - 3 * s[j - 1] + 3 * s[j - 2] - s[j - 3]; break;
+                default: r[i] = s[j] - 4 * s[j - 1] + 6 * s[j - 2] - 4 * s[j - 3] + s[j - 4]; break;
+            }
+        }
+    }
+
+    // Adds the prediction to the residuals decoded into x. Sums wrap in 16 bits exactly as the
+    // encoder's differences did, so truncated residuals restore the original samples.
+    private static void restore(short[] x, int n, int order) {
+        switch (order) {
+            case 0:
+                break;
+            case 1:
+                for (int i = 1; i < n; i++) x[i] = (short) (x[i] + x[i - 1]);
+                break;
+            case 2:
+                for (int i = 2; i < n; i++) x[i] = (short) (x[i] + 2 * x[i - 1] - x[i - 2]);
+                break;
+            case 3:
+                for (int i = 3; i < n; i++) x[i] = (short) (x[i] + 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3]);
+                break;
+            default:
+                for (int i = 4; i < n; i++) x[i] = (short) (x[i] + 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4]);
+                break;
+        }
+    }
+
+    // Picks the cheapest of three Rice parameters around log2 of the mean, or raw storage.
+    private void encodePartition(int start, int end) {
+        int[] r = residuals;
+        int count = end - start;
+        long sum = 0;
+        int max = 0;
+        for (int i = start; i < end; i++) {
+            int u = zigzag(r[i]);
+            sum += u & 0xFFFFFFFFL;
+            max |= u;
+        }
+        long mean = count > 0 ? sum / count : 0;
+        int k = mean > 0 ? 63 - Long.numberOfLeadingZeros(mean) : 0;
+        int kLow = Math.max(0, k - 1);
+        int kHigh = Math.min(ESCAPE - 1, k + 1);
+        long costLow = (long) count * (kLow + 1);
+        long costMid = (long) count * (k + 1);
+        long costHigh = (long) count * (kHigh + 1);
+        for (int i = start; i < end; i++) {
+            int u = zigzag(r[i]);
+            costLow += u >>> kLow;
+            costMid += u >>> k;
+            costHigh += u >>> kHigh;
+        }
+        int width = 32 - Integer.numberOfLeadingZeros(max);
+        long costRaw = 5 + (long) count * width;
+        long best = Math.min(Math.min(costLow, costMid), Math.min(costHigh, costRaw));
+
+        if (best == costRaw) {
+            put(ESCAPE, 5);
+            put(width, 5);
+            for (int i = start; i < end; i++) put(zigzag(r[i]), width);
+            return;
+        }
+        int parameter = best == costLow ? kLow : best == costMid ? k : kHigh;
+        put(parameter, 5);
+        for (int i = start; i < end; i++) {
+            int u = zigzag(r[i]);
+            int q = u >>> parameter;
+            while (q >= 32) {
+                put(0, 32);
+                q -= 32;
+            }
+            put(1, q + 1);
+            if (parameter > 0) put(u & ((1 << parameter) - 1), parameter);
+        }
+    }
+
+    // Decodes residuals straight into the output samples; restore() then adds the prediction.
+    private void decodePartition(short[] out, int start, int end) {
+        int parameter = get(5);
+        if (parameter == ESCAPE) {
+            int width = get(5);
+            for (int i = start; i < end; i++) out[i] = (short) unzigzag(get(width));
+            return;
+        }
+        for (int i = start; i < end; i++) {
+            int q = 0;
+            while (get(1) == 0) q++;
+            out[i] = (short) unzigzag(q << parameter | get(parameter));
+        }
+    }
+
+    private static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private static int unzigzag(int u) {
+        return (u >>> 1) ^ -(u & 1);
+    }
+
+    // Appends the low width (1-32) bits of value.
+    private void put(int value, int width) {
+        acc = (acc << width) | (value & (0xFFFFFFFFL >>> (32 - width)));
+        bits += width;
+        while (bits >= 8) {
+            bits -= 8;
+            buf[pos++] = (byte) (acc >>> bits);
+        }
+    }
+
+    // Reads width (0-32) bits.
+    private int get(int width) {
+        while (bits < width) {
+            acc = (acc << 8) | (buf[pos++] & 0xFF);
+            bits += 8;
+        }
+        bits -= width;
+        return (int) ((acc >>> bits) & (0xFFFFFFFFL >>> (32 - width)));
+    }
+}
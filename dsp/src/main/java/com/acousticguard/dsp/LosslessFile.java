@@ -0,0 +1,154 @@
+package com.acousticguard.dsp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Layout of the .agl lossless recordings written by LosslessWriter.
+//
+// A 32 byte header (magic "AGLS", version, sample rate, frame size, sample count, seek table
+// offset), LosslessCodec frames of FRAME_SAMPLES mono 16-bit samples (the last one shorter),
+// then the seek table: a frame count and the file offset of every frame. Frame offsets are
+// enough to start decoding at any frame, so seeking costs one table lookup and at most one
+// frame of decoding. A file that was never closed has no table; readInfo() rebuilds it from
+// the frame length prefixes and repair() writes it back.
+public final class LosslessFile {
+
+    public static final String EXTENSION = ".agl";
+    public static final int HEADER_SIZE = 32;
+    public static final int FRAME_SAMPLES = 4096;
+
+    private static final int MAGIC = 0x534C4741; // "AGLS" little-endian
+    private static final int VERSION = 1;
+
+    private LosslessFile() {}
+
+    public static class Info {
+        public int sampleRate;
+        public int frameSamples;
+        public long sampleCount;
+        public long[] frameOffsets;
+        public int frameCount;
+        public long dataEnd;      // end of the last complete frame
+        public boolean closed;    // false when the table was rebuilt by scanning
+
+        public long getDurationMs() {
+            return sampleRate > 0 ? sampleCount * 1000 / sampleRate : 0;
+        }
+
+        // Frame holding the given sample, clamped to the last frame.
+        public int frameOf(long sample) {
+            return (int) Math.max(0, Math.min(frameCount - 1, sample / frameSamples));
+        }
+    }
+
+    // Writes the header at offset 0. tableOffset is 0 while the file is being written.
+    public static void writeHeader(FileChannel channel, int sampleRate, long sampleCount, long tableOffset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(sampleRate);
+        header.putInt(FRAME_SAMPLES);
+        header.putLong(sampleCount);
+        header.putLong(tableOffset);
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining()) position += channel.write(header, position);
+    }
+
+    // Returns null when the file is not a recording of this format.
+    public static Info readInfo(FileChannel channel) throws IOException {
+        long fileLength = channel.size();
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (!readFully(channel, buf, 0, HEADER_SIZE)) return null;
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) return null;
+
+        Info info = new Info();
+        info.sampleRate = buf.getInt(8);
+        info.frameSamples = buf.getInt(12);
+        if (info.frameSamples <= 0) return null;
+        long sampleCount = buf.getLong(16);
+        long tableOffset = buf.getLong(24);
+
+        if (tableOffset >= HEADER_SIZE && tableOffset + 4 <= fileLength && readFully(channel, buf, tableOffset, 4)) {
+            int count = buf.getInt(0);
+            if (count >= 0 && tableOffset + 4 + 8L * count <= fileLength) {
+                ByteBuffer table = ByteBuffer.allocate(8 * count).order(ByteOrder.LITTLE_ENDIAN);
+                if (readFully(channel, table, tableOffset + 4, 8 * count)) {
+                    info.frameOffsets = new long[count];
+                    table.asLongBuffer().get(info.frameOffsets);
+                    info.frameCount = count;
+                    info.sampleCount = sampleCount;
+                    info.dataEnd = tableOffset;
+                    info.closed = true;
+                    return info;
+                }
+            }
+        }
+        scan(channel, info, fileLength, buf);
+        return info;
+    }
+
+    // Rebuilds the table of a file that was never closed by walking the frame prefixes; a
+    // torn last frame is left out.
+    private static void scan(FileChannel channel, Info info, long fileLength, ByteBuffer buf) throws IOException {
+        long[] offsets = new long[16];
+        int count = 0;
+        long samples = 0;
+        long position = HEADER_SIZE;
+        while (position + LosslessCodec.FRAME_HEADER_SIZE <= fileLength) {
+            if (!readFully(channel, buf, position, LosslessCodec.FRAME_HEADER_SIZE)) break;
+            long length = buf.getInt(0) & 0xFFFFFFFFL;
+            int n = buf.getShort(4) & 0xFFFF;
+            if (length < LosslessCodec.FRAME_HEADER_SIZE || n == 0 || n > info.frameSamples || position + length > fileLength) break;
+            if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+            offsets[count++] = position;
+            samples += n;
+            position += length;
+        }
+        info.frameOffsets = offsets;
+        info.frameCount = count;
+        info.sampleCount = samples;
+        info.dataEnd = position;
+        info.closed = false;
+    }
+
+    // Finalizes a recording that was never closed (e.g. the app was killed mid-session): the
+    // torn tail is dropped and the seek table and header are written. Returns true if the file
+    // was changed.
+    public static boolean repair(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            Info info = readInfo(channel);
+            if (info == null || info.closed) return false;
+            channel.truncate(info.dataEnd);
+            writeTable(channel, info.dataEnd, info.frameOffsets, info.frameCount);
+            writeHeader(channel, info.sampleRate, info.sampleCount, info.dataEnd);
+            return true;
+        }
+    }
+
+    // Writes the seek table at position.
+    static void writeTable(FileChannel channel, long position, long[] offsets, int count) throws IOException {
+        ByteBuffer table = ByteBuffer.allocate(4 + 8 * count).order(ByteOrder.LITTLE_ENDIAN);
+        table.putInt(count);
+        for (int i = 0; i < count; i++) table.putLong(offsets[i]);
+        table.flip();
+        while (table.hasRemaining()) position += channel.write(table, position);
+    }
+
+    static boolean readFully(FileChannel channel, ByteBuffer buf, long position, int length) throws IOException {
+        buf.clear();
+        buf.limit(length);
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) return false;
+        }
+        buf.flip();
+        return true;
+    }
+}
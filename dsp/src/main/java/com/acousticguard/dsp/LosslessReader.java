@@ -0,0 +1,102 @@
+package com.acousticguard.dsp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Decodes a LosslessFile as a stream of samples from any position. Frames are read with
+// positional reads, so several readers (e.g. re-analysis chunks) can share one channel; seek()
+// looks the frame up in the seek table and skips into it.
+public class LosslessReader implements BlockSource, Closeable {
+
+    private final FileInputStream stream;
+    private final FileChannel channel;
+    private final LosslessFile.Info info;
+    private final LosslessCodec codec;
+    private final short[] frame;
+    private final ByteBuffer encoded;
+    private int frameIndex = -1;
+    private int frameLength;
+    private int framePosition;
+
+    // Opens a file of its own; returns null when it is not a lossless recording.
+    public static LosslessReader open(File file) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            LosslessFile.Info info = LosslessFile.readInfo(stream.getChannel());
+            if (info != null) return new LosslessReader(stream, stream.getChannel(), info);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+        stream.close();
+        return null;
+    }
+
+    // Reads through a channel owned by the caller, which also closes it.
+    public LosslessReader(FileChannel channel, LosslessFile.Info info) {
+        this(null, channel, info);
+    }
+
+    private LosslessReader(FileInputStream stream, FileChannel channel, LosslessFile.Info info) {
+        this.stream = stream;
+        this.channel = channel;
+        this.info = info;
+        this.codec = new LosslessCodec(info.frameSamples);
+        this.frame = new short[info.frameSamples];
+        this.encoded = ByteBuffer.allocate(LosslessCodec.maxFrameBytes(info.frameSamples));
+    }
+
+    public LosslessFile.Info getInfo() {
+        return info;
+    }
+
+    // Positions the reader so the next read starts at the given sample.
+    public void seek(long sample) throws IOException {
+        if (info.frameCount == 0) return;
+        int index = info.frameOf(sample);
+        loadFrame(index);
+        framePosition = (int) Math.min(frameLength, sample - (long) index * info.frameSamples);
+    }
+
+    // Fills buffer across frame boundaries; returns -1 at the end of the recording, or on a
+    // read error, which ends the stream as a truncated file would.
+    @Override
+    public int read(short[] buffer, int offset, int length) {
+        int total = 0;
+        try {
+            while (total < length) {
+                if (framePosition == frameLength) {
+                    if (frameIndex + 1 >= info.frameCount) break;
+                    loadFrame(frameIndex + 1);
+                }
+                int n = Math.min(length - total, frameLength - framePosition);
+                System.arraycopy(frame, framePosition, buffer, offset + total, n);
+                framePosition += n;
+                total += n;
+            }
+        } catch (IOException e) {
+            if (total == 0) return -1;
+        }
+        return total == 0 && length > 0 ? -1 : total;
+    }
+
+    private void loadFrame(int index) throws IOException {
+        long start = info.frameOffsets[index];
+        long end = index + 1 < info.frameCount ? info.frameOffsets[index + 1] : info.dataEnd;
+        int length = (int) (end - start);
+        if (length > encoded.capacity() || length < LosslessCodec.FRAME_HEADER_SIZE) throw new IOException("Corrupt frame " + index);
+        if (!LosslessFile.readFully(channel, encoded, start, length)) throw new IOException("Truncated frame " + index);
+        frameLength = codec.decode(encoded.array(), 0, frame);
+        frameIndex = index;
+        framePosition = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (stream != null) stream.close();
+    }
+}
@@ -0,0 +1,80 @@
+package com.acousticguard.dsp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Streams mono 16-bit audio into a LosslessFile: samples are gathered into frames, each full
+// frame is encoded and appended, and close() encodes the remainder, appends the seek table and
+// patches the header. Meant to run behind a PcmBlockWriter so encoding never delays capture;
+// a file cut off mid-session loses at most the frame being gathered.
+public class LosslessWriter implements SampleSink {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int sampleRate;
+    private final LosslessCodec codec = new LosslessCodec(LosslessFile.FRAME_SAMPLES);
+    private final short[] frame = new short[LosslessFile.FRAME_SAMPLES];
+    private final byte[] encoded = new byte[LosslessCodec.maxFrameBytes(LosslessFile.FRAME_SAMPLES)];
+    private final ByteBuffer encodedBuffer = ByteBuffer.wrap(encoded);
+    private int frameFill;
+    private long[] frameOffsets = new long[256];
+    private int frameCount;
+    private long position = LosslessFile.HEADER_SIZE;
+    private long sampleCount;
+
+    public LosslessWriter(File path, int sampleRate) throws IOException {
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = file.getChannel();
+        this.sampleRate = sampleRate;
+        channel.truncate(0);
+        LosslessFile.writeHeader(channel, sampleRate, 0, 0);
+    }
+
+    @Override
+    public void write(short[] samples, int offset, int length) throws IOException {
+        while (length > 0) {
+            int n = Math.min(length, frame.length - frameFill);
+            System.arraycopy(samples, offset, frame, frameFill, n);
+            frameFill += n;
+            offset += n;
+            length -= n;
+            if (frameFill == frame.length) flushFrame();
+        }
+    }
+
+    private void flushFrame() throws IOException {
+        if (frameFill == 0) return;
+        int length = codec.encode(frame, 0, frameFill, encoded, 0);
+        if (frameCount == frameOffsets.length) frameOffsets = Arrays.copyOf(frameOffsets, frameCount * 2);
+        frameOffsets[frameCount++] = position;
+        encodedBuffer.clear();
+        encodedBuffer.limit(length);
+        while (encodedBuffer.hasRemaining()) position += channel.write(encodedBuffer, position);
+        sampleCount += frameFill;
+        frameFill = 0;
+    }
+
+    public long getSampleCount() {
+        return sampleCount + frameFill;
+    }
+
+    // Bytes on disk so far, header included.
+    public long getFileLength() {
+        return position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushFrame();
+            LosslessFile.writeTable(channel, position, frameOffsets, frameCount);
+            LosslessFile.writeHeader(channel, sampleRate, sampleCount, position);
+        } finally {
+            file.close();
+        }
+    }
+}
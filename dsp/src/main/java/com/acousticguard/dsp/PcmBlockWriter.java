@@ -0,0 +1,156 @@
+package com.acousticguard.dsp;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Moves captured PCM blocks off the AudioRecord thread: the capture loop fills a slot of a
+// preallocated ring and publishes it, a dedicated writer thread hands each whole block to the
+// SampleSink, which encodes it (little-endian WAV bytes, or lossless frames) and appends it to
+// the file. However slow the encoding, the capture thread only ever copies a block.
+//
+// As a pipeline stage it copies each block into a free slot; close() is left to the owner,
+// which finalizes the file once the stream is over.
+public class PcmBlockWriter implements Stage {
+
+    private static final long IDLE_PARK_NANOS = 5_000_000L;
+
+    private final short[][] blocks;
+    private final int[] lengths;
+    private final int mask;
+
+    // Single producer (capture thread) / single consumer (writer thread) sequences.
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+
+    private final SampleSink out;
+    private final CpuClock cpuClock;
+    private final Thread writerThread;
+    private volatile boolean closed;
+    private volatile IOException error;
+
+    // Written only by the capture thread, read by anyone for diagnostics.
+    private volatile long overruns;
+    private volatile int maxQueueDepth;
+    // Written only by the writer thread.
+    private volatile long blocksWritten;
+    private volatile long bytesWritten;
+    private volatile long cpuNanos;
+
+    public PcmBlockWriter(SampleSink out, int blockSize, int ringSize) {
+        this(out, blockSize, ringSize, CpuClock.NONE);
+    }
+
+    public PcmBlockWriter(SampleSink out, int blockSize, int ringSize, CpuClock cpuClock) {
+        if (Integer.bitCount(ringSize) != 1) throw new IllegalArgumentException("ringSize must be a power of two");
+        this.out = out;
+        this.cpuClock = cpuClock;
+        this.blocks = new short[ringSize][blockSize];
+        this.lengths = new int[ringSize];
+        this.mask = ringSize - 1;
+        this.writerThread = new Thread(this::drain, "pcm-writer");
+        writerThread.start();
+    }
+
+    // Returns the next free block for the capture thread to read into, or null when the writer
+    // has fallen a full ring behind. The slot is only handed over once publish() is called.
+    public short[] acquire() {
+        long seq = published.get();
+        if (seq - consumed.get() > mask) {
+            overruns++;
+            return null;
+        }
+        return blocks[(int) (seq & mask)];
+    }
+
+    public void publish(int length) {
+        long seq = published.get();
+        lengths[(int) (seq & mask)] = length;
+        published.lazySet(seq + 1);
+        int depth = (int) (seq + 1 - consumed.get());
+        if (depth > maxQueueDepth) maxQueueDepth = depth;
+        LockSupport.unpark(writerThread);
+    }
+
+    @Override
+    public void process(AudioBlock block) {
+        short[] slot = acquire();
+        if (slot == null) return; // counted as an overrun
+        System.arraycopy(block.samples, 0, slot, 0, block.length);
+        publish(block.length);
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    // Flushes every published block, stops the writer thread and closes the sink, which
+    // finalizes the file.
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        boolean interrupted = false;
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        try {
+            out.close();
+        } finally {
+            if (error != null) throw error;
+        }
+    }
+
+    public int getQueueDepth() {
+        return (int) (published.get() - consumed.get());
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getOverruns() {
+        return overruns;
+    }
+
+    public long getBlocksWritten() {
+        return blocksWritten;
+    }
+
+    // 16-bit PCM bytes handed to the sink; the file is smaller when the sink compresses.
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    // CPU time the writer thread used, known once close() has returned; -1 without a CpuClock.
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    private void drain() {
+        long next = consumed.get();
+        try {
+            while (true) {
+                if (next == published.get()) {
+                    // closed is only set after the last publish, so re-check before leaving
+                    if (closed && next == published.get()) break;
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    continue;
+                }
+                int slot = (int) (next & mask);
+                int length = lengths[slot];
+                out.write(blocks[slot], 0, length);
+                consumed.lazySet(++next);
+                blocksWritten++;
+                bytesWritten += length * 2;
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        cpuNanos = cpuClock.currentThreadCpuNanos();
+    }
+}
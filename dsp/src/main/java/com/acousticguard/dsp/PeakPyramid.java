@@ -0,0 +1,206 @@
+package com.acousticguard.dsp;
+
+import java.nio.FloatBuffer;
+
+// Min/max mipmap over the per-buffer amplitude track. Level 0 holds the samples themselves,
+// every level above halves the resolution, so any zoom level can be drawn by visiting about
+// one entry per pixel column instead of every sample of the session.
+public class PeakPyramid {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private float[][] mins = new float[1][];
+    private float[][] maxs = new float[1][];
+    private int[] sizes = new int[1];
+    private int levels = 1;
+    // Finest level present; non-zero only for overview pyramids built from stored peaks.
+    private int baseLevel = 0;
+
+    public PeakPyramid() {
+        mins[0] = new float[INITIAL_CAPACITY];
+        maxs[0] = mins[0]; // a single sample is its own min and max
+    }
+
+    public static PeakPyramid build(float[] samples, int count) {
+        PeakPyramid pyramid = new PeakPyramid();
+        pyramid.ensureCapacity(0, count);
+        System.arraycopy(samples, 0, pyramid.mins[0], 0, count);
+        pyramid.sizes[0] = count;
+        pyramid.rebuildLevels();
+        return pyramid;
+    }
+
+    // Overview of sampleCount samples that starts at an already reduced level, e.g. one of
+    // the peak levels stored in a SessionFile. Levels below it do not exist, so drawing falls
+    // back to the base level when zoomed in, and the overview cannot be appended to.
+    public static PeakPyramid fromLevel(int sampleCount, int level, FloatBuffer min, FloatBuffer max) {
+        PeakPyramid pyramid = new PeakPyramid();
+        int size = min.remaining();
+        pyramid.mins = new float[level + 1][];
+        pyramid.maxs = new float[level + 1][];
+        pyramid.sizes = new int[level + 1];
+        for (int l = 0; l < level; l++) pyramid.sizes[l] = (int) (((long) sampleCount + (1L << l) - 1) >> l);
+        pyramid.mins[level] = new float[Math.max(size, 1)];
+        pyramid.maxs[level] = new float[Math.max(size, 1)];
+        min.duplicate().get(pyramid.mins[level], 0, size);
+        max.duplicate().get(pyramid.maxs[level], 0, size);
+        pyramid.sizes[level] = size;
+        pyramid.levels = level + 1;
+        pyramid.baseLevel = level;
+        pyramid.rebuildLevels();
+        return pyramid;
+    }
+
+    // Appends one sample and updates the covering entry of every level, O(log n).
+    public void append(float value) {
+        if (baseLevel > 0) throw new IllegalStateException("overview pyramids are read-only");
+        int index = sizes[0];
+        ensureCapacity(0, index + 1);
+        mins[0][index] = value;
+        sizes[0] = index + 1;
+
+        for (int level = 1; sizes[level - 1] > 1; level++) {
+            if (level == levels) {
+                // the previous top level just reached two entries
+                addLevel();
+                downsample(level);
+                continue;
+            }
+            int parent = index >> level;
+            if (parent == sizes[level]) {
+                ensureCapacity(level, parent + 1);
+                mins[level][parent] = value;
+                maxs[level][parent] = value;
+                sizes[level] = parent + 1;
+            } else {
+                if (value < mins[level][parent]) mins[level][parent] = value;
+                if (value > maxs[level][parent]) maxs[level][parent] = value;
+            }
+        }
+    }
+
+    public int size() {
+        return sizes[0];
+    }
+
+    public float get(int index) {
+        return mins[0][index];
+    }
+
+    public boolean isOverview() {
+        return baseLevel > 0;
+    }
+
+    public int getLevelCount() {
+        return levels;
+    }
+
+    public int getLevelSize(int level) {
+        return sizes[level];
+    }
+
+    public float getMin(int level, int index) {
+        return mins[level][index];
+    }
+
+    public float getMax(int level, int index) {
+        return maxs[level][index];
+    }
+
+    // Finest available level whose entries each cover no more than samplesPerEntry samples.
+    public int levelFor(float samplesPerEntry) {
+        int level = baseLevel;
+        while (level + 1 < levels && (1 << (level + 1)) <= samplesPerEntry) level++;
+        return level;
+    }
+
+    // Min and max of up to count consecutive columns of samplesPerColumn samples each,
+    // starting at sample start, read from the given level. Returns the number of columns
+    // filled, fewer when the session ends inside the range.
+    public int decimate(int level, float start, float samplesPerColumn, int count, float[] min, float[] max) {
+        int total = sizes[0];
+        int levelSize = sizes[level];
+        float[] levelMin = mins[level];
+        float[] levelMax = maxs[level];
+        float entriesPerSample = 1f / (1 << level);
+        int c = 0;
+        for (; c < count; c++) {
+            float s0 = start + c * samplesPerColumn;
+            if (s0 >= total) break;
+            int i0 = (int) (s0 * entriesPerSample);
+            int i1 = Math.max(i0 + 1, (int) Math.ceil((s0 + samplesPerColumn) * entriesPerSample));
+            i1 = Math.min(i1, levelSize);
+            float lo = levelMin[i0];
+            float hi = levelMax[i0];
+            for (int i = i0 + 1; i < i1; i++) {
+                lo = Math.min(lo, levelMin[i]);
+                hi = Math.max(hi, levelMax[i]);
+            }
+            min[c] = lo;
+            max[c] = hi;
+        }
+        return c;
+    }
+
+    private void rebuildLevels() {
+        for (int level = baseLevel + 1; sizes[level - 1] > 1; level++) {
+            if (level == levels) addLevel();
+            downsample(level);
+        }
+    }
+
+    // Recomputes a whole level from the one below it.
+    private void downsample(int level) {
+        int childSize = sizes[level - 1];
+        int size = (childSize + 1) >> 1;
+        ensureCapacity(level, size);
+        float[] childMin = mins[level - 1];
+        float[] childMax = maxs[level - 1];
+        float[] min = mins[level];
+        float[] max = maxs[level];
+        for (int i = 0; i < size; i++) {
+            int a = i << 1;
+            int b = Math.min(a + 1, childSize - 1);
+            min[i] = Math.min(childMin[a], childMin[b]);
+            max[i] = Math.max(childMax[a], childMax[b]);
+        }
+        sizes[level] = size;
+    }
+
+    private void addLevel() {
+        int level = levels;
+        if (level == sizes.length) {
+            int n = level * 2;
+            float[][] newMins = new float[n][];
+            float[][] newMaxs = new float[n][];
+            int[] newSizes = new int[n];
+            System.arraycopy(mins, 0, newMins, 0, level);
+            System.arraycopy(maxs, 0, newMaxs, 0, level);
+            System.arraycopy(sizes, 0, newSizes, 0, level);
+            mins = newMins;
+            maxs = newMaxs;
+            sizes = newSizes;
+        }
+        int capacity = Math.max(16, mins[level - 1].length >> 1);
+        mins[level] = new float[capacity];
+        maxs[level] = new float[capacity];
+        sizes[level] = 0;
+        levels++;
+    }
+
+    private void ensureCapacity(int level, int required) {
+        float[] current = mins[level];
+        if (current.length >= required) return;
+        int capacity = Math.max(required, current.length * 2);
+        float[] grown = new float[capacity];
+        System.arraycopy(current, 0, grown, 0, sizes[level]);
+        mins[level] = grown;
+        if (level == 0) {
+            maxs[0] = grown;
+        } else {
+            float[] grownMax = new float[capacity];
+            System.arraycopy(maxs[level], 0, grownMax, 0, sizes[level]);
+            maxs[level] = grownMax;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.acousticguard.dsp;
+
+import java.util.Arrays;
+
+// A chain of stages over one reused AudioBlock. pump() reads a block from a BlockSource and
+// runs it through every stage in order, on the calling thread and without allocating; a stage
+// that should not hold up that thread can be wrapped in a QueuedStage.
+//
+// The pipeline numbers the blocks and keeps their time base. resetPosition() restarts both,
+// e.g. when a new segment begins; reset() also clears the stages' state, for a stream that
+// starts afresh such as a triggered clip. A pipeline is itself a Stage, so chains can nest.
+public class Pipeline implements Stage {
+
+    private final int sampleRate;
+    private final AudioBlock block;
+    private Stage[] stages = new Stage[0];
+    private int index;
+    private long position;
+
+    public Pipeline(int sampleRate, int blockSize) {
+        this.sampleRate = sampleRate;
+        this.block = new AudioBlock(blockSize);
+        block.sampleRate = sampleRate;
+    }
+
+    // Setup only, before the first block.
+    public Pipeline add(Stage stage) {
+        stages = Arrays.copyOf(stages, stages.length + 1);
+        stages[stages.length - 1] = stage;
+        return this;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getBlockSize() {
+        return block.samples.length;
+    }
+
+    // The block last processed, with everything the stages derived from it.
+    public AudioBlock getBlock() {
+        return block;
+    }
+
+    // Reads one block and processes it. Returns what the source returned; nothing is processed
+    // unless that is positive.
+    public int pump(BlockSource source) {
+        int read = source.read(block.samples, 0, block.samples.length);
+        if (read > 0) run(read);
+        return read;
+    }
+
+    // Processes samples from another buffer, e.g. audio captured before the pipeline was needed,
+    // in blocks of at most getBlockSize().
+    public void process(short[] samples, int offset, int length) {
+        while (length > 0) {
+            int n = Math.min(length, block.samples.length);
+            System.arraycopy(samples, offset, block.samples, 0, n);
+            run(n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    // As a stage of an outer chain: runs the stages on that chain's block as it is.
+    @Override
+    public void process(AudioBlock outer) {
+        for (Stage stage : stages) stage.process(outer);
+    }
+
+    @Override
+    public void finish() {
+        for (Stage stage : stages) stage.finish();
+    }
+
+    // The next block becomes block 0 at time 0.
+    public void resetPosition() {
+        index = 0;
+        position = 0;
+    }
+
+    // resetPosition(), and every stage starts over as on a new stream.
+    @Override
+    public void reset() {
+        resetPosition();
+        for (Stage stage : stages) stage.reset();
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    private void run(int length) {
+        AudioBlock b = block;
+        b.length = length;
+        b.index = index++;
+        b.position = position;
+        b.startMs = position * 1000 / sampleRate;
+        position += length;
+        b.endMs = position * 1000 / sampleRate;
+        for (Stage stage : stages) stage.process(b);
+    }
+}
@@ -0,0 +1,61 @@
+package com.acousticguard.dsp;
+
+// Ring of the most recent capture blocks, kept while triggered capture waits for a loud sound
+// so that a clip can start a few seconds before the trigger. The capture thread reads straight
+// into the next slot; the audio is copied once, into the clip's writer, when the gate trips.
+public class PreTriggerBuffer {
+
+    private final short[][] blocks;
+    private final int[] lengths;
+    private int head;   // slot the next block is read into
+    private int count;
+    private long samples;
+
+    public PreTriggerBuffer(int blockCount, int blockSize) {
+        this.blocks = new short[Math.max(1, blockCount)][blockSize];
+        this.lengths = new int[blocks.length];
+    }
+
+    // The slot to read the next block into; once full it is the oldest block, which commit()
+    // then drops.
+    public short[] next() {
+        return blocks[head];
+    }
+
+    public void commit(int length) {
+        if (count == blocks.length) {
+            samples -= lengths[head];
+        } else {
+            count++;
+        }
+        lengths[head] = length;
+        samples += length;
+        head = (head + 1) % blocks.length;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getSampleCount() {
+        return samples;
+    }
+
+    // i-th block from the oldest one.
+    public short[] get(int i) {
+        return blocks[slot(i)];
+    }
+
+    public int length(int i) {
+        return lengths[slot(i)];
+    }
+
+    public void clear() {
+        count = 0;
+        samples = 0;
+    }
+
+    private int slot(int i) {
+        return (head - count + i + blocks.length) % blocks.length;
+    }
+}
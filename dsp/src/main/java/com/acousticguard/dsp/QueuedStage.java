@@ -0,0 +1,106 @@
+package com.acousticguard.dsp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Runs a stage on its own worker thread behind a single-producer/single-consumer ring of
+// preallocated blocks, so expensive work does not hold up the thread that reads the audio.
+// process() copies the block into a free slot; when the worker has fallen a full ring behind,
+// the block is dropped and counted instead, as PcmBlockWriter does with audio. The downstream
+// stage sees the blocks in order and is reset and finished on the worker thread, each after
+// the blocks queued before it.
+public class QueuedStage implements Stage {
+
+    private static final long IDLE_PARK_NANOS = 5_000_000L;
+
+    private final Stage downstream;
+    private final AudioBlock[] slots;
+    private final boolean[] resetBefore; // per slot: reset downstream before processing it
+    private final int mask;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+
+    private final Thread worker;
+    private volatile boolean closed;
+    private volatile long dropped; // written only by the producer
+    private boolean pendingReset; // producer only: the next queued block starts a new stream
+    private volatile boolean resetAtClose;
+
+    public QueuedStage(Stage downstream, int blockSize, int ringSize, String threadName) {
+        if (Integer.bitCount(ringSize) != 1) throw new IllegalArgumentException("ringSize must be a power of two");
+        this.downstream = downstream;
+        this.slots = new AudioBlock[ringSize];
+        this.resetBefore = new boolean[ringSize];
+        for (int i = 0; i < ringSize; i++) slots[i] = new AudioBlock(blockSize);
+        this.mask = ringSize - 1;
+        this.worker = new Thread(this::drain, threadName);
+        worker.start();
+    }
+
+    @Override
+    public void process(AudioBlock block) {
+        long seq = published.get();
+        if (seq - consumed.get() > mask) {
+            dropped++;
+            return;
+        }
+        int slot = (int) (seq & mask);
+        slots[slot].copyFrom(block);
+        resetBefore[slot] = pendingReset;
+        pendingReset = false;
+        published.lazySet(seq + 1);
+        LockSupport.unpark(worker);
+    }
+
+    // Travels with the next queued block, so downstream is reset only once the blocks before it
+    // have been processed; while blocks are being dropped it waits for the next one that fits.
+    @Override
+    public void reset() {
+        pendingReset = true;
+    }
+
+    // Waits until the worker has processed every queued block and finished the downstream stage.
+    @Override
+    public void finish() {
+        resetAtClose = pendingReset;
+        pendingReset = false;
+        closed = true;
+        LockSupport.unpark(worker);
+        boolean interrupted = false;
+        while (worker.isAlive()) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public int getQueueDepth() {
+        return (int) (published.get() - consumed.get());
+    }
+
+    private void drain() {
+        long next = consumed.get();
+        while (true) {
+            if (next == published.get()) {
+                // closed is only set after the last publish, so re-check before leaving
+                if (closed && next == published.get()) break;
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            int slot = (int) (next & mask);
+            if (resetBefore[slot]) downstream.reset();
+            downstream.process(slots[slot]);
+            consumed.lazySet(++next);
+        }
+        if (resetAtClose) downstream.reset();
+        downstream.finish();
+    }
+}
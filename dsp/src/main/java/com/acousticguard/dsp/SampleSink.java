@@ -0,0 +1,11 @@
+package com.acousticguard.dsp;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// Where recorded samples end up: WavFileWriter or LosslessWriter. PcmBlockWriter calls it from
+// its writer thread, so implementations may take their time encoding.
+public interface SampleSink extends Closeable {
+
+    void write(short[] samples, int offset, int length) throws IOException;
+}
@@ -0,0 +1,35 @@
+package com.acousticguard.dsp;
+
+// Same categories and labels as the web build's SoundType (types.ts).
+public enum SoundType {
+    ENVIRONMENT("Environment"),
+    STRUCTURE("Structure/Impact"), // Low frequency dominance
+    VOICE("Voice/Mid Freq");
+
+    // Heuristic thresholds on the share of spectral energy per band
+    static final float STRUCTURE_LOW_RATIO = 0.4f;
+    static final float VOICE_MID_RATIO = 0.5f;
+
+    public final String label;
+
+    SoundType(String label) {
+        this.label = label;
+    }
+
+    // low: below LOW_FREQ_BOUND, mid: up to HIGH_FREQ_BOUND, high: the rest (see SpectralAnalyzer).
+    // Structure when the low band holds more than STRUCTURE_LOW_RATIO of the energy, Voice when
+    // the speech band (mid) holds more than VOICE_MID_RATIO. Anything else, including sounds
+    // whose energy sits above HIGH_FREQ_BOUND (hiss, beeps, white noise), is Environment.
+    public static SoundType classify(double low, double mid, double high) {
+        double total = low + mid + high;
+        if (total <= 0) return ENVIRONMENT;
+        if (low / total > STRUCTURE_LOW_RATIO) return STRUCTURE;
+        if (mid / total > VOICE_MID_RATIO) return VOICE;
+        return ENVIRONMENT;
+    }
+
+    public static SoundType fromOrdinal(int ordinal) {
+        SoundType[] values = values();
+        return ordinal >= 0 && ordinal < values.length ? values[ordinal] : ENVIRONMENT;
+    }
+}
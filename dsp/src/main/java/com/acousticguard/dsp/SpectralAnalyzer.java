@@ -0,0 +1,176 @@
+package com.acousticguard.dsp;
+
+// Streaming spectral band meter for the capture path. Samples are cut into Hann-windowed
+// FFT_SIZE frames with 50% overlap; each frame goes through a radix-2 real FFT (computed as a
+// half-size complex FFT plus a split step) and its power is summed into three bands:
+// below LOW_FREQ_BOUND, up to HIGH_FREQ_BOUND, and above. Every table and work buffer is
+// allocated up front, so process() never allocates.
+public class SpectralAnalyzer implements Stage {
+
+    public static final int FFT_SIZE = 2048;
+    public static final int HOP_SIZE = FFT_SIZE / 2;
+    public static final float LOW_FREQ_BOUND = 200f;   // Hz
+    public static final float HIGH_FREQ_BOUND = 2000f; // Hz
+
+    private static final int HALF = FFT_SIZE / 2;
+
+    private final float[] window = new float[FFT_SIZE];
+    private final float[] history = new float[FFT_SIZE]; // circular input buffer
+    private int historyPos = 0;
+    private int pending = 0;   // samples since the last frame
+    private int filled = 0;
+
+    // Half-size complex FFT work arrays and tables
+    private final float[] re = new float[HALF];
+    private final float[] im = new float[HALF];
+    private final float[] cos = new float[HALF];
+    private final float[] sin = new float[HALF];
+    private final int[] bitReverse = new int[HALF];
+
+    private final int lowBin;
+    private final int highBin;
+
+    // Band powers accumulated since the last drain
+    private double lowEnergy;
+    private double midEnergy;
+    private double highEnergy;
+    private int frames;
+
+    public SpectralAnalyzer(int sampleRate) {
+        for (int i = 0; i < FFT_SIZE; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / FFT_SIZE));
+        }
+        for (int i = 0; i < HALF; i++) {
+            // twiddles for the full-size transform: e^(-2*pi*i*k/N), k < N/2
+            cos[i] = (float) Math.cos(2 * Math.PI * i / FFT_SIZE);
+            sin[i] = (float) -Math.sin(2 * Math.PI * i / FFT_SIZE);
+        }
+        int bits = Integer.numberOfTrailingZeros(HALF);
+        for (int i = 0; i < HALF; i++) bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+
+        float binHz = (float) sampleRate / FFT_SIZE;
+        lowBin = (int) Math.ceil(LOW_FREQ_BOUND / binHz);
+        highBin = (int) Math.ceil(HIGH_FREQ_BOUND / binHz);
+    }
+
+    public void process(short[] samples, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            history[historyPos] = samples[i] / 32768f;
+            historyPos = (historyPos + 1) & (FFT_SIZE - 1);
+            if (filled < FFT_SIZE) filled++;
+            if (++pending >= HOP_SIZE && filled == FFT_SIZE) {
+                pending = 0;
+                analyzeFrame();
+            }
+        }
+    }
+
+    // As a pipeline stage: the band energies of the frames completed during the block.
+    @Override
+    public void process(AudioBlock block) {
+        process(block.samples, 0, block.length);
+        block.lowEnergy = lowEnergy;
+        block.midEnergy = midEnergy;
+        block.highEnergy = highEnergy;
+        resetBands();
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    public double getLowEnergy() {
+        return lowEnergy;
+    }
+
+    public double getMidEnergy() {
+        return midEnergy;
+    }
+
+    public double getHighEnergy() {
+        return highEnergy;
+    }
+
+    public int getFrameCount() {
+        return frames;
+    }
+
+    // Starts a new accumulation period; the getters above cover frames since the last reset.
+    public void resetBands() {
+        lowEnergy = 0;
+        midEnergy = 0;
+        highEnergy = 0;
+        frames = 0;
+    }
+
+    @Override
+    public void reset() {
+        resetBands();
+        historyPos = 0;
+        pending = 0;
+        filled = 0;
+    }
+
+    private void analyzeFrame() {
+        // Pack the windowed real frame into a half-size complex sequence, in bit-reversed order.
+        int start = historyPos; // oldest sample
+        for (int n = 0; n < HALF; n++) {
+            int r = bitReverse[n];
+            re[r] = history[(start + 2 * n) & (FFT_SIZE - 1)] * window[2 * n];
+            im[r] = history[(start + 2 * n + 1) & (FFT_SIZE - 1)] * window[2 * n + 1];
+        }
+        fft();
+
+        // Split: X[k] = (Z[k] + conj Z[M-k]) / 2 - i W^k (Z[k] - conj Z[M-k]) / 2
+        double low = 0, mid = 0, high = 0;
+        for (int k = 0; k <= HALF; k++) {
+            int a = k & (HALF - 1);
+            int b = (HALF - k) & (HALF - 1);
+            float zr = re[a], zi = im[a];
+            float cr = re[b], ci = -im[b];
+            float er = (zr + cr) * 0.5f, ei = (zi + ci) * 0.5f;
+            float or = (zi - ci) * 0.5f, oi = -(zr - cr) * 0.5f; // -i * (Z - conj Z') / 2
+            float wr, wi;
+            if (k < HALF) {
+                wr = cos[k];
+                wi = sin[k];
+            } else {
+                wr = -1f;
+                wi = 0f;
+            }
+            float xr = er + wr * or - wi * oi;
+            float xi = ei + wr * oi + wi * or;
+            double power = xr * xr + xi * xi;
+            if (k > 0 && k < HALF) power *= 2; // fold in the negative frequencies
+            if (k < lowBin) low += power;
+            else if (k < highBin) mid += power;
+            else high += power;
+        }
+        lowEnergy += low;
+        midEnergy += mid;
+        highEnergy += high;
+        frames++;
+    }
+
+    // In-place iterative radix-2 FFT of size HALF on bit-reversed input.
+    private void fft() {
+        for (int size = 2; size <= HALF; size <<= 1) {
+            int halfSize = size >> 1;
+            int step = FFT_SIZE / size; // twiddle stride in the full-size tables
+            for (int i = 0; i < HALF; i += size) {
+                for (int j = 0; j < halfSize; j++) {
+                    float wr = cos[j * step];
+                    float wi = sin[j * step];
+                    int p = i + j;
+                    int q = p + halfSize;
+                    float tr = wr * re[q] - wi * im[q];
+                    float ti = wr * im[q] + wi * re[q];
+                    re[q] = re[p] - tr;
+                    im[q] = im[p] - ti;
+                    re[p] += tr;
+                    im[p] += ti;
+                }
+            }
+        }
+    }
+}
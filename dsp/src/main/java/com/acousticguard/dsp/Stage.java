@@ -0,0 +1,16 @@
+package com.acousticguard.dsp;
+
+// One step of a Pipeline: a processor that reads a block and adds what it derives to it, or a
+// sink that passes the block on to storage, statistics or another thread. process() sees the
+// blocks of a stream in order and on one thread; finish() follows the last one.
+public interface Stage {
+
+    void process(AudioBlock block);
+
+    void finish();
+
+    // The next block does not continue the previous ones (e.g. the microphone was released):
+    // forget what was carried over between blocks, such as filter state or half a frame.
+    default void reset() {
+    }
+}
@@ -0,0 +1,88 @@
+package com.acousticguard.dsp;
+
+import java.util.Arrays;
+
+// Deterministic test signal for running pipelines off-device: a sine at a steady amplitude,
+// optionally louder during given sample ranges, and optionally ending after a number of
+// samples. The sine comes from a rotating phasor, so generating it costs far less than the
+// stages it feeds.
+public class SyntheticSource implements BlockSource {
+
+    private final double cosStep;
+    private final double sinStep;
+    private final double amplitude;
+    private long[] bursts = new long[0]; // start, end pairs in samples
+    private double[] burstAmplitudes = new double[0];
+    private long limit = Long.MAX_VALUE;
+
+    private double re = 1;
+    private double im = 0;
+    private long position;
+
+    public SyntheticSource(int sampleRate, double frequency, double amplitude) {
+        double step = 2 * Math.PI * frequency / sampleRate;
+        this.cosStep = Math.cos(step);
+        this.sinStep = Math.sin(step);
+        this.amplitude = amplitude;
+    }
+
+    // Uses burstAmplitude instead of the steady amplitude for samples [start, end).
+    public SyntheticSource addBurst(long start, long end, double burstAmplitude) {
+        int n = burstAmplitudes.length;
+        bursts = Arrays.copyOf(bursts, 2 * n + 2);
+        burstAmplitudes = Arrays.copyOf(burstAmplitudes, n + 1);
+        bursts[2 * n] = start;
+        bursts[2 * n + 1] = end;
+        burstAmplitudes[n] = burstAmplitude;
+        return this;
+    }
+
+    // Ends the stream after the given number of samples; read() then returns -1.
+    public SyntheticSource limit(long samples) {
+        this.limit = samples;
+        return this;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int length) {
+        if (position >= limit) return -1;
+        int n = (int) Math.min(length, limit - position);
+        double amp = amplitudeAt(position);
+        long nextChange = nextChangeAfter(position);
+        for (int i = 0; i < n; i++) {
+            if (position == nextChange) {
+                amp = amplitudeAt(position);
+                nextChange = nextChangeAfter(position);
+            }
+            buffer[offset + i] = (short) (amp * im);
+            double r = re * cosStep - im * sinStep;
+            im = re * sinStep + im * cosStep;
+            re = r;
+            position++;
+        }
+        // keep the phasor on the unit circle despite rounding
+        double scale = 1 / Math.sqrt(re * re + im * im);
+        re *= scale;
+        im *= scale;
+        return n;
+    }
+
+    private double amplitudeAt(long sample) {
+        for (int i = 0; i < burstAmplitudes.length; i++) {
+            if (sample >= bursts[2 * i] && sample < bursts[2 * i + 1]) return burstAmplitudes[i];
+        }
+        return amplitude;
+    }
+
+    private long nextChangeAfter(long sample) {
+        long next = Long.MAX_VALUE;
+        for (long edge : bursts) {
+            if (edge > sample && edge < next) next = edge;
+        }
+        return next;
+    }
+}
@@ -0,0 +1,163 @@
+package com.acousticguard.dsp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+// WAV header layout shared by the streaming writer, crash recovery and readers.
+//
+// Recordings are written with an 80 byte header: RIFF, a 28 byte JUNK chunk, fmt and data.
+// The JUNK chunk reserves room for an RF64 ds64 chunk (EBU Tech 3306), so a file that grows
+// past the 4 GB RIFF limit is upgraded in place when its header is patched.
+public final class WavFile {
+
+    public static final int HEADER_SIZE = 80;
+
+    private static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+    private static final int DS64_BODY_SIZE = 28;
+
+    private WavFile() {}
+
+    public static class Info {
+        public int sampleRate;
+        public int channels;
+        public int bitsPerSample;
+        public long dataOffset;
+        public long dataLength;   // as declared by the header
+        public long fileLength;
+
+        public int getBlockAlign() {
+            return channels * bitsPerSample / 8;
+        }
+
+        // Length of the data actually present on disk, whole frames only.
+        public long getAvailableDataLength() {
+            long onDisk = Math.max(0, fileLength - dataOffset);
+            long align = Math.max(1, getBlockAlign());
+            return Math.min(dataLength, onDisk - onDisk % align);
+        }
+
+        public long getFrameCount() {
+            return getAvailableDataLength() / Math.max(1, getBlockAlign());
+        }
+    }
+
+    // Writes a complete 80 byte header at offset 0 describing dataLength bytes of PCM.
+    // Files that no longer fit a 32 bit RIFF size become RF64 with the sizes in ds64.
+    public static void writeHeader(FileChannel channel, int sampleRate, int channels, int bitsPerSample, long dataLength) throws IOException {
+        ByteBuffer header = header(sampleRate, channels, bitsPerSample, dataLength);
+        long position = 0;
+        while (header.hasRemaining()) position += channel.write(header, position);
+    }
+
+    private static ByteBuffer header(int sampleRate, int channels, int bitsPerSample, long dataLength) {
+        int blockAlign = channels * bitsPerSample / 8;
+        long riffSize = HEADER_SIZE - 8 + dataLength;
+        boolean rf64 = riffSize > MAX_RIFF_SIZE;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(rf64 ? ascii("RF64") : ascii("RIFF"));
+        header.putInt(rf64 ? -1 : (int) riffSize);
+        header.put(ascii("WAVE"));
+        header.put(rf64 ? ascii("ds64") : ascii("JUNK"));
+        header.putInt(DS64_BODY_SIZE);
+        if (rf64) {
+            header.putLong(riffSize);
+            header.putLong(dataLength);
+            header.putLong(dataLength / blockAlign);
+            header.putInt(0); // no table entries
+        } else {
+            header.put(new byte[DS64_BODY_SIZE]);
+        }
+        header.put(ascii("fmt "));
+        header.putInt(16);
+        header.putShort((short) 1); // PCM
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * blockAlign);
+        header.putShort((short) blockAlign);
+        header.putShort((short) bitsPerSample);
+        header.put(ascii("data"));
+        header.putInt(rf64 ? -1 : (int) dataLength);
+        header.flip();
+        return header;
+    }
+
+    // Parses RIFF/RF64 headers, including the plain 44 byte layout of older recordings.
+    // Returns null when the file is not a PCM WAV this app can read.
+    public static Info readInfo(FileChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+        long fileLength = channel.size();
+        if (!readFully(channel, buf, 0, 12)) return null;
+        int riffId = buf.getInt(0);
+        if ((riffId != fourCc("RIFF") && riffId != fourCc("RF64")) || buf.getInt(8) != fourCc("WAVE")) return null;
+
+        Info info = new Info();
+        info.fileLength = fileLength;
+        long ds64DataLength = -1;
+        boolean hasFormat = false;
+        long position = 12;
+        while (position + 8 <= fileLength) {
+            if (!readFully(channel, buf, position, 8)) return null;
+            int id = buf.getInt(0);
+            long size = buf.getInt(4) & 0xFFFFFFFFL;
+            long body = position + 8;
+            if (id == fourCc("ds64")) {
+                if (!readFully(channel, buf, body, 16)) return null;
+                ds64DataLength = buf.getLong(8);
+            } else if (id == fourCc("fmt ")) {
+                if (!readFully(channel, buf, body, 16)) return null;
+                if (buf.getShort(0) != 1) return null;
+                info.channels = buf.getShort(2);
+                info.sampleRate = buf.getInt(4);
+                info.bitsPerSample = buf.getShort(14);
+                hasFormat = true;
+            } else if (id == fourCc("data")) {
+                if (!hasFormat) return null;
+                info.dataOffset = body;
+                info.dataLength = (size == MAX_RIFF_SIZE && ds64DataLength >= 0) ? ds64DataLength : size;
+                return info;
+            }
+            position = body + size + (size & 1);
+        }
+        return null;
+    }
+
+    // Fixes the size fields of a recording that was never finalized (e.g. the app was killed
+    // mid-session): trailing partial frames are dropped and the header is rewritten to cover
+    // everything on disk. Returns true if the file was changed.
+    public static boolean repair(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            Info info = readInfo(channel);
+            if (info == null || info.dataOffset != HEADER_SIZE) return false;
+            long onDisk = info.fileLength - info.dataOffset;
+            long complete = onDisk - onDisk % Math.max(1, info.getBlockAlign());
+            if (complete == info.dataLength && complete == onDisk) return false;
+            channel.truncate(info.dataOffset + complete);
+            writeHeader(channel, info.sampleRate, info.channels, info.bitsPerSample, complete);
+            return true;
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buf, long position, int length) throws IOException {
+        buf.clear();
+        buf.limit(length);
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) return false;
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String s) {
+        return new byte[]{(byte) s.charAt(0), (byte) s.charAt(1), (byte) s.charAt(2), (byte) s.charAt(3)};
+    }
+
+    private static int fourCc(String s) {
+        return (s.charAt(0) & 0xff) | (s.charAt(1) & 0xff) << 8 | (s.charAt(2) & 0xff) << 16 | (s.charAt(3) & 0xff) << 24;
+    }
+}
@@ -0,0 +1,65 @@
+package com.acousticguard.dsp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+// Streams PCM straight into a WAV file: a placeholder header is written up front, data is
+// appended as it arrives and close() only patches the size fields, whatever the length.
+public class WavFileWriter implements SampleSink {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int sampleRate;
+    private final int channels;
+    private final int bitsPerSample;
+    private long dataLength;
+    // Little-endian staging buffer for write(short[]), grown to the largest block seen.
+    private ByteBuffer bytes = ByteBuffer.allocateDirect(0);
+    private ShortBuffer shorts = bytes.asShortBuffer();
+
+    public WavFileWriter(File path, int sampleRate, int channels, int bitsPerSample) throws IOException {
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = file.getChannel();
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitsPerSample = bitsPerSample;
+        channel.truncate(0);
+        WavFile.writeHeader(channel, sampleRate, channels, bitsPerSample, 0);
+        channel.position(WavFile.HEADER_SIZE);
+    }
+
+    public void write(ByteBuffer pcm) throws IOException {
+        while (pcm.hasRemaining()) dataLength += channel.write(pcm);
+    }
+
+    @Override
+    public void write(short[] samples, int offset, int length) throws IOException {
+        if (bytes.capacity() < length * 2) {
+            bytes = ByteBuffer.allocateDirect(length * 2).order(ByteOrder.LITTLE_ENDIAN);
+            shorts = bytes.asShortBuffer();
+        }
+        shorts.clear();
+        shorts.put(samples, offset, length);
+        bytes.clear();
+        bytes.limit(length * 2);
+        write(bytes);
+    }
+
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            WavFile.writeHeader(channel, sampleRate, channels, bitsPerSample, dataLength);
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.acousticguard.dsp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// Bit-exact round trips through the frame codec and the file format, seeking, and repair of a
+// recording that was cut off mid-frame.
+public class LosslessCodecTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int FRAME = LosslessFile.FRAME_SAMPLES;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void silenceRoundTrips() {
+        assertFrameRoundTrips(new short[FRAME]);
+    }
+
+    @Test
+    public void fullScaleSquareRoundTrips() {
+        short[] samples = new short[FRAME];
+        for (int i = 0; i < samples.length; i++) samples[i] = (i / 50) % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+        assertFrameRoundTrips(samples);
+    }
+
+    @Test
+    public void whiteNoiseRoundTrips() {
+        assertFrameRoundTrips(noise(FRAME, 3));
+    }
+
+    // Short frames get fewer partitions, and those of MAX_ORDER samples or less no predictor.
+    @Test
+    public void shortFramesRoundTrip() {
+        short[] samples = noise(FRAME, 4);
+        for (int n : new int[] {1, 2, LosslessCodec.MAX_ORDER, LosslessCodec.MAX_ORDER + 1, 17, 100, 1000, FRAME - 1}) {
+            assertFrameRoundTrips(Arrays.copyOf(samples, n));
+        }
+    }
+
+    @Test
+    public void fileRoundTripsWithShortFinalFrame() throws IOException {
+        short[] samples = signal(3 * FRAME + 123);
+        File file = write(samples, 1000);
+        try (LosslessReader reader = LosslessReader.open(file)) {
+            LosslessFile.Info info = reader.getInfo();
+            assertTrue(info.closed);
+            assertEquals(4, info.frameCount);
+            assertEquals(samples.length, info.sampleCount);
+            assertArrayEquals(samples, readAll(reader));
+        }
+    }
+
+    @Test
+    public void seekLandsOnTheRequestedSample() throws IOException {
+        short[] samples = signal(5 * FRAME + 77);
+        File file = write(samples, 777);
+        Random random = new Random(5);
+        short[] buffer = new short[300];
+        try (LosslessReader reader = LosslessReader.open(file)) {
+            long[] targets = new long[40];
+            targets[0] = 0;
+            targets[1] = FRAME;
+            targets[2] = FRAME - 1;
+            targets[3] = samples.length - 1;
+            for (int i = 4; i < targets.length; i++) targets[i] = random.nextInt(samples.length);
+            for (long target : targets) {
+                reader.seek(target);
+                int n = reader.read(buffer, 0, buffer.length);
+                int expected = (int) Math.min(buffer.length, samples.length - target);
+                assertEquals(expected, n);
+                for (int i = 0; i < n; i++) assertEquals("sample " + (target + i), samples[(int) target + i], buffer[i]);
+            }
+        }
+    }
+
+    // Cutting into the last frame also drops the seek table: repair() must rebuild it from the
+    // frame prefixes, leave the torn frame out and keep every complete frame bit-exact.
+    @Test
+    public void repairKeepsCompleteFramesOfATruncatedFile() throws IOException {
+        short[] samples = signal(4 * FRAME);
+        File file = write(samples, FRAME);
+        long lastFrame;
+        try (LosslessReader reader = LosslessReader.open(file)) {
+            lastFrame = reader.getInfo().frameOffsets[3];
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(lastFrame + 100);
+        }
+
+        assertTrue(LosslessFile.repair(file));
+        assertEquals(lastFrame + 4 + 3 * 8, file.length());
+        assertFalse(LosslessFile.repair(file));
+        try (LosslessReader reader = LosslessReader.open(file)) {
+            LosslessFile.Info info = reader.getInfo();
+            assertTrue(info.closed);
+            assertEquals(3, info.frameCount);
+            assertEquals(3 * FRAME, info.sampleCount);
+            assertArrayEquals(Arrays.copyOf(samples, 3 * FRAME), readAll(reader));
+        }
+    }
+
+    // A file that was never closed reads back up to the frame being gathered.
+    @Test
+    public void unclosedFileReadsByScanning() throws IOException {
+        short[] samples = signal(2 * FRAME + 10);
+        File file = folder.newFile("open" + LosslessFile.EXTENSION);
+        LosslessWriter writer = new LosslessWriter(file, SAMPLE_RATE);
+        writer.write(samples, 0, samples.length);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            LosslessFile.Info info = LosslessFile.readInfo(raf.getChannel());
+            assertFalse(info.closed);
+            assertEquals(2, info.frameCount);
+            FileChannel channel = raf.getChannel();
+            assertArrayEquals(Arrays.copyOf(samples, 2 * FRAME), readAll(new LosslessReader(channel, info)));
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void assertFrameRoundTrips(short[] samples) {
+        LosslessCodec codec = new LosslessCodec(FRAME);
+        byte[] encoded = new byte[LosslessCodec.maxFrameBytes(samples.length) + 3];
+        int length = codec.encode(samples, 0, samples.length, encoded, 3);
+        assertTrue(length <= LosslessCodec.maxFrameBytes(samples.length));
+        assertEquals(length, LosslessCodec.frameLength(encoded, 3));
+        assertEquals(samples.length, LosslessCodec.frameSamples(encoded, 3));
+        short[] decoded = new short[FRAME];
+        assertEquals(samples.length, codec.decode(encoded, 3, decoded));
+        assertArrayEquals(samples, Arrays.copyOf(decoded, samples.length));
+    }
+
+    // Writes samples in chunks of the given size, so frames are gathered across writes.
+    private File write(short[] samples, int chunk) throws IOException {
+        File file = folder.newFile("session" + LosslessFile.EXTENSION);
+        LosslessWriter writer = new LosslessWriter(file, SAMPLE_RATE);
+        for (int i = 0; i < samples.length; i += chunk) writer.write(samples, i, Math.min(chunk, samples.length - i));
+        assertEquals(samples.length, writer.getSampleCount());
+        writer.close();
+        return file;
+    }
+
+    private static short[] readAll(LosslessReader reader) {
+        short[] out = new short[0];
+        short[] buffer = new short[1000];
+        int n;
+        while ((n = reader.read(buffer, 0, buffer.length)) > 0) {
+            int size = out.length;
+            out = Arrays.copyOf(out, size + n);
+            System.arraycopy(buffer, 0, out, size, n);
+        }
+        return out;
+    }
+
+    private static short[] noise(int n, long seed) {
+        Random random = new Random(seed);
+        short[] samples = new short[n];
+        for (int i = 0; i < n; i++) samples[i] = (short) random.nextInt();
+        return samples;
+    }
+
+    // A tone with a quiet stretch and a clipped burst, so frames pick different predictors.
+    private static short[] signal(int n) {
+        Random random = new Random(6);
+        short[] samples = new short[n];
+        for (int i = 0; i < n; i++) {
+            double v = 0.3 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE) + 0.01 * random.nextGaussian();
+            if (i % 10000 < 1000) v *= 0.01;
+            else if (i % 10000 > 9000) v *= 5;
+            samples[i] = (short) Math.max(-32768, Math.min(32767, Math.round(v * 32767)));
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,115 @@
+package com.acousticguard.dsp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Stages behind a QueuedStage must see the same blocks, in the same order, as when they run
+// inline on the pipeline's thread, and resets in their place among them.
+public class QueuedStageTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int BLOCK_SIZE = 1024;
+    // Fewer blocks than ring slots, so the queue cannot overflow however the worker is scheduled.
+    private static final int RING_SIZE = 256;
+    private static final long SAMPLES = 200L * BLOCK_SIZE + 300;
+
+    @Test
+    public void queuedStagesSeeTheInlineBlocksInOrder() {
+        Recorder inline = new Recorder();
+        run(new Pipeline(SAMPLE_RATE, BLOCK_SIZE)
+                .add(new LevelMeter(SAMPLE_RATE, true))
+                .add(new SpectralAnalyzer(SAMPLE_RATE))
+                .add(inline));
+
+        Recorder queued = new Recorder();
+        QueuedStage stage = new QueuedStage(new Pipeline(SAMPLE_RATE, BLOCK_SIZE)
+                .add(new LevelMeter(SAMPLE_RATE, true))
+                .add(new SpectralAnalyzer(SAMPLE_RATE))
+                .add(queued), BLOCK_SIZE, RING_SIZE, "queued-stage-test");
+        run(new Pipeline(SAMPLE_RATE, BLOCK_SIZE).add(stage));
+
+        assertEquals(0, stage.getDropped());
+        assertEquals(0, stage.getQueueDepth());
+        assertTrue(inline.finished);
+        assertTrue(queued.finished);
+        assertEquals(201, inline.blocks.size());
+        assertEquals(inline.blocks.size(), queued.blocks.size());
+        for (int i = 0; i < inline.blocks.size(); i++) {
+            AudioBlock a = inline.blocks.get(i);
+            AudioBlock b = queued.blocks.get(i);
+            assertEquals(i, b.index);
+            assertEquals(a.position, b.position);
+            assertEquals(a.length, b.length);
+            assertEquals(a.startMs, b.startMs);
+            assertEquals(a.endMs, b.endMs);
+            assertArrayEquals(a.samples, b.samples);
+            assertEquals(a.level, b.level, 0f);
+            assertEquals(a.statsLevel, b.statsLevel, 0f);
+            assertEquals(a.lowEnergy, b.lowEnergy, 0.0);
+            assertEquals(a.midEnergy, b.midEnergy, 0.0);
+            assertEquals(a.highEnergy, b.highEnergy, 0.0);
+        }
+    }
+
+    // A reset reaches downstream on the worker, between the blocks queued before and after it.
+    @Test
+    public void resetFollowsTheBlocksQueuedBeforeIt() {
+        Recorder recorder = new Recorder();
+        QueuedStage stage = new QueuedStage(recorder, BLOCK_SIZE, RING_SIZE, "queued-stage-test");
+        Pipeline pipeline = new Pipeline(SAMPLE_RATE, BLOCK_SIZE).add(stage);
+        SyntheticSource source = new SyntheticSource(SAMPLE_RATE, 440, 0.05);
+        for (int i = 0; i < 30; i++) pipeline.pump(source);
+        pipeline.reset();
+        for (int i = 0; i < 20; i++) pipeline.pump(source);
+        pipeline.reset();
+        pipeline.finish();
+
+        assertEquals(0, stage.getDropped());
+        assertEquals(50, recorder.blocks.size());
+        assertEquals(Arrays.asList(30, 50), recorder.resets);
+        assertEquals(0, recorder.blocks.get(30).index);
+        for (String thread : recorder.resetThreads) assertEquals("queued-stage-test", thread);
+    }
+
+    private static void run(Pipeline pipeline) {
+        SyntheticSource source = new SyntheticSource(SAMPLE_RATE, 440, 0.05)
+                .addBurst(50L * BLOCK_SIZE, 60L * BLOCK_SIZE, 0.8)
+                .limit(SAMPLES);
+        while (pipeline.pump(source) > 0) {
+        }
+        pipeline.finish();
+    }
+
+    // Keeps a copy of every block it is given.
+    private static class Recorder implements Stage {
+        final List<AudioBlock> blocks = new ArrayList<>();
+        final List<Integer> resets = new ArrayList<>(); // blocks seen before each reset
+        final List<String> resetThreads = new ArrayList<>();
+        boolean finished;
+
+        @Override
+        public void process(AudioBlock block) {
+            AudioBlock copy = new AudioBlock(block.length);
+            copy.copyFrom(block);
+            blocks.add(copy);
+        }
+
+        @Override
+        public void finish() {
+            finished = true;
+        }
+
+        @Override
+        public void reset() {
+            resets.add(blocks.size());
+            resetThreads.add(Thread.currentThread().getName());
+        }
+    }
+}
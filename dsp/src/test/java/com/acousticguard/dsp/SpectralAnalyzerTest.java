@@ -0,0 +1,143 @@
+package com.acousticguard.dsp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+// Band powers of the split real FFT against a naive DFT of the same windowed frames, and the
+// classification of synthetic tones and noise.
+public class SpectralAnalyzerTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int N = SpectralAnalyzer.FFT_SIZE;
+
+    @Test
+    public void bandPowersMatchNaiveDft() {
+        Random random = new Random(1);
+        // three overlapping frames of tones in every band plus noise
+        short[] samples = new short[N + 2 * SpectralAnalyzer.HOP_SIZE];
+        for (int i = 0; i < samples.length; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            double v = 0.3 * Math.sin(2 * Math.PI * 90 * t) + 0.2 * Math.sin(2 * Math.PI * 1100 * t)
+                    + 0.1 * Math.sin(2 * Math.PI * 7000 * t) + 0.05 * random.nextGaussian();
+            samples[i] = (short) Math.max(-32768, Math.min(32767, Math.round(v * 32767)));
+        }
+        SpectralAnalyzer analyzer = new SpectralAnalyzer(SAMPLE_RATE);
+        analyzer.process(samples, 0, samples.length);
+        assertEquals(3, analyzer.getFrameCount());
+
+        double[] expected = new double[3];
+        for (int start = 0; start + N <= samples.length; start += SpectralAnalyzer.HOP_SIZE) {
+            double[] bands = naiveBands(samples, start);
+            for (int b = 0; b < 3; b++) expected[b] += bands[b];
+        }
+        assertRelative(expected[0], analyzer.getLowEnergy());
+        assertRelative(expected[1], analyzer.getMidEnergy());
+        assertRelative(expected[2], analyzer.getHighEnergy());
+    }
+
+    @Test
+    public void lowToneIsStructure() {
+        assertEquals(SoundType.STRUCTURE, classify(tone(100)));
+    }
+
+    @Test
+    public void speechBandToneIsVoice() {
+        assertEquals(SoundType.VOICE, classify(tone(1000)));
+    }
+
+    @Test
+    public void whiteNoiseIsEnvironment() {
+        Random random = new Random(2);
+        short[] samples = new short[SAMPLE_RATE];
+        for (int i = 0; i < samples.length; i++) samples[i] = (short) (random.nextGaussian() * 3000);
+        assertEquals(SoundType.ENVIRONMENT, classify(samples));
+    }
+
+    // Voice means the 200 Hz - 2 kHz speech band; energy above it alone is not a voice.
+    @Test
+    public void toneAboveSpeechBandIsEnvironment() {
+        assertEquals(SoundType.ENVIRONMENT, classify(tone(5000)));
+    }
+
+    @Test
+    public void silenceIsEnvironment() {
+        assertEquals(SoundType.ENVIRONMENT, classify(new short[SAMPLE_RATE]));
+    }
+
+    // A reset pipeline analyzes a clip as if it were fresh: nothing of the audio before it is
+    // left in the FFT history or the A-weighting filter.
+    @Test
+    public void resetPipelineForgetsEarlierAudio() {
+        short[] before = tone(100);
+        short[] clip = tone(1000);
+        Pipeline reused = analysisPipeline();
+        reused.process(before, 0, before.length / 2 + 300);
+        reused.reset();
+        Pipeline fresh = analysisPipeline();
+        for (int i = 0; i < clip.length; i += 1024) {
+            int n = Math.min(1024, clip.length - i);
+            reused.process(clip, i, n);
+            fresh.process(clip, i, n);
+            AudioBlock a = reused.getBlock();
+            AudioBlock b = fresh.getBlock();
+            assertEquals(b.index, a.index);
+            assertEquals(b.statsLevel, a.statsLevel, 0f);
+            assertEquals(b.midEnergy, a.midEnergy, 0.0);
+            assertEquals(b.lowEnergy, a.lowEnergy, 0.0);
+        }
+    }
+
+    private static Pipeline analysisPipeline() {
+        return new Pipeline(SAMPLE_RATE, 1024)
+                .add(new LevelMeter(SAMPLE_RATE, true))
+                .add(new SpectralAnalyzer(SAMPLE_RATE));
+    }
+
+    private static SoundType classify(short[] samples) {
+        SpectralAnalyzer analyzer = new SpectralAnalyzer(SAMPLE_RATE);
+        analyzer.process(samples, 0, samples.length);
+        return SoundType.classify(analyzer.getLowEnergy(), analyzer.getMidEnergy(), analyzer.getHighEnergy());
+    }
+
+    // One second of a sine at half scale.
+    private static short[] tone(double hz) {
+        short[] samples = new short[SAMPLE_RATE];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) Math.round(16384 * Math.sin(2 * Math.PI * hz * i / SAMPLE_RATE));
+        }
+        return samples;
+    }
+
+    // Hann-windowed DFT of one frame, one-sided power summed into the analyzer's three bands.
+    private static double[] naiveBands(short[] samples, int start) {
+        double binHz = (double) SAMPLE_RATE / N;
+        int lowBin = (int) Math.ceil(SpectralAnalyzer.LOW_FREQ_BOUND / binHz);
+        int highBin = (int) Math.ceil(SpectralAnalyzer.HIGH_FREQ_BOUND / binHz);
+        double[] x = new double[N];
+        for (int n = 0; n < N; n++) {
+            double window = 0.5 - 0.5 * Math.cos(2 * Math.PI * n / N);
+            x[n] = samples[start + n] / 32768.0 * window;
+        }
+        double[] bands = new double[3];
+        for (int k = 0; k <= N / 2; k++) {
+            double re = 0, im = 0;
+            for (int n = 0; n < N; n++) {
+                double angle = 2 * Math.PI * (((long) k * n) % N) / N;
+                re += x[n] * Math.cos(angle);
+                im -= x[n] * Math.sin(angle);
+            }
+            double power = re * re + im * im;
+            if (k > 0 && k < N / 2) power *= 2;
+            bands[k < lowBin ? 0 : k < highBin ? 1 : 2] += power;
+        }
+        return bands;
+    }
+
+    // The analyzer works in float; its sums agree with the double DFT to a fraction of a percent.
+    private static void assertRelative(double expected, double actual) {
+        assertEquals(expected, actual, Math.abs(expected) * 1e-3);
+    }
+}
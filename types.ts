@@ -1,7 +1,7 @@
 export enum SoundType {
   ENVIRONMENT = 'Environment',
   STRUCTURE = 'Structure/Impact', // Low frequency dominance
-  VOICE = 'Voice/High Freq'
+  VOICE = 'Voice/Mid Freq' // Speech band (200 Hz - 2 kHz) dominance
 }
 
 export enum SafetyLevel {